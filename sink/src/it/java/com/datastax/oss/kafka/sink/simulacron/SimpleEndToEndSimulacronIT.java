@@ -62,6 +62,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.record.TimestampType;
@@ -114,6 +115,11 @@ class SimpleEndToEndSimulacronIT {
       ImmutableMap.<String, String>builder().put("some1", "int").put("some2", "varchar").build();
 
   private static final String INSTANCE_NAME = "myinstance";
+
+  // Simulacron only answers the schema queries that aren't filtered by keyspace
+  private static final String REFRESHED_KEYSPACES =
+      "datastax-java-driver.advanced.metadata.schema.refreshed-keyspaces";
+
   private final BoundCluster simulacron;
   private final SimulacronUtils.Keyspace schema;
   private final CassandraSinkConnector conn;
@@ -165,6 +171,7 @@ class SimpleEndToEndSimulacronIT {
             .put("contactPoints", hostname)
             .put("port", port)
             .put("loadBalancing.localDc", "dc1")
+            .put(REFRESHED_KEYSPACES, "")
             .put("topic.mytopic.ks1.table1.mapping", "a=key, b=value")
             .put("topic.mytopic_with_ttl.ks1.table1_with_ttl.mapping", "a=key, b=value, __ttl=key")
             .put("topic.yourtopic.ks1.table2.mapping", "a=key, b=value")
@@ -276,6 +283,44 @@ class SimpleEndToEndSimulacronIT {
             "Prepare failed for statement: " + INSERT_STATEMENT + " or " + DELETE_STATEMENT);
   }
 
+  @Test
+  void fail_prepare_in_background() {
+    SimulacronUtils.primeTables(simulacron, schema);
+    Query bad1 = makeQuery(32, "fail", 153000987000L);
+    simulacron.prime(when(bad1).then(serverError("bad thing")).applyToPrepare());
+    Map<String, String> props = new HashMap<>(connectorProperties);
+    props.put("prepareInBackground", "true");
+    conn.start(props);
+
+    // the task starts, but the records of the table fail
+    runTaskWithRecords(makeRecord(42, "the answer", 153000987L, 1234));
+
+    Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+    task.preCommit(currentOffsets);
+    assertThat(currentOffsets)
+        .containsOnly(entry(new TopicPartition("mytopic", 0), new OffsetAndMetadata(1234L)));
+    assertThat(logs.getAllMessagesAsString())
+        .contains("Prepare failed for statement: " + INSERT_STATEMENT);
+  }
+
+  @Test
+  void fail_prepare_when_partition_assigned_if_subscribed_by_pattern() {
+    SimulacronUtils.primeTables(simulacron, schema);
+    Query bad1 = makeQuery(32, "fail", 153000987000L);
+    simulacron.prime(when(bad1).then(serverError("bad thing")).applyToPrepare());
+    Map<String, String> props = new HashMap<>(connectorProperties);
+    props.put("topics.regex", "my.*");
+    conn.start(props);
+
+    // the task starts without preparing any statement
+    task.start(conn.taskConfigs(1).get(0));
+
+    // the statements of a topic are prepared once one of its partitions is assigned
+    assertThatThrownBy(() -> task.open(Collections.singleton(new TopicPartition("mytopic", 0))))
+        .isInstanceOf(RuntimeException.class)
+        .hasMessageStartingWith("Prepare failed for statement: " + INSERT_STATEMENT);
+  }
+
   @Test
   void fail_prepare_no_deletes() {
     SimulacronUtils.primeTables(simulacron, schema);
@@ -317,6 +362,7 @@ class SimpleEndToEndSimulacronIT {
             .put("contactPoints", connectorProperties.get("contactPoints"))
             .put("port", connectorProperties.get("port"))
             .put("loadBalancing.localDc", "dc1")
+            .put(REFRESHED_KEYSPACES, "")
             .put("topic.mytopic.ks1.mycounter.mapping", "a=key, b=value, c=value.f2")
             .build();
     assertThatThrownBy(() -> task.start(props))
@@ -343,6 +389,7 @@ class SimpleEndToEndSimulacronIT {
     connProps.put("contactPoints", hostname);
     connProps.put("port", port);
     connProps.put("loadBalancing.localDc", "dc1");
+    connProps.put(REFRESHED_KEYSPACES, "");
     connProps.put(
         "topic.mytopic.ks1.mycounter.mapping", "a=value.bigint, b=value.text, c=value.int");
 
@@ -603,6 +650,34 @@ class SimpleEndToEndSimulacronIT {
     assertThat(queryList.get(1).getConsistency()).isEqualTo(ConsistencyLevel.LOCAL_ONE);
   }
 
+  @Test
+  void should_reuse_instance_state_of_task_restarted_within_grace_period() {
+    SimulacronUtils.primeTables(simulacron, schema);
+    Map<String, String> props = new HashMap<>(connectorProperties);
+    props.put("sessionGracePeriod", "60");
+    conn.start(props);
+    Map<String, String> taskProps = conn.taskConfigs(1).get(0);
+    task.start(taskProps);
+    InstanceState instanceState = task.getInstanceState();
+
+    // when
+    task.stop();
+    task.start(taskProps);
+
+    // then
+    assertThat(task.getInstanceState()).isSameAs(instanceState);
+    assertThat(instanceState.getSession().isClosed()).isFalse();
+
+    // when
+    task.stop();
+    taskProps.put("sessionGracePeriod", "0");
+    task.start(taskProps);
+
+    // then
+    assertThat(task.getInstanceState()).isNotSameAs(instanceState);
+    assertThat(instanceState.getSession().isClosed()).isTrue();
+  }
+
   /** Test for KAF-72 */
   @Test
   void should_record_counters_per_topic_ks_table() {
@@ -846,6 +921,43 @@ class SimpleEndToEndSimulacronIT {
         instanceState.getBatchSizeInBytesHistogram("yourtopic", "ks1.table2"), 3, true);
   }
 
+  /**
+   * Compares the number of requests needed to write records to distinct partitions with each batch
+   * grouping mode. Simulacron runs a single node, so all partitions share the same replica set.
+   */
+  @ParameterizedTest(name = "[{index}] batchGrouping={0}, expectedRequests={1}")
+  @CsvSource({"Partition,100", "ReplicaSet,4"})
+  void batch_grouping(String batchGrouping, int expectedRequests) {
+    SimulacronUtils.primeTables(simulacron, schema);
+    for (int i = 0; i < 100; i++) {
+      simulacron.prime(when(makeQuery(i, "value", 153000987000L)).then(noRows()));
+    }
+
+    Map<String, String> props = new HashMap<>(connectorProperties);
+    props.put("batchGrouping", batchGrouping);
+    conn.start(props);
+
+    // 100 records to distinct partitions, with the default of 32 records per batch
+    SinkRecord[] records =
+        IntStream.range(0, 100)
+            .mapToObj(i -> makeRecord(i, "value", 153000987L, i))
+            .toArray(SinkRecord[]::new);
+    runTaskWithRecords(records);
+
+    List<QueryLog> requests =
+        simulacron
+            .node(0)
+            .getLogs()
+            .getQueryLogs()
+            .stream()
+            .filter(q -> q.getType().equals("BATCH") || q.getType().equals("EXECUTE"))
+            .collect(Collectors.toList());
+    assertThat(requests).hasSize(expectedRequests);
+    InstanceState instanceState =
+        (InstanceState) ReflectionUtils.getInternalState(task, "instanceState");
+    assertThat(instanceState.getRecordCounter("mytopic", "ks1.table1").getCount()).isEqualTo(100);
+  }
+
   private void verifyOneBatchWithNStatements(Histogram histogram, long numberOfStatements) {
     // one batch
     assertThat(histogram.getCount()).isEqualTo(1);
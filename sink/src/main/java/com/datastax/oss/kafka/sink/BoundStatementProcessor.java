@@ -16,61 +16,140 @@
 package com.datastax.oss.kafka.sink;
 
 import com.codahale.metrics.Histogram;
-import com.datastax.oss.driver.api.core.ProtocolVersion;
-import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.api.core.cql.BatchStatement;
 import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
 import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
 import com.datastax.oss.driver.api.core.cql.Statement;
-import com.datastax.oss.driver.api.core.type.codec.registry.CodecRegistry;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.metadata.TokenMap;
+import com.datastax.oss.driver.api.core.servererrors.InvalidQueryException;
 import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
 import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableList;
-import com.datastax.oss.dsbulk.sampler.DataSizes;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.BatchGrouping;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.ExecutionEngine;
+import com.datastax.oss.kafka.sink.flow.CircuitBreaker;
+import com.datastax.oss.kafka.sink.flow.FairRequestScheduler;
+import com.datastax.oss.kafka.sink.flow.KeyLanes;
+import com.datastax.oss.kafka.sink.flow.MemoryBudget;
 import com.datastax.oss.kafka.sink.record.RecordAndStatement;
 import com.datastax.oss.kafka.sink.state.InstanceState;
+import com.datastax.oss.kafka.sink.state.TableHandle;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import org.apache.kafka.connect.sink.SinkRecord;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import org.apache.kafka.common.record.RecordBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Runnable class that pulls [sink-record, bound-statement] pairs from a queue and groups them based
  * on topic and routing-key, and then issues batch statements when groups are large enough
  * (currently 32). Execute BoundStatement's when there is only one in a group and we know no more
- * BoundStatements will be added to the queue.
+ * BoundStatements will be added to the queue. Batches rejected by the database are bisected to
+ * isolate the offending statements, see {@link #executeStatements(List, int, TableHandle)}.
+ *
+ * <p>With {@link BatchGrouping#REPLICA_SET}, statements are grouped by the set of replicas owning
+ * their partition rather than by routing key, so that tables with many distinct partitions still
+ * get batched. Such batches are routed to a replica of the first statement, which owns all of the
+ * partitions of the batch.
+ *
+ * <p>For tables that preserve order, a request is only sent once the previous request to the same
+ * partition has completed, see {@link KeyLanes}. Their statements are always grouped by routing
+ * key, even with {@link BatchGrouping#REPLICA_SET}, so that each request writes to a single
+ * partition and only waits for the requests to that partition.
+ *
+ * <p>Requests are sent with {@code executeAsync}, or with {@code executeReactive} when the {@link
+ * ExecutionEngine#REACTIVE} engine is configured, see {@link ReactiveWrite}.
+ *
+ * <p>Statements hold on to the task's {@link MemoryBudget} until they are written. When producers
+ * run out of memory, statements pending in incomplete groups are executed right away.
+ *
+ * <p>A processor either serves a single put, and stops at the end of it, or is shared by all tasks
+ * of a connector instance, see {@link InstanceState#getSharedStatementProcessor()}. A shared
+ * processor batches together statements of different tasks; the end of each put is signaled with
+ * {@link #endPut(PutTracker)}, upon which the groups holding statements of that put are executed.
+ * Each statement carries the {@link PutTracker} of its put, which receives the statement's outcome.
  */
-class BoundStatementProcessor implements Callable<Void> {
-  private static final RecordAndStatement END_STATEMENT = new RecordAndStatement(null, null, null);
-  private final CassandraSinkTask task;
+public class BoundStatementProcessor implements Callable<Void> {
+  private static final Logger log = LoggerFactory.getLogger(BoundStatementProcessor.class);
+
+  /**
+   * Messages of invalid query errors that are caused by the schema rather than by the data of a
+   * statement, and therefore reject every statement of the table alike.
+   */
+  private static final Pattern SCHEMA_ERROR_MESSAGE =
+      Pattern.compile(
+          "unconfigured table|does not exist|Undefined column|Unknown identifier",
+          Pattern.CASE_INSENSITIVE);
+
+  /** How long to wait for a statement before checking whether producers are short of memory. */
+  private static final long MEMORY_CHECK_INTERVAL_MILLIS = 10;
+
+  private static final RecordAndStatement END_STATEMENT =
+      new RecordAndStatement(null, 0, 0, null, null, null, 0, null);
+  private final InstanceState instanceState;
   private final BlockingQueue<RecordAndStatement> boundStatementsQueue;
-  private final Collection<CompletionStage<? extends AsyncResultSet>> queryFutures;
   private final int maxNumberOfRecordsInBatch;
-  private final AtomicInteger successfulRecordCount = new AtomicInteger();
-  private final ProtocolVersion protocolVersion;
-  private final CodecRegistry codecRegistry;
+  private final boolean bisectFailedBatches;
+  private final ExecutionEngine executionEngine;
 
-  BoundStatementProcessor(
-      CassandraSinkTask task,
+  /**
+   * How many times a rejected batch is split at most: enough to isolate each statement of the
+   * largest batch, which then costs at most twice as many requests as it has statements.
+   */
+  private final int maxBisectionDepth;
+
+  /** The puts that have statements pending in this processor; only used by its own thread. */
+  private final Set<PutTracker> activePuts = new LinkedHashSet<>();
+
+  /**
+   * The puts that were active when the loop failed, until their end is signaled; their statements
+   * are redelivered instead of being executed. Only used by the processor's thread.
+   */
+  private final Set<PutTracker> failedPuts = new HashSet<>();
+
+  @Nullable private TokenMap tokenMap;
+
+  public BoundStatementProcessor(
+      InstanceState instanceState,
       BlockingQueue<RecordAndStatement> boundStatementsQueue,
-      Collection<CompletionStage<? extends AsyncResultSet>> queryFutures,
       int maxNumberOfRecordsInBatch) {
-    this.task = task;
+    this.instanceState = instanceState;
     this.boundStatementsQueue = boundStatementsQueue;
-    this.queryFutures = queryFutures;
     this.maxNumberOfRecordsInBatch = maxNumberOfRecordsInBatch;
-    this.protocolVersion = task.getInstanceState().getProtocolVersion();
-    this.codecRegistry = task.getInstanceState().getCodecRegistry();
+    this.bisectFailedBatches = instanceState.isBisectFailedBatches();
+    this.executionEngine = instanceState.getExecutionEngine();
+    this.maxBisectionDepth = computeMaxBisectionDepth(maxNumberOfRecordsInBatch);
+    this.tokenMap = fetchTokenMap();
+  }
+
+  @Nullable
+  private TokenMap fetchTokenMap() {
+    return instanceState.getBatchGrouping() == BatchGrouping.REPLICA_SET
+        ? instanceState.getSession().getMetadata().getTokenMap().orElse(null)
+        : null;
   }
 
   /**
@@ -80,87 +159,276 @@ class BoundStatementProcessor implements Callable<Void> {
    * @param statements list of statements to execute
    */
   private void executeStatements(List<RecordAndStatement> statements) {
-    Statement statement;
     if (statements.isEmpty()) {
       // Should never happen, but just in case. No-op.
       return;
     }
 
-    RecordAndStatement firstStatement = statements.get(0);
-    InstanceState instanceState = task.getInstanceState();
-    Histogram batchSizeHistogram =
-        instanceState.getBatchSizeHistogram(
-            firstStatement.getRecord().topic(), firstStatement.getKeyspaceAndTable());
-    Histogram batchSizeInBytesHistogram =
-        instanceState.getBatchSizeInBytesHistogram(
-            firstStatement.getRecord().topic(), firstStatement.getKeyspaceAndTable());
-
-    Consumer<Integer> recordIncrement =
-        v ->
-            instanceState.incrementRecordCounter(
-                firstStatement.getRecord().topic(), firstStatement.getKeyspaceAndTable(), v);
-    Runnable failedRecordIncrement =
+    TableHandle table = statements.get(0).getTable();
+    Map<PutTracker, List<RecordAndStatement>> puts = groupByPut(statements);
+    CircuitBreaker circuitBreaker = table.getCircuitBreaker();
+    if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+      // The table is unhealthy: don't take a slot that healthy tables could use, have the
+      // records redelivered instead.
+      puts.forEach(
+          (put, putStatements) -> {
+            put.addRejectedTopic(table.getTopicName());
+            retry(put, putStatements);
+          });
+      return;
+    }
+
+    updateBatchSizeMetrics(statements, table);
+    // The request waits in its table's queue until the scheduler grants it a slot; the slot is
+    // held until the statements (and any bisected retries of them) are resolved. Retries run one
+    // after the other in the same slot, so a failed batch never needs to wait for new slots.
+    // Once resolved, the statements' memory is given back and only the count of requests in flight
+    // is updated, so that nothing keeps them alive until the end of the put.
+    // When preserving order, the request only enters its queue once the previous request of its
+    // lane is resolved, so that it holds no slot while waiting.
+    // Room for the request is reserved first, which blocks this thread while the scheduler's queues
+    // are full: the producers then wait for memory, until requests complete.
+    FairRequestScheduler scheduler = instanceState.getRequestScheduler();
+    scheduler.acquireCapacity();
+    Supplier<CompletionStage<Void>> request =
         () ->
-            instanceState.incrementFailedCounter(
-                firstStatement.getRecord().topic(), firstStatement.getKeyspaceAndTable());
+            scheduler
+                .submit(
+                    table.getRequestQueue(),
+                    statements.size(),
+                    () -> executeStatements(statements, 0, table));
+    KeyLanes lanes = table.getLanes();
+    CompletionStage<Void> future =
+        (lanes == null ? request.get() : lanes.submit(getLaneKey(statements), request))
+            .whenComplete(
+                (v, ex) -> {
+                  scheduler.releaseCapacity();
+                  long now = System.nanoTime();
+                  Timer endToEndLatencyTimer = table.getEndToEndLatencyTimer();
+                  // One sample per put of the request: its statements all share the same latency.
+                  puts.forEach(
+                      (put, putStatements) -> {
+                        release(put, putStatements);
+                        endToEndLatencyTimer.update(
+                            now - put.getStartNanos(), TimeUnit.NANOSECONDS);
+                      });
+                  if (ex != null) {
+                    log.error(
+                        "Problem when executing statements. This is likely a bug in the connector, please report.",
+                        ex);
+                  }
+                });
+    puts.keySet().forEach(put -> put.getInFlightRequests().add(future));
+  }
 
-    if (statements.size() == 1) {
-      statement = firstStatement.getStatement();
-      updateBatchSizeMetrics(statement, batchSizeHistogram, batchSizeInBytesHistogram);
-    } else {
-      BatchStatementBuilder bsb = BatchStatement.builder(DefaultBatchType.UNLOGGED);
-      statements.stream().map(RecordAndStatement::getStatement).forEach(bsb::addStatement);
-      // Construct the batch statement; set its consistency level to that of its first
-      // bound statement. All bound statements in a bucket have the same CL, so this is fine.
-      statement =
-          bsb.build().setConsistencyLevel(firstStatement.getStatement().getConsistencyLevel());
-      updateBatchSizeMetrics(statements, batchSizeHistogram, batchSizeInBytesHistogram);
-    }
-    @NonNull Semaphore requestBarrier = instanceState.getRequestBarrier();
-    requestBarrier.acquireUninterruptibly();
-    CompletionStage<? extends AsyncResultSet> future =
-        instanceState.getSession().executeAsync(statement);
-    queryFutures.add(
-        future.whenComplete(
+  /**
+   * @return the given statements by put, as a single entry in the common case where they all belong
+   *     to the same put.
+   */
+  private static Map<PutTracker, List<RecordAndStatement>> groupByPut(
+      List<RecordAndStatement> statements) {
+    PutTracker first = statements.get(0).getPutTracker();
+    for (RecordAndStatement recordAndStatement : statements) {
+      if (recordAndStatement.getPutTracker() != first) {
+        Map<PutTracker, List<RecordAndStatement>> puts = new LinkedHashMap<>();
+        for (RecordAndStatement r : statements) {
+          puts.computeIfAbsent(r.getPutTracker(), put -> new ArrayList<>()).add(r);
+        }
+        return puts;
+      }
+    }
+    return Collections.singletonMap(first, statements);
+  }
+
+  /**
+   * @return the routing key of the partition that the statements write to; all statements of a
+   *     request share the same routing key, since tables that preserve order are grouped by it.
+   */
+  @Nullable
+  private static Object getLaneKey(List<RecordAndStatement> statements) {
+    return statements.get(0).getStatement().getRoutingKey();
+  }
+
+  /**
+   * Execute the given statements and, if they were sent as a batch that the database rejected,
+   * split the batch in halves and retry each half recursively. This isolates the statements that
+   * actually caused the failure; only those are reported as failed, while the others are committed.
+   *
+   * @param statements list of statements to execute
+   * @param depth number of times the original batch has been split to produce this list
+   * @param table the table the statements write to
+   * @return a stage that completes when all of the statements have succeeded or been reported as
+   *     failed
+   */
+  private CompletionStage<Void> executeStatements(
+      List<RecordAndStatement> statements, int depth, TableHandle table) {
+    CircuitBreaker circuitBreaker = table.getCircuitBreaker();
+    long start = System.nanoTime();
+    return execute(toStatement(statements))
+        .handle(
             (result, ex) -> {
-              requestBarrier.release();
-              if (ex != null) {
-                statements.forEach(
-                    recordAndStatement -> {
-                      SinkRecord record = recordAndStatement.getRecord();
-                      task.handleFailure(
-                          record,
+              long latency = System.nanoTime() - start;
+              table.getExecuteLatencyTimer().update(latency, TimeUnit.NANOSECONDS);
+              if (circuitBreaker != null) {
+                circuitBreaker.onComplete(latency, ex);
+              }
+              return ex;
+            })
+        .thenCompose(
+            ex -> {
+              if (ex == null) {
+                if (depth > 0) {
+                  table.getBisectionDepthHistogram().update(depth);
+                }
+                updateFreshnessMetrics(statements, table);
+                groupByPut(statements)
+                    .forEach(
+                        (put, putStatements) -> put.addSuccessfulRecords(putStatements.size()));
+              } else if (shouldBisect(statements, ex, depth)) {
+                int middle = statements.size() / 2;
+                List<RecordAndStatement> firstHalf = statements.subList(0, middle);
+                List<RecordAndStatement> secondHalf = statements.subList(middle, statements.size());
+                return executeStatements(firstHalf, depth + 1, table)
+                    .thenCompose(v -> executeStatements(secondHalf, depth + 1, table));
+              } else {
+                if (depth > 0) {
+                  table.getBisectionDepthHistogram().update(depth);
+                }
+                Meter failedRecordCounter = table.getFailedRecordCounter();
+                for (RecordAndStatement recordAndStatement : statements) {
+                  recordAndStatement
+                      .getPutTracker()
+                      .getTask()
+                      .handleFailure(
+                          recordAndStatement,
                           ex,
                           recordAndStatement.getStatement().getPreparedStatement().getQuery(),
-                          failedRecordIncrement);
-                    });
-              } else {
-                successfulRecordCount.addAndGet(statements.size());
+                          table.getTableConfig(),
+                          failedRecordCounter::mark);
+                }
               }
-              recordIncrement.accept(statements.size());
-            }));
+              table.getRecordCounter().mark(statements.size());
+              return CompletableFuture.completedFuture(null);
+            });
   }
 
-  private void updateBatchSizeMetrics(
-      List<RecordAndStatement> statements,
-      Histogram batchSizeHistogram,
-      Histogram batchSizeInBytesHistogram) {
-    statements.forEach(
-        s ->
-            batchSizeInBytesHistogram.update(
-                DataSizes.getDataSize(s.getStatement(), protocolVersion, codecRegistry)));
-    batchSizeHistogram.update(statements.size());
+  /** Execute the given statement with the configured {@link ExecutionEngine}. */
+  private CompletionStage<?> execute(Statement<?> statement) {
+    CqlSession session = instanceState.getSession();
+    return executionEngine == ExecutionEngine.REACTIVE
+        ? ReactiveWrite.execute(session, statement)
+        : session.executeAsync(statement);
   }
 
-  private void updateBatchSizeMetrics(
-      Statement<?> statement, Histogram batchSizeHistogram, Histogram batchSizeInBytesHistogram) {
-    batchSizeInBytesHistogram.update(
-        DataSizes.getDataSize(statement, protocolVersion, codecRegistry));
-    batchSizeHistogram.update(1);
+  @NonNull
+  @VisibleForTesting
+  static Statement<?> toStatement(List<RecordAndStatement> statements) {
+    RecordAndStatement firstStatement = statements.get(0);
+    if (statements.size() == 1) {
+      return firstStatement.getStatement();
+    }
+    BatchStatementBuilder bsb = BatchStatement.builder(DefaultBatchType.UNLOGGED);
+    boolean allIdempotent = true;
+    boolean anyNotIdempotent = false;
+    for (RecordAndStatement recordAndStatement : statements) {
+      BoundStatement statement = recordAndStatement.getStatement();
+      bsb.addStatement(statement);
+      Boolean idempotent = statement.isIdempotent();
+      allIdempotent &= Boolean.TRUE.equals(idempotent);
+      anyNotIdempotent |= Boolean.FALSE.equals(idempotent);
+    }
+    // An unlogged batch can be retried and executed speculatively as long as each of its
+    // statements can; otherwise leave it to the default idempotence, unless a statement is known
+    // not to be idempotent.
+    if (allIdempotent) {
+      bsb.setIdempotence(true);
+    } else if (anyNotIdempotent) {
+      bsb.setIdempotence(false);
+    }
+    // Construct the batch statement; set its consistency level to that of its first
+    // bound statement. All bound statements in a bucket have the same CL, so this is fine.
+    return bsb.build().setConsistencyLevel(firstStatement.getStatement().getConsistencyLevel());
   }
 
-  int getSuccessfulRecordCount() {
-    return successfulRecordCount.get();
+  /**
+   * Whether a failed request should be retried as two smaller batches. Only batches that the
+   * database rejected as invalid are split: in that case none of their statements were applied, so
+   * retrying the valid ones is always safe, even for non-idempotent statements.
+   *
+   * <p>Errors that reject the batch as a whole, whatever its statements, are not worth splitting
+   * for: missing permissions, or an invalid query caused by the schema, e.g. a dropped table or
+   * column. Splitting stops once batches are down to single statements, which {@link
+   * #maxBisectionDepth} guarantees for the largest batches.
+   */
+  private boolean shouldBisect(List<RecordAndStatement> statements, Throwable ex, int depth) {
+    return bisectFailedBatches
+        && statements.size() > 1
+        && depth < maxBisectionDepth
+        && ex instanceof InvalidQueryException
+        && !isSchemaError((InvalidQueryException) ex);
+  }
+
+  /**
+   * @return ceil(log2(maxNumberOfRecordsInBatch)), the depth at which the largest batches are split
+   *     into single statements.
+   */
+  @VisibleForTesting
+  static int computeMaxBisectionDepth(int maxNumberOfRecordsInBatch) {
+    return maxNumberOfRecordsInBatch <= 1
+        ? 0
+        : Integer.SIZE - Integer.numberOfLeadingZeros(maxNumberOfRecordsInBatch - 1);
+  }
+
+  private static boolean isSchemaError(InvalidQueryException ex) {
+    String message = ex.getMessage();
+    return message != null && SCHEMA_ERROR_MESSAGE.matcher(message).find();
+  }
+
+  private void updateBatchSizeMetrics(List<RecordAndStatement> statements, TableHandle table) {
+    Histogram batchSizeInBytesHistogram = table.getBatchSizeInBytesHistogram();
+    for (RecordAndStatement s : statements) {
+      batchSizeInBytesHistogram.update(s.getDataSize());
+    }
+    table.getBatchSizeHistogram().update(statements.size());
+  }
+
+  private static void updateFreshnessMetrics(
+      List<RecordAndStatement> statements, TableHandle table) {
+    Histogram freshnessHistogram = table.getFreshnessHistogram();
+    long now = System.currentTimeMillis();
+    for (RecordAndStatement s : statements) {
+      if (s.getTimestamp() != RecordBatch.NO_TIMESTAMP) {
+        freshnessHistogram.update(now - s.getTimestamp());
+      }
+    }
+  }
+
+  /** Give back the memory held by the given statements of a put, and acknowledge their records. */
+  /** Have the records of the given statements redelivered, without executing them. */
+  private static void retry(PutTracker put, List<RecordAndStatement> statements) {
+    for (RecordAndStatement recordAndStatement : statements) {
+      put.getTask()
+          .retryLater(recordAndStatement.getTopicPartition(), recordAndStatement.getOffset());
+    }
+    release(put, statements);
+  }
+
+  private static void release(PutTracker put, List<RecordAndStatement> statements) {
+    put.getMemoryBudget().release(getDataSize(statements));
+    UnackedRecords unackedRecords = put.getUnackedRecords();
+    if (unackedRecords != null) {
+      for (RecordAndStatement s : statements) {
+        unackedRecords.remove(s.getTopicPartition(), s.getOffset());
+      }
+    }
+  }
+
+  private static long getDataSize(List<RecordAndStatement> statements) {
+    long total = 0;
+    for (RecordAndStatement s : statements) {
+      total += s.getDataSize();
+    }
+    return total;
   }
 
   @Override
@@ -171,49 +439,155 @@ class BoundStatementProcessor implements Callable<Void> {
 
   @VisibleForTesting
   void runLoop(Consumer<List<RecordAndStatement>> consumer) throws InterruptedException {
-    // Map of <topic, map<partition-key, list<recordAndStatement>>
-    Map<String, Map<ByteBuffer, List<RecordAndStatement>>> statementGroups = new HashMap<>();
-    while (true) {
-
-      // Note: this call may block indefinitely if stop() is never called.
-      // It is the producer's responsibility to call stop() when there are no more records
-      // to process.
-      RecordAndStatement recordAndStatement = boundStatementsQueue.take();
-
-      if (recordAndStatement == END_STATEMENT) {
-        // There are no more bound-statements being produced.
-        // Create and execute remaining statement groups,
-        // creating BatchStatement's when a group has more than
-        // one BoundStatement.
-        statementGroups
-            .values()
-            .stream()
-            .map(Map::values)
-            .flatMap(Collection::stream)
-            .filter(recordAndStatements -> !recordAndStatements.isEmpty())
-            .map(ImmutableList::copyOf)
-            .forEach(consumer);
-        return;
+    // Map of <topic-table, map<partition-key or replica set, list<recordAndStatement>>
+    Map<TableHandle, Map<Object, List<RecordAndStatement>>> statementGroups = new LinkedHashMap<>();
+    long nextMemoryCheck = System.nanoTime();
+    try {
+      while (true) {
+
+        // Note: this loop may run indefinitely if stop() is never called.
+        // It is the producer's responsibility to call stop() when there are no more records
+        // to process.
+        RecordAndStatement recordAndStatement =
+            boundStatementsQueue.poll(MEMORY_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        // A shared processor may never be idle, since other tasks keep adding statements.
+        long now = System.nanoTime();
+        if (recordAndStatement == null || now - nextMemoryCheck >= 0) {
+          nextMemoryCheck = now + TimeUnit.MILLISECONDS.toNanos(MEMORY_CHECK_INTERVAL_MILLIS);
+          if (isAnyProducerShortOfMemory()) {
+            // The producers wait for memory, part of which is held by the statements pending
+            // here: send them now, even though their batches are not full.
+            executeStatementGroups(statementGroups, consumer, null);
+          }
+          if (recordAndStatement == null) {
+            continue;
+          }
+        }
+
+        if (recordAndStatement == END_STATEMENT) {
+          // There are no more bound-statements being produced.
+          // Create and execute remaining statement groups,
+          // creating BatchStatement's when a group has more than
+          // one BoundStatement.
+          executeStatementGroups(statementGroups, consumer, null);
+          return;
+        }
+
+        PutTracker put = recordAndStatement.getPutTracker();
+        if (failedPuts.contains(put)) {
+          // The loop failed while the put had statements pending: the rest of them are
+          // redelivered too, so that the put doesn't see the failures of a partial write.
+          if (recordAndStatement.getStatement() == null) {
+            failedPuts.remove(put);
+            put.markFlushed();
+          } else {
+            retry(put, Collections.singletonList(recordAndStatement));
+          }
+          continue;
+        }
+        if (recordAndStatement.getStatement() == null) {
+          // The put is over: send the groups holding its statements, other puts may still add
+          // statements to the remaining groups.
+          executeStatementGroups(statementGroups, consumer, put);
+          activePuts.remove(put);
+          put.markFlushed();
+          // Long-lived processors pick up token map changes between puts.
+          tokenMap = fetchTokenMap();
+          continue;
+        }
+        activePuts.add(put);
+
+        // Get the routing-key and add this statement to the appropriate
+        // statement group. A statement group contains collections of
+        // bound statements for a particular table. Each collection contains
+        // statements for a particular routing key (a representation of partition key).
+
+        List<RecordAndStatement> recordsAndStatements =
+            categorizeStatement(statementGroups, recordAndStatement);
+        if (recordsAndStatements.size() == maxNumberOfRecordsInBatch) {
+          // We're ready to send out a batch request!
+          consumer.accept(ImmutableList.copyOf(recordsAndStatements));
+          recordsAndStatements.clear();
+        }
+      }
+    } finally {
+      // Should the loop fail, the statements pending in the groups would be lost while their puts
+      // complete: have their records redelivered instead, before the puts look at their failures.
+      retryPendingStatements(statementGroups);
+      // The statements of these puts that are still queued are redelivered as well once the loop
+      // runs again, which flushes the puts when it reaches their end.
+      failedPuts.addAll(activePuts);
+      activePuts.clear();
+    }
+  }
+
+  private static void retryPendingStatements(
+      Map<TableHandle, Map<Object, List<RecordAndStatement>>> statementGroups) {
+    for (Map<Object, List<RecordAndStatement>> statementGroup : statementGroups.values()) {
+      for (List<RecordAndStatement> statements : statementGroup.values()) {
+        if (statements.isEmpty()) {
+          continue;
+        }
+        groupByPut(statements).forEach(BoundStatementProcessor::retry);
+      }
+    }
+    statementGroups.clear();
+  }
+
+  private boolean isAnyProducerShortOfMemory() {
+    for (PutTracker put : activePuts) {
+      if (put.getMemoryBudget().isExhausted()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Execute the pending statement groups, and forget about the empty ones.
+   *
+   * @param put if not null, only execute the groups holding statements of that put
+   */
+  private static void executeStatementGroups(
+      Map<TableHandle, Map<Object, List<RecordAndStatement>>> statementGroups,
+      Consumer<List<RecordAndStatement>> consumer,
+      @Nullable PutTracker put) {
+    Iterator<Map<Object, List<RecordAndStatement>>> tables = statementGroups.values().iterator();
+    while (tables.hasNext()) {
+      Map<Object, List<RecordAndStatement>> statementGroup = tables.next();
+      Iterator<List<RecordAndStatement>> groups = statementGroup.values().iterator();
+      while (groups.hasNext()) {
+        List<RecordAndStatement> recordsAndStatements = groups.next();
+        if (put == null || containsStatementOf(recordsAndStatements, put)) {
+          if (!recordsAndStatements.isEmpty()) {
+            consumer.accept(ImmutableList.copyOf(recordsAndStatements));
+          }
+          groups.remove();
+        } else if (recordsAndStatements.isEmpty()) {
+          groups.remove();
+        }
+      }
+      if (statementGroup.isEmpty()) {
+        tables.remove();
       }
+    }
+  }
 
-      // Get the routing-key and add this statement to the appropriate
-      // statement group. A statement group contains collections of
-      // bound statements for a particular table. Each collection contains
-      // statements for a particular routing key (a representation of partition key).
-
-      List<RecordAndStatement> recordsAndStatements =
-          categorizeStatement(statementGroups, recordAndStatement);
-      if (recordsAndStatements.size() == maxNumberOfRecordsInBatch) {
-        // We're ready to send out a batch request!
-        consumer.accept(ImmutableList.copyOf(recordsAndStatements));
-        recordsAndStatements.clear();
+  private static boolean containsStatementOf(
+      List<RecordAndStatement> recordsAndStatements, PutTracker put) {
+    for (RecordAndStatement recordAndStatement : recordsAndStatements) {
+      if (recordAndStatement.getPutTracker() == put) {
+        return true;
       }
     }
+    return false;
   }
 
   /**
-   * Categorize the given statement into the appropriate statement group, based on keyspace/table
-   * and routing key.
+   * Categorize the given statement into the appropriate statement group, based on topic-table and
+   * routing key, or replica set. Tables are identified by their handle, which is unique per
+   * topic-table and hashed by identity, so that grouping a statement doesn't build any key.
    *
    * @param statementGroups running collection of categorized statements that are pending execution
    * @param recordAndStatement the record/statement that needs to be put in a bucket
@@ -222,25 +596,54 @@ class BoundStatementProcessor implements Callable<Void> {
   @VisibleForTesting
   @NonNull
   List<RecordAndStatement> categorizeStatement(
-      Map<String, Map<ByteBuffer, List<RecordAndStatement>>> statementGroups,
+      Map<TableHandle, Map<Object, List<RecordAndStatement>>> statementGroups,
       RecordAndStatement recordAndStatement) {
     BoundStatement statement = recordAndStatement.getStatement();
-    SinkRecord sinkRecord = recordAndStatement.getRecord();
-    ByteBuffer routingKey = statement.getRoutingKey();
-    Map<ByteBuffer, List<RecordAndStatement>> statementGroup =
-        statementGroups.computeIfAbsent(
-            makeGroupKey(recordAndStatement, sinkRecord), t -> new HashMap<>());
+    Map<Object, List<RecordAndStatement>> statementGroup =
+        statementGroups.computeIfAbsent(recordAndStatement.getTable(), t -> new HashMap<>());
     List<RecordAndStatement> recordsAndStatements =
-        statementGroup.computeIfAbsent(routingKey, t -> new ArrayList<>());
+        statementGroup.computeIfAbsent(
+            makeBatchKey(recordAndStatement, statement), t -> new ArrayList<>());
     recordsAndStatements.add(recordAndStatement);
     return recordsAndStatements;
   }
 
-  private static String makeGroupKey(RecordAndStatement recordAndStatement, SinkRecord sinkRecord) {
-    return String.format("%s.%s", sinkRecord.topic(), recordAndStatement.getKeyspaceAndTable());
+  /**
+   * @return the replica set of the statement's partition if grouping by replica set, token metadata
+   *     is available for its keyspace and its table doesn't preserve order; its routing key
+   *     otherwise.
+   */
+  @Nullable
+  private Object makeBatchKey(RecordAndStatement recordAndStatement, BoundStatement statement) {
+    ByteBuffer routingKey = statement.getRoutingKey();
+    // Tables that preserve order need each request to write to a single partition.
+    boolean preserveOrder = recordAndStatement.getTable().getLanes() != null;
+    if (tokenMap != null && routingKey != null && !preserveOrder) {
+      Set<Node> replicas =
+          tokenMap.getReplicas(
+              recordAndStatement.getTable().getTableConfig().getKeyspace(), routingKey);
+      if (!replicas.isEmpty()) {
+        return replicas;
+      }
+    }
+    return routingKey;
+  }
+
+  /** @return the queue to add statements to. */
+  BlockingQueue<RecordAndStatement> getQueue() {
+    return boundStatementsQueue;
+  }
+
+  /**
+   * Signal that all of the statements of the given put were added to the queue. Its pending
+   * statements are then executed, after which {@link PutTracker#awaitFlushed()} returns.
+   */
+  void endPut(PutTracker put) {
+    boundStatementsQueue.add(new RecordAndStatement(null, 0, 0, null, null, null, 0, put));
   }
 
-  void stop() {
+  /** Signal that no more statements will be added to the queue, once those in it are executed. */
+  public void stop() {
     boundStatementsQueue.add(END_STATEMENT);
   }
 }
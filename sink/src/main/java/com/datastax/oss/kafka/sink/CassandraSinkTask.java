@@ -15,13 +15,20 @@
  */
 package com.datastax.oss.kafka.sink;
 
-import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.codahale.metrics.Gauge;
 import com.datastax.oss.driver.api.core.cql.BoundStatement;
 import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
 import com.datastax.oss.driver.shaded.guava.common.util.concurrent.ThreadFactoryBuilder;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.Uninterruptibles;
+import com.datastax.oss.dsbulk.sampler.DataSizes;
 import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.IgnoreErrorsPolicy;
 import com.datastax.oss.kafka.sink.config.TableConfig;
-import com.datastax.oss.kafka.sink.config.TopicConfig;
+import com.datastax.oss.kafka.sink.deadletter.DeadLetterQueue;
+import com.datastax.oss.kafka.sink.deadletter.ErrantRecordReporterAdapter;
+import com.datastax.oss.kafka.sink.deadletter.FailedRecord;
+import com.datastax.oss.kafka.sink.flow.InFlightRequests;
+import com.datastax.oss.kafka.sink.flow.MemoryBudget;
+import com.datastax.oss.kafka.sink.flow.RateLimiter;
 import com.datastax.oss.kafka.sink.metadata.InnerDataAndMetadata;
 import com.datastax.oss.kafka.sink.metadata.MetadataCreator;
 import com.datastax.oss.kafka.sink.record.HeadersDataMetadata;
@@ -30,25 +37,30 @@ import com.datastax.oss.kafka.sink.record.KeyValueRecordMetadata;
 import com.datastax.oss.kafka.sink.record.RecordAndStatement;
 import com.datastax.oss.kafka.sink.state.InstanceState;
 import com.datastax.oss.kafka.sink.state.LifeCycleManager;
+import com.datastax.oss.kafka.sink.state.TableHandle;
+import edu.umd.cs.findbugs.annotations.Nullable;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.header.Headers;
 import org.apache.kafka.connect.sink.SinkRecord;
@@ -63,12 +75,26 @@ import org.slf4j.LoggerFactory;
 public class CassandraSinkTask extends SinkTask {
   private static final Runnable NO_OP = () -> {};
   private static final Logger log = LoggerFactory.getLogger(CassandraSinkTask.class);
+
+  /** How long to wait for failed records to be dead-lettered before giving up on a commit. */
+  private static final long DEAD_LETTER_TIMEOUT_SECONDS = 10;
+
   private final ExecutorService boundStatementProcessorService =
       Executors.newFixedThreadPool(
           1, new ThreadFactoryBuilder().setNameFormat("bound-statement-processor-%d").build());
   private InstanceState instanceState;
-  private Map<TopicPartition, OffsetAndMetadata> failureOffsets;
+  private FailureOffsets failureOffsets;
   private TaskStateManager taskStateManager;
+  private ErrantRecordReporterAdapter errantRecordReporter;
+  private TopicPauser topicPauser;
+  private MemoryBudget memoryBudget;
+  @Nullable private UnackedRecords unackedRecords;
+
+  /** The gauges of the age of the oldest unacknowledged record of each assigned partition. */
+  private final Map<TopicPartition, Gauge<Long>> oldestUnackedRecordAgeGauges = new HashMap<>();
+
+  /** Records sent to the dead letter sink, whose offsets must not be committed until written. */
+  private final Queue<FailedRecord> deadLetters = new ConcurrentLinkedQueue<>();
 
   @Override
   public String version() {
@@ -79,8 +105,50 @@ public class CassandraSinkTask extends SinkTask {
   public void start(Map<String, String> props) {
     log.debug("CassandraSinkTask starting with props: {}", props);
     taskStateManager = new TaskStateManager();
-    failureOffsets = new ConcurrentHashMap<>();
+    failureOffsets = new FailureOffsets();
+    topicPauser = new TopicPauser(context);
     instanceState = LifeCycleManager.startTask(this, props);
+    unackedRecords =
+        instanceState.getConfig().isTrackUnackedRecords()
+            ? new UnackedRecords(System::currentTimeMillis)
+            : null;
+    memoryBudget = instanceState.createTaskMemoryBudget();
+    if (instanceState.getDeadLetterQueue() != null) {
+      errantRecordReporter = ErrantRecordReporterAdapter.fromContext(context);
+    }
+  }
+
+  @Override
+  public void open(Collection<TopicPartition> partitions) {
+    LifeCycleManager.openTopics(
+        instanceState, partitions.stream().map(TopicPartition::topic).collect(Collectors.toSet()));
+    topicPauser.onPartitionsAssigned(partitions);
+    UnackedRecords unackedRecords = this.unackedRecords;
+    if (unackedRecords == null) {
+      return;
+    }
+    for (TopicPartition partition : partitions) {
+      TopicPartition topicPartition =
+          failureOffsets.topicPartition(partition.topic(), partition.partition());
+      Gauge<Long> gauge = () -> unackedRecords.getOldestAgeMillis(topicPartition);
+      instanceState.registerOldestUnackedRecordAgeGauge(topicPartition, gauge);
+      oldestUnackedRecordAgeGauges.put(topicPartition, gauge);
+    }
+  }
+
+  @Override
+  public void close(Collection<TopicPartition> partitions) {
+    if (unackedRecords == null) {
+      return;
+    }
+    for (TopicPartition partition : partitions) {
+      // The partition may be assigned to another task by now: only remove this task's gauge.
+      Gauge<Long> gauge = oldestUnackedRecordAgeGauges.remove(partition);
+      if (gauge != null) {
+        instanceState.removeOldestUnackedRecordAgeGauge(partition, gauge);
+      }
+      unackedRecords.forget(partition);
+    }
   }
 
   /**
@@ -94,9 +162,11 @@ public class CassandraSinkTask extends SinkTask {
   @Override
   public Map<TopicPartition, OffsetAndMetadata> preCommit(
       Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+    // Records may be committed only once they are safely in the dead letter sink.
+    awaitDeadLetters();
     // Copy all of the failures (which point to the offset that we should retrieve from next time)
     // into currentOffsets.
-    currentOffsets.putAll(failureOffsets);
+    failureOffsets.copyTo(currentOffsets);
     return currentOffsets;
   }
 
@@ -107,6 +177,12 @@ public class CassandraSinkTask extends SinkTask {
    */
   @Override
   public void put(Collection<SinkRecord> sinkRecords) {
+    // Paused topics don't deliver records, so this must be checked before bailing out below.
+    topicPauser.resumeIf(
+        topic ->
+            !instanceState.hasOpenCircuitBreaker(topic)
+                && instanceState.getThrottleDelayMillis(topic) == 0);
+    wakeUpWhenThrottlingEnds(topicPauser.getPausedTopics());
     if (sinkRecords.isEmpty()) {
       // Nothing to process.
       return;
@@ -120,75 +196,182 @@ public class CassandraSinkTask extends SinkTask {
 
           Instant start = Instant.now();
           List<CompletableFuture<Void>> mappingFutures;
-          Collection<CompletionStage<? extends AsyncResultSet>> queryFutures =
-              new ConcurrentLinkedQueue<>();
-          BlockingQueue<RecordAndStatement> boundStatementsQueue = new LinkedBlockingQueue<>();
+          PutTracker put = new PutTracker(this);
+          BoundStatementProcessor sharedStatementProcessor =
+              instanceState.getSharedStatementProcessor();
           BoundStatementProcessor boundStatementProcessor =
-              new BoundStatementProcessor(
-                  this,
-                  boundStatementsQueue,
-                  queryFutures,
-                  instanceState.getMaxNumberOfRecordsInBatch());
+              sharedStatementProcessor != null
+                  ? sharedStatementProcessor
+                  : new BoundStatementProcessor(
+                      instanceState,
+                      new LinkedBlockingQueue<>(),
+                      instanceState.getMaxNumberOfRecordsInBatch());
+          BlockingQueue<RecordAndStatement> boundStatementsQueue =
+              boundStatementProcessor.getQueue();
+          Future<?> boundStatementProcessorTask =
+              sharedStatementProcessor != null
+                  ? null
+                  : boundStatementProcessorService.submit(boundStatementProcessor);
           try {
-            Future<?> boundStatementProcessorTask =
-                boundStatementProcessorService.submit(boundStatementProcessor);
+            // Records are only mapped once the statements of their tables are prepared, so that
+            // mapping threads never wait for statements prepared in the background.
+            Map<String, CompletableFuture<Void>> topicsReady = new HashMap<>();
             mappingFutures =
                 sinkRecords
                     .stream()
                     .map(
                         record ->
-                            CompletableFuture.runAsync(
-                                () -> mapAndQueueRecord(boundStatementsQueue, record),
-                                instanceState.getMappingExecutor()))
+                            topicsReady
+                                .computeIfAbsent(
+                                    record.topic(), instanceState::whenRecordMappersReady)
+                                .thenRunAsync(
+                                    () -> mapAndQueueRecord(boundStatementsQueue, record, put),
+                                    instanceState.getMappingExecutor()))
                     .collect(Collectors.toList());
 
+            RetriableException mappingInterrupted = null;
             try {
               CompletableFuture.allOf(mappingFutures.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+              if (!(e.getCause() instanceof RetriableException)) {
+                throw e;
+              }
+              // The records that could not be queued are rewound below, along with the failures.
+              mappingInterrupted = (RetriableException) e.getCause();
             } finally {
-              boundStatementProcessor.stop();
-            }
-            try {
-              boundStatementProcessorTask.get();
-            } catch (ExecutionException e) {
-              log.error(
-                  "Problem when getting boundStatementProcessorTask. This is likely a bug in the connector, please report.",
-                  e);
+              if (boundStatementProcessorTask == null) {
+                boundStatementProcessor.endPut(put);
+              } else {
+                boundStatementProcessor.stop();
+              }
             }
-            log.debug("Query futures: {}", queryFutures.size());
-            for (CompletionStage<? extends AsyncResultSet> f : queryFutures) {
+            if (boundStatementProcessorTask == null) {
+              put.awaitFlushed();
+            } else {
               try {
-                f.toCompletableFuture().get();
+                boundStatementProcessorTask.get();
               } catch (ExecutionException e) {
                 log.error(
-                    "Problem when getting queryFuture. This is likely a bug in the connector, please report.",
+                    "Problem when getting boundStatementProcessorTask. This is likely a bug in the connector, please report.",
                     e);
               }
             }
+            // All statements of the put were sent, no more requests will be added.
+            InFlightRequests inFlightRequests = put.getInFlightRequests();
+            inFlightRequests.close();
+            log.debug("Requests in flight: {}", inFlightRequests.size());
+            try {
+              inFlightRequests.whenDone().get();
+            } catch (ExecutionException e) {
+              log.error(
+                  "Problem when waiting for requests in flight. This is likely a bug in the connector, please report.",
+                  e);
+            }
+            // All statements are written by now. Should any have been lost, e.g. because the
+            // processor failed, don't let their memory be held forever.
+            memoryBudget.releaseAll();
+            if (unackedRecords != null) {
+              unackedRecords.clear();
+            }
 
             Instant end = Instant.now();
             long ms = Duration.between(start, end).toMillis();
+            // Rewind the consumer to the first failed record of each partition. This is done
+            // here, on the task thread, because the task context is not thread-safe.
+            failureOffsets.forEach(context::offset);
+            for (String topic : put.getRejectedTopics()) {
+              if (instanceState.hasOpenCircuitBreaker(topic)) {
+                topicPauser.pause(topic);
+              }
+            }
+            for (String topic : put.getThrottledTopics()) {
+              if (instanceState.getThrottleDelayMillis(topic) > 0) {
+                topicPauser.pause(topic);
+              }
+            }
+            wakeUpWhenThrottlingEnds(topicPauser.getPausedTopics());
             log.debug(
                 "Completed {}/{} inserts in {} ms",
-                boundStatementProcessor.getSuccessfulRecordCount(),
+                put.getSuccessfulRecordCount(),
                 sinkRecords.size(),
                 ms);
+            if (mappingInterrupted != null) {
+              throw mappingInterrupted;
+            }
           } catch (InterruptedException e) {
-            boundStatementProcessor.stop();
-            queryFutures.forEach(
-                f -> {
-                  f.toCompletableFuture().cancel(true);
-                  try {
-                    f.toCompletableFuture().get();
-                  } catch (InterruptedException | ExecutionException | CancellationException ex) {
-                    log.warn("Problem when interrupting completableFuture", ex);
-                  }
-                });
-
+            // The statements of the put are still sent and their requests still complete: wait
+            // for them, so that their failures are rewound now rather than recorded as failures
+            // of the next put. Requests are bounded by the driver's request timeout.
+            awaitResolvedUninterruptibly(put, boundStatementProcessorTask);
+            memoryBudget.releaseAll();
+            if (unackedRecords != null) {
+              unackedRecords.clear();
+            }
+            failureOffsets.forEach(context::offset);
+            Thread.currentThread().interrupt();
             throw new RetriableException("Interrupted while issuing queries");
           }
         });
   }
 
+  /**
+   * Wait, ignoring interrupts, until all statements of the given put are resolved.
+   *
+   * @param put the tracker of the put
+   * @param boundStatementProcessorTask the processor serving only this put, or null if the put
+   *     was sent to the shared processor
+   */
+  private void awaitResolvedUninterruptibly(
+      PutTracker put, @Nullable Future<?> boundStatementProcessorTask) {
+    try {
+      if (boundStatementProcessorTask == null) {
+        put.awaitFlushedUninterruptibly();
+      } else {
+        Uninterruptibles.getUninterruptibly(boundStatementProcessorTask);
+      }
+      InFlightRequests inFlightRequests = put.getInFlightRequests();
+      inFlightRequests.close();
+      Uninterruptibles.getUninterruptibly(inFlightRequests.whenDone());
+    } catch (ExecutionException e) {
+      log.error(
+          "Problem when waiting for the statements of an interrupted put. This is likely a bug in the connector, please report.",
+          e);
+    }
+  }
+
+  /**
+   * Wait for the records sent to the dead letter sink so far to be written.
+   *
+   * @throws RetriableException if they are not written in time, or one of them could not be
+   *     written; this skips the commit, and the worker rewinds the consumer to the last committed
+   *     offsets so that the records are delivered again
+   */
+  private void awaitDeadLetters() {
+    FailedRecord failedRecord;
+    while ((failedRecord = deadLetters.peek()) != null) {
+      try {
+        failedRecord.awaitWritten(DEAD_LETTER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (ExecutionException e) {
+        // The record is delivered again once rewound, don't wait for it at the next commit.
+        deadLetters.poll();
+        throw new RetriableException(
+            String.format(
+                "Could not write failed record of %s-%d at offset %d to the dead letter sink",
+                failedRecord.getRecord().topic(),
+                failedRecord.getRecord().kafkaPartition(),
+                failedRecord.getRecord().kafkaOffset()),
+            e.getCause());
+      } catch (TimeoutException e) {
+        throw new RetriableException("Timed out while writing failed records to dead letter sink");
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RetriableException(
+            "Interrupted while writing failed records to dead letter sink");
+      }
+      deadLetters.poll();
+    }
+  }
+
   @Override
   public void stop() {
     taskStateManager.toStopTransitionLogic(
@@ -200,60 +383,139 @@ public class CassandraSinkTask extends SinkTask {
     return instanceState;
   }
 
+  MemoryBudget getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  @Nullable
+  UnackedRecords getUnackedRecords() {
+    return unackedRecords;
+  }
+
   /**
    * Map the given Kafka record based on its topic and the table mappings. Add result {@link
    * BoundStatement}'s to the given queue for further processing.
    *
    * @param boundStatementsQueue the queue that processes {@link RecordAndStatement}'s
    * @param record the {@link SinkRecord} to map
+   * @param put the tracker of the put that delivered the record
    */
   @VisibleForTesting
   void mapAndQueueRecord(
-      BlockingQueue<RecordAndStatement> boundStatementsQueue, SinkRecord record) {
+      BlockingQueue<RecordAndStatement> boundStatementsQueue, SinkRecord record, PutTracker put) {
+    List<TableHandle> tables;
+    TopicPartition topicPartition;
     try {
-      String topicName = record.topic();
-      TopicConfig topicConfig = instanceState.getTopicConfig(topicName);
-
-      for (TableConfig tableConfig : topicConfig.getTableConfigs()) {
-        Runnable failedRecordIncrement =
-            () ->
-                instanceState.incrementFailedCounter(topicName, tableConfig.getKeyspaceAndTable());
-        try {
-          InnerDataAndMetadata key = MetadataCreator.makeMeta(record.key());
-          InnerDataAndMetadata value = MetadataCreator.makeMeta(record.value());
-          Headers headers = record.headers();
-
-          KeyValueRecord keyValueRecord =
-              new KeyValueRecord(
-                  key.getInnerData(), value.getInnerData(), record.timestamp(), headers);
-          RecordMapper mapper = instanceState.getRecordMapper(tableConfig);
-          boundStatementsQueue.offer(
-              new RecordAndStatement(
-                  record,
-                  tableConfig.getKeyspaceAndTable(),
-                  mapper
-                      .map(
-                          new KeyValueRecordMetadata(
-                              key.getInnerMetadata(),
-                              value.getInnerMetadata(),
-                              new HeadersDataMetadata(headers)),
-                          keyValueRecord)
-                      .setConsistencyLevel(tableConfig.getConsistencyLevel())));
-        } catch (Exception ex) {
-          // An IOException can theoretically happen when processing json data. But bad json
-          // won't result in this exception. We're not pulling data from a file or any other kind of
-          // IO.
-          // KAF-200: expand failure handling to all runtime and checked exceptions when parsing
-          // and mapping records.
-          handleFailure(record, ex, null, failedRecordIncrement);
-        }
-      }
+      tables = instanceState.getTableHandles(record.topic());
+      topicPartition = failureOffsets.topicPartition(record.topic(), record.kafkaPartition());
     } catch (Exception e) {
       // A KafkaException could occur if the record references an unknown topic.
       // Most likely this error can't occur in this application...but we try to protect ourselves
       // anyway just in case.
-      handleFailure(record, e, null, instanceState::incrementFailedWithUnknownTopicCounter);
+      handleFailure(record, e, null, null, instanceState::incrementFailedWithUnknownTopicCounter);
+      return;
     }
+    // The record is only needed after binding to report it to the dead letter sink.
+    SinkRecord retainedRecord = instanceState.getDeadLetterQueue() == null ? null : record;
+    for (TableHandle table : tables) {
+      TableConfig tableConfig = table.getTableConfig();
+      long start = System.nanoTime();
+      long timestamp = record.timestamp() == null ? RecordBatch.NO_TIMESTAMP : record.timestamp();
+      BoundStatement statement;
+      long dataSize;
+      try {
+        InnerDataAndMetadata key = MetadataCreator.makeMeta(record.key());
+        InnerDataAndMetadata value = MetadataCreator.makeMeta(record.value());
+        Headers headers = record.headers();
+
+        KeyValueRecord keyValueRecord =
+            new KeyValueRecord(
+                key.getInnerData(), value.getInnerData(), record.timestamp(), headers);
+        statement =
+            table
+                .getRecordMapper()
+                .map(
+                    new KeyValueRecordMetadata(
+                        key.getInnerMetadata(),
+                        value.getInnerMetadata(),
+                        new HeadersDataMetadata(headers)),
+                    keyValueRecord)
+                .setConsistencyLevel(tableConfig.getConsistencyLevel());
+        dataSize =
+            DataSizes.getDataSize(
+                statement, instanceState.getProtocolVersion(), instanceState.getCodecRegistry());
+      } catch (Exception ex) {
+        // An IOException can theoretically happen when processing json data. But bad json
+        // won't result in this exception. We're not pulling data from a file or any other kind of
+        // IO.
+        // KAF-200: expand failure handling to all runtime and checked exceptions when parsing
+        // and mapping records.
+        handleFailure(record, ex, null, tableConfig, table.getFailedRecordCounter()::mark);
+        continue;
+      }
+      long mapped = System.nanoTime();
+      table.getMapLatencyTimer().update(mapped - start, TimeUnit.NANOSECONDS);
+      RateLimiter rateLimiter = table.getRateLimiter();
+      if (rateLimiter != null && !rateLimiter.tryAcquire(1, dataSize)) {
+        // Don't queue the statement, have the record redelivered instead: the topic is paused
+        // once the put is done, and resumed when the table is back under its limits.
+        retryLater(topicPartition, record.kafkaOffset());
+        put.addThrottledTopic(record.topic());
+        continue;
+      }
+      // Wait for statements to be written if too many of them are pending.
+      try {
+        memoryBudget.acquire(dataSize);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        // Not a mapping failure: have the record redelivered once put() rewinds the partition.
+        retryLater(topicPartition, record.kafkaOffset());
+        throw new RetriableException("Interrupted while waiting for memory to queue records", e);
+      }
+      table.getEnqueueDelayTimer().update(System.nanoTime() - mapped, TimeUnit.NANOSECONDS);
+      if (unackedRecords != null) {
+        unackedRecords.add(topicPartition, record.kafkaOffset(), timestamp);
+      }
+      boundStatementsQueue.offer(
+          new RecordAndStatement(
+              topicPartition,
+              record.kafkaOffset(),
+              timestamp,
+              retainedRecord,
+              table,
+              statement,
+              dataSize,
+              put));
+    }
+  }
+
+  /**
+   * Have put() called again once the first of the given topics is no longer throttled, nor held
+   * back by an open circuit breaker. When all assigned partitions are paused, the consumer would
+   * otherwise wait for the next offset commit before returning control to the task.
+   */
+  private void wakeUpWhenThrottlingEnds(Collection<String> topics) {
+    topics
+        .stream()
+        .mapToLong(
+            topic ->
+                Math.max(
+                    instanceState.getThrottleDelayMillis(topic),
+                    instanceState.getCircuitBreakerDelayMillis(topic)))
+        .filter(delay -> delay > 0)
+        .min()
+        .ifPresent(context::timeout);
+  }
+
+  /**
+   * Have the given record delivered again, without considering it failed. This is used for records
+   * that could not be written because of a transient condition, such as an open circuit breaker.
+   *
+   * @param topicPartition the topic-partition of the record to retry
+   * @param offset the offset of the record to retry
+   */
+  void retryLater(TopicPartition topicPartition, long offset) {
+    failureOffsets.record(topicPartition, offset);
   }
 
   /**
@@ -262,47 +524,99 @@ public class CassandraSinkTask extends SinkTask {
    * @param record the {@link SinkRecord} that failed to process
    * @param e the exception
    * @param cql the cql statement that failed to execute
+   * @param tableConfig the table the record was mapped to, if known
+   * @param failCounter the metric that keeps track of number of failures encountered
+   */
+  void handleFailure(
+      SinkRecord record,
+      Throwable e,
+      @Nullable String cql,
+      @Nullable TableConfig tableConfig,
+      Runnable failCounter) {
+    handleFailure(
+        failureOffsets.topicPartition(record.topic(), record.kafkaPartition()),
+        record.kafkaOffset(),
+        record,
+        e,
+        cql,
+        tableConfig,
+        failCounter);
+  }
+
+  /**
+   * Handle a record whose statement failed to execute.
+   *
+   * @param recordAndStatement the record that failed to be written, and its statement
+   * @param e the exception
+   * @param cql the cql statement that failed to execute
+   * @param tableConfig the table the record was mapped to
    * @param failCounter the metric that keeps track of number of failures encountered
    */
-  synchronized void handleFailure(
-      SinkRecord record, Throwable e, String cql, Runnable failCounter) {
-    // Store the topic-partition and offset that had an error. However, we want
-    // to keep track of the *lowest* offset in a topic-partition that failed. Because
-    // requests are sent in parallel and response ordering is non-deterministic,
-    // it's possible for a failure in an insert with a higher offset be detected
-    // before that of a lower offset. Thus, we only record a failure if
-    // 1. There is no entry for this topic-partition, or
-    // 2. There is an entry, but its offset is > our offset.
-    //
-    // This can happen in multiple invocations of this callback concurrently, so
-    // we perform these checks/updates in a synchronized block. Presumably failures
-    // don't occur that often, so we don't have to be very fancy here.
+  void handleFailure(
+      RecordAndStatement recordAndStatement,
+      Throwable e,
+      String cql,
+      TableConfig tableConfig,
+      Runnable failCounter) {
+    handleFailure(
+        recordAndStatement.getTopicPartition(),
+        recordAndStatement.getOffset(),
+        recordAndStatement.getRecord(),
+        e,
+        cql,
+        tableConfig,
+        failCounter);
+  }
 
+  /**
+   * Describe a record that was not retained, in the same format as {@link SinkRecord#toString()}
+   * minus the fields that are not known anymore.
+   */
+  private static String describe(TopicPartition topicPartition, long offset) {
+    return String.format(
+        "SinkRecord{kafkaOffset=%d} ConnectRecord{topic='%s', kafkaPartition=%d}",
+        offset, topicPartition.topic(), topicPartition.partition());
+  }
+
+  private void handleFailure(
+      TopicPartition topicPartition,
+      long offset,
+      @Nullable SinkRecord record,
+      Throwable e,
+      @Nullable String cql,
+      @Nullable TableConfig tableConfig,
+      Runnable failCounter) {
+    // Store the topic-partition and offset that had an error; FailureOffsets only keeps
+    // the *lowest* failed offset of each topic-partition (see there why it doesn't lock).
     IgnoreErrorsPolicy ignoreErrors = instanceState.getConfig().getIgnoreErrors();
     boolean driverFailure = cql != null;
     if (ignoreErrors == IgnoreErrorsPolicy.NONE
         || (ignoreErrors == IgnoreErrorsPolicy.DRIVER && !driverFailure)) {
-      TopicPartition topicPartition = new TopicPartition(record.topic(), record.kafkaPartition());
-      long currentOffset = Long.MAX_VALUE;
-      if (failureOffsets.containsKey(topicPartition)) {
-        currentOffset = failureOffsets.get(topicPartition).offset();
-      }
-      if (record.kafkaOffset() < currentOffset) {
-        failureOffsets.put(topicPartition, new OffsetAndMetadata(record.kafkaOffset()));
-        context.offset(topicPartition, record.kafkaOffset());
-      }
+      failureOffsets.record(topicPartition, offset);
     }
 
     failCounter.run();
 
-    if (driverFailure) {
-      log.warn(
-          "Error inserting/updating row for Kafka record {}: {}\n   statement: {}}",
-          record,
-          e.getMessage(),
-          cql);
-    } else {
-      log.warn("Error decoding/mapping Kafka record {}: {}", record, e.getMessage());
+    // The record is always retained when there is a dead letter sink.
+    DeadLetterQueue deadLetterQueue = instanceState.getDeadLetterQueue();
+    if (deadLetterQueue != null && record != null) {
+      FailedRecord failedRecord = new FailedRecord(record, e, cql, errantRecordReporter);
+      if (deadLetterQueue.offer(failedRecord)) {
+        deadLetters.add(failedRecord);
+      } else {
+        // The dead letter sink is full or closed: have the record delivered again rather than
+        // committing it.
+        retryLater(topicPartition, offset);
+      }
     }
+
+    instanceState
+        .getFailureReporter()
+        .report(
+            tableConfig,
+            topicPartition.topic(),
+            record == null ? describe(topicPartition, offset) : record,
+            e,
+            cql);
   }
 }
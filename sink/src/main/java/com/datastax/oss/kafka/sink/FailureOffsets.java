@@ -0,0 +1,103 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Keeps track of the lowest failed offset of each topic-partition.
+ *
+ * <p>Because requests are sent in parallel and response ordering is non-deterministic, a failure in
+ * an insert with a higher offset may be detected before that of a lower offset. Failures are
+ * reported concurrently from mapping threads and driver I/O threads, so the minimum is maintained
+ * with a compare-and-set loop on a per-partition {@link AtomicLong} rather than under a lock:
+ * during an error storm, I/O threads never wait on each other.
+ *
+ * <p>{@link TopicPartition} instances are cached and reused across batches, since a task only ever
+ * sees a handful of them. The task also uses them to identify the partition of records in flight,
+ * see {@link #topicPartition(String, int)}.
+ */
+class FailureOffsets {
+  private static final long NO_FAILURE = Long.MAX_VALUE;
+
+  private final ConcurrentMap<String, ConcurrentMap<Integer, TopicPartition>> topicPartitions =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<TopicPartition, AtomicLong> offsets = new ConcurrentHashMap<>();
+
+  /**
+   * Record a failure at the given position.
+   *
+   * @return true if the offset is now the lowest failed offset of its topic-partition.
+   */
+  boolean record(String topic, int partition, long offset) {
+    return record(topicPartition(topic, partition), offset);
+  }
+
+  /**
+   * Record a failure at the given position.
+   *
+   * @return true if the offset is now the lowest failed offset of its topic-partition.
+   */
+  boolean record(TopicPartition topicPartition, long offset) {
+    AtomicLong lowest = offsets.computeIfAbsent(topicPartition, tp -> new AtomicLong(NO_FAILURE));
+    long current;
+    do {
+      current = lowest.get();
+      if (offset >= current) {
+        return false;
+      }
+    } while (!lowest.compareAndSet(current, offset));
+    return true;
+  }
+
+  /** Forget all failures; must not be called while failures are being recorded. */
+  void clear() {
+    offsets.clear();
+  }
+
+  boolean isEmpty() {
+    return offsets.isEmpty();
+  }
+
+  /** Invoke the given action with the lowest failed offset of each topic-partition. */
+  void forEach(ObjLongConsumer<TopicPartition> action) {
+    offsets.forEach(
+        (topicPartition, offset) -> {
+          long value = offset.get();
+          if (value != NO_FAILURE) {
+            action.accept(topicPartition, value);
+          }
+        });
+  }
+
+  /** Copy the lowest failed offsets into the given map, overriding existing entries. */
+  void copyTo(Map<TopicPartition, OffsetAndMetadata> target) {
+    forEach((topicPartition, offset) -> target.put(topicPartition, new OffsetAndMetadata(offset)));
+  }
+
+  /** @return the cached instance of the given topic-partition. */
+  TopicPartition topicPartition(String topic, int partition) {
+    return topicPartitions
+        .computeIfAbsent(topic, t -> new ConcurrentHashMap<>())
+        .computeIfAbsent(partition, p -> new TopicPartition(topic, p));
+  }
+}
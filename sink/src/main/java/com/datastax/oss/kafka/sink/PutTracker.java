@@ -0,0 +1,124 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink;
+
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.Uninterruptibles;
+import com.datastax.oss.kafka.sink.flow.InFlightRequests;
+import com.datastax.oss.kafka.sink.flow.MemoryBudget;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The statements of one put that are not written yet, and the outcome of those that were.
+ *
+ * <p>Each statement carries the tracker of its put, so that a processor can write statements of
+ * several puts, possibly from several tasks, in the same batch, while each put only waits for its
+ * own statements and only learns about its own records.
+ *
+ * <p>Throttled topics are collected by the mapping threads, and rejected topics by the processor
+ * while it executes the put's statements; both must only be read once the put is {@linkplain
+ * #awaitFlushed() flushed}.
+ */
+public class PutTracker {
+  private final CassandraSinkTask task;
+  private final MemoryBudget memoryBudget;
+  @Nullable private final UnackedRecords unackedRecords;
+  private final InFlightRequests inFlightRequests = new InFlightRequests();
+  private final AtomicInteger successfulRecordCount = new AtomicInteger();
+  private final Set<String> rejectedTopics = new HashSet<>();
+  private final Set<String> throttledTopics = ConcurrentHashMap.newKeySet();
+  private final CountDownLatch flushed = new CountDownLatch(1);
+  private final long startNanos = System.nanoTime();
+
+  PutTracker(CassandraSinkTask task) {
+    this.task = task;
+    this.memoryBudget = task.getMemoryBudget();
+    this.unackedRecords = task.getUnackedRecords();
+  }
+
+  CassandraSinkTask getTask() {
+    return task;
+  }
+
+  /** @return the {@link System#nanoTime()} at which the put started. */
+  long getStartNanos() {
+    return startNanos;
+  }
+
+  /** @return the budget that the put's statements hold on to until they are written. */
+  MemoryBudget getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  /**
+   * @return the records of the task whose statements are not resolved yet, or null if they are not
+   *     tracked.
+   */
+  @Nullable
+  UnackedRecords getUnackedRecords() {
+    return unackedRecords;
+  }
+
+  /** @return the requests in flight that write statements of the put. */
+  InFlightRequests getInFlightRequests() {
+    return inFlightRequests;
+  }
+
+  void addSuccessfulRecords(int count) {
+    successfulRecordCount.addAndGet(count);
+  }
+
+  int getSuccessfulRecordCount() {
+    return successfulRecordCount.get();
+  }
+
+  void addRejectedTopic(String topic) {
+    rejectedTopics.add(topic);
+  }
+
+  /** @return the topics of records that were rejected by a circuit breaker. */
+  Set<String> getRejectedTopics() {
+    return rejectedTopics;
+  }
+
+  void addThrottledTopic(String topic) {
+    throttledTopics.add(topic);
+  }
+
+  /** @return the topics of records that were redelivered because of a table's rate limits. */
+  Set<String> getThrottledTopics() {
+    return throttledTopics;
+  }
+
+  /** Signal that all statements of the put were sent, or rejected. */
+  void markFlushed() {
+    flushed.countDown();
+  }
+
+  /** Wait until all statements of the put were sent, or rejected. */
+  void awaitFlushed() throws InterruptedException {
+    flushed.await();
+  }
+
+  /** Wait until all statements of the put were sent, or rejected, ignoring interrupts. */
+  void awaitFlushedUninterruptibly() {
+    Uninterruptibles.awaitUninterruptibly(flushed);
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink;
+
+import com.datastax.dse.driver.api.core.cql.reactive.ReactiveResultSet;
+import com.datastax.dse.driver.api.core.cql.reactive.ReactiveRow;
+import com.datastax.dse.driver.api.core.cql.reactive.ReactiveSession;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.ExecutionEngine;
+import com.datastax.oss.kafka.sink.flow.FairRequestScheduler;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Subscriber to the {@link ReactiveResultSet} of a write, used with {@link
+ * ExecutionEngine#REACTIVE}.
+ *
+ * <p>The driver only sends a reactive request once it is subscribed to. Writes are subscribed to
+ * when the {@link FairRequestScheduler} grants them a slot, so the scheduler acts as a flatMap of
+ * the writes of all tables, bounded to {@code maxConcurrentRequests} inner publishers; the
+ * processors wait for {@linkplain FairRequestScheduler#acquireCapacity() capacity} before
+ * producing more writes, which is how demand propagates back to them.
+ */
+class ReactiveWrite implements Subscriber<ReactiveRow> {
+  private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+  /**
+   * Execute the given statement reactively.
+   *
+   * @return a stage that completes once the statement is written, or exceptionally with the error
+   *     that the driver signaled
+   */
+  @NonNull
+  static CompletionStage<Void> execute(
+      @NonNull ReactiveSession session, @NonNull Statement<?> statement) {
+    ReactiveWrite write = new ReactiveWrite();
+    session.executeReactive(statement).subscribe(write);
+    return write.done;
+  }
+
+  @Override
+  public void onSubscribe(Subscription subscription) {
+    // Writes return no rows, except the outcome of conditional updates; take them all at once.
+    subscription.request(Long.MAX_VALUE);
+  }
+
+  @Override
+  public void onNext(ReactiveRow row) {
+    // The outcome of conditional updates is not checked.
+  }
+
+  @Override
+  public void onError(Throwable error) {
+    done.completeExceptionally(error);
+  }
+
+  @Override
+  public void onComplete() {
+    done.complete(null);
+  }
+}
@@ -58,6 +58,10 @@ public class RecordMapper {
   private static final Logger log = LoggerFactory.getLogger(RecordMapper.class);
   private final PreparedStatement insertUpdateStatement;
   private final PreparedStatement deleteStatement;
+
+  /** Whether the insert-update statement is idempotent once bound with a timestamp. */
+  private final boolean idempotentInsertUpdate;
+
   private final Set<CqlIdentifier> primaryKey;
   private final Mapping mapping;
   private final boolean allowExtraFields;
@@ -73,6 +77,7 @@ public class RecordMapper {
   public RecordMapper(
       PreparedStatement insertUpdateStatement,
       PreparedStatement deleteStatement,
+      boolean idempotentInsertUpdate,
       List<CqlIdentifier> primaryKey,
       Mapping mapping,
       boolean allowExtraFields,
@@ -80,6 +85,7 @@ public class RecordMapper {
       TableConfig tableConfig) {
     this.insertUpdateStatement = insertUpdateStatement;
     this.deleteStatement = deleteStatement;
+    this.idempotentInsertUpdate = idempotentInsertUpdate;
     this.primaryKey = new LinkedHashSet<>(primaryKey);
     this.mapping = mapping;
     this.nullToUnset = tableConfig.isNullToUnset();
@@ -142,6 +148,12 @@ public class RecordMapper {
           GenericType.LONG);
     }
 
+    // Deletes are always idempotent, inserts only when bound with the record's timestamp, so that
+    // every execution writes with the same timestamp. Any other insert or update, e.g. one that
+    // increments a counter, appends to a list or calls now(), must not be retried.
+    builder.setIdempotence(
+        !isInsertUpdate || (idempotentInsertUpdate && !timestampIsNotSet(builder)));
+
     BoundStatement bs = builder.build();
     // if user provided custom query we are not validating PKs because they may have different names
     // in prepared statement than column definition on CQL table
@@ -0,0 +1,104 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pauses and resumes consumption of whole topics, for instance while the tables they map to can't
+ * be written to.
+ *
+ * <p>The task context is not thread-safe, so this class must only be used from the task thread.
+ */
+class TopicPauser {
+  private static final Logger log = LoggerFactory.getLogger(TopicPauser.class);
+  private final SinkTaskContext context;
+  private final Set<String> pausedTopics = new HashSet<>();
+
+  TopicPauser(SinkTaskContext context) {
+    this.context = context;
+  }
+
+  /** Pause all the partitions of the given topic assigned to this task. */
+  void pause(String topic) {
+    if (pausedTopics.add(topic)) {
+      log.info("Pausing consumption of topic {}", topic);
+      TopicPartition[] partitions = assignedPartitions(topic, context.assignment());
+      if (partitions.length > 0) {
+        context.pause(partitions);
+      }
+    }
+  }
+
+  /** Resume the paused topics that match the given predicate. */
+  void resumeIf(Predicate<String> canResume) {
+    Iterator<String> iterator = pausedTopics.iterator();
+    while (iterator.hasNext()) {
+      String topic = iterator.next();
+      if (canResume.test(topic)) {
+        log.info("Resuming consumption of topic {}", topic);
+        iterator.remove();
+        TopicPartition[] partitions = assignedPartitions(topic, context.assignment());
+        if (partitions.length > 0) {
+          context.resume(partitions);
+        }
+      }
+    }
+  }
+
+  boolean isPaused(String topic) {
+    return pausedTopics.contains(topic);
+  }
+
+  Set<String> getPausedTopics() {
+    return Collections.unmodifiableSet(pausedTopics);
+  }
+
+  /**
+   * Pause newly assigned partitions of paused topics; the consumer forgets about paused partitions
+   * when they are reassigned.
+   */
+  void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+    if (pausedTopics.isEmpty()) {
+      return;
+    }
+    TopicPartition[] toPause =
+        partitions
+            .stream()
+            .filter(partition -> pausedTopics.contains(partition.topic()))
+            .toArray(TopicPartition[]::new);
+    if (toPause.length > 0) {
+      context.pause(toPause);
+    }
+  }
+
+  private static TopicPartition[] assignedPartitions(
+      String topic, Collection<TopicPartition> assignment) {
+    return assignment
+        .stream()
+        .filter(partition -> partition.topic().equals(topic))
+        .toArray(TopicPartition[]::new);
+  }
+}
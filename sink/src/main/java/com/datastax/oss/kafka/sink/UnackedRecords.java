@@ -0,0 +1,171 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * Keeps track of the records of each topic-partition that were queued for writing, but whose
+ * statements are not resolved yet, i.e. neither written nor reported as failed.
+ *
+ * <p>The oldest unacknowledged record of a partition is the one with the lowest offset. Its age is
+ * derived from its Kafka timestamp or, if it has none, from the time it was queued. A record mapped
+ * to several tables is only acknowledged once all of its statements are resolved.
+ *
+ * <p>This class is thread-safe. Each partition has its own lock, held for a binary search at most:
+ * mapping threads and driver I/O threads only contend when working on the same partition.
+ */
+class UnackedRecords {
+  private final ConcurrentMap<TopicPartition, Partition> partitions = new ConcurrentHashMap<>();
+  private final LongSupplier clock;
+
+  /** @param clock the source of the current time, in milliseconds since the epoch */
+  UnackedRecords(LongSupplier clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Record that a statement of the given record was queued.
+   *
+   * @param topicPartition the topic-partition of the record
+   * @param offset the offset of the record
+   * @param timestamp the Kafka timestamp of the record, or {@link
+   *     org.apache.kafka.common.record.RecordBatch#NO_TIMESTAMP} if it has none
+   */
+  void add(TopicPartition topicPartition, long offset, long timestamp) {
+    long queuedAt = timestamp >= 0 ? timestamp : clock.getAsLong();
+    partitions.computeIfAbsent(topicPartition, tp -> new Partition()).add(offset, queuedAt);
+  }
+
+  /** Record that a statement of the given record, previously added, was resolved. */
+  void remove(TopicPartition topicPartition, long offset) {
+    Partition partition = partitions.get(topicPartition);
+    if (partition != null) {
+      partition.remove(offset);
+    }
+  }
+
+  /**
+   * @return the age of the oldest unacknowledged record of the given topic-partition, in
+   *     milliseconds, or 0 if all of its records are acknowledged.
+   */
+  long getOldestAgeMillis(TopicPartition topicPartition) {
+    Partition partition = partitions.get(topicPartition);
+    long oldest = partition == null ? Long.MAX_VALUE : partition.getOldestTimestamp();
+    return oldest == Long.MAX_VALUE ? 0 : Math.max(0, clock.getAsLong() - oldest);
+  }
+
+  /** Stop tracking the given topic-partition, e.g. because it was revoked. */
+  void forget(TopicPartition topicPartition) {
+    partitions.remove(topicPartition);
+  }
+
+  /**
+   * Forget all unacknowledged records, in case some statements were lost without being resolved;
+   * must only be called when no statement is pending.
+   */
+  void clear() {
+    partitions.values().forEach(Partition::clear);
+  }
+
+  /**
+   * The unacknowledged records of a partition, by ascending offset, in primitive arrays so that
+   * tracking a record doesn't allocate, except to grow them. Records are mostly added in offset
+   * order, so a new one is usually appended; a record is only dropped once those before it are
+   * acknowledged too, which keeps the oldest one at the head.
+   */
+  private static class Partition {
+    private long[] offsets = new long[16];
+    private long[] timestamps = new long[16];
+    /** The number of pending statements of each record; acknowledged records have none. */
+    private int[] pending = new int[16];
+    /** The records are in [head, tail). */
+    private int head;
+    private int tail;
+
+    synchronized void add(long offset, long timestamp) {
+      int index;
+      if (head == tail || offsets[tail - 1] < offset) {
+        index = tail;
+      } else {
+        index = Arrays.binarySearch(offsets, head, tail, offset);
+        if (index >= 0) {
+          // Another statement of the record, e.g. for another table, or the record again.
+          if (pending[index]++ == 0) {
+            timestamps[index] = timestamp;
+          }
+          return;
+        }
+        index = -index - 1;
+      }
+      if (tail == offsets.length) {
+        index -= makeRoom();
+      }
+      if (index < tail) {
+        System.arraycopy(offsets, index, offsets, index + 1, tail - index);
+        System.arraycopy(timestamps, index, timestamps, index + 1, tail - index);
+        System.arraycopy(pending, index, pending, index + 1, tail - index);
+      }
+      offsets[index] = offset;
+      timestamps[index] = timestamp;
+      pending[index] = 1;
+      tail++;
+    }
+
+    synchronized void remove(long offset) {
+      int index = Arrays.binarySearch(offsets, head, tail, offset);
+      if (index >= 0 && pending[index] > 0) {
+        pending[index]--;
+        while (head < tail && pending[head] == 0) {
+          head++;
+        }
+        if (head == tail) {
+          head = tail = 0;
+        }
+      }
+    }
+
+    synchronized long getOldestTimestamp() {
+      return head == tail ? Long.MAX_VALUE : timestamps[head];
+    }
+
+    synchronized void clear() {
+      head = tail = 0;
+    }
+
+    /**
+     * Move the records to the start of new arrays, twice as large if the records fill more than
+     * half of the current ones.
+     *
+     * @return the number of positions the records moved back by
+     */
+    private int makeRoom() {
+      int shift = head;
+      int size = tail - head;
+      int capacity = size * 2 > offsets.length ? offsets.length * 2 : offsets.length;
+      offsets = Arrays.copyOfRange(offsets, head, head + capacity);
+      timestamps = Arrays.copyOfRange(timestamps, head, head + capacity);
+      pending = Arrays.copyOfRange(pending, head, head + capacity);
+      head = 0;
+      tail = size;
+      return shift;
+    }
+  }
+}
@@ -16,10 +16,14 @@
 package com.datastax.oss.kafka.sink.config;
 
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.CONTACT_POINTS;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METADATA_SCHEMA_MAX_EVENTS;
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METADATA_SCHEMA_REFRESHED_KEYSPACES;
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METRICS_NODE_ENABLED;
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METRICS_SESSION_CQL_REQUESTS_INTERVAL;
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METRICS_SESSION_ENABLED;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.SPECULATIVE_EXECUTION_DELAY;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.SPECULATIVE_EXECUTION_MAX;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.SPECULATIVE_EXECUTION_POLICY_CLASS;
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.SSL_CIPHER_SUITES;
 
 import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
@@ -29,6 +33,8 @@ import com.datastax.oss.kafka.sink.util.SinkUtil;
 import com.datastax.oss.kafka.sink.util.StringUtil;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -50,7 +56,7 @@ public class CassandraSinkConfig {
   private static final Logger log = LoggerFactory.getLogger(CassandraSinkConfig.class);
   private static final Pattern TOPIC_KS_TABLE_SETTING_PATTERN =
       Pattern.compile(
-          "topic\\.([a-zA-Z0-9._-]+)\\.([^.]+|\"[\"]+\")\\.([^.]+|\"[\"]+\")\\.(mapping|consistencyLevel|ttl|nullToUnset|deletesEnabled|ttlTimeUnit|timestampTimeUnit|query)$");
+          "topic\\.([a-zA-Z0-9._-]+)\\.([^.]+|\"[\"]+\")\\.([^.]+|\"[\"]+\")\\.(mapping|consistencyLevel|ttl|nullToUnset|deletesEnabled|ttlTimeUnit|timestampTimeUnit|query|weight|maxRowsPerSecond|maxBytesPerSecond|preserveOrder)$");
   public static final Pattern TOPIC_CODEC_PATTERN =
       Pattern.compile(
           "topic\\.([a-zA-Z0-9._-]+)\\.(codec)\\.(locale|timeZone|timestamp|date|time|unit)$");
@@ -95,6 +101,44 @@ public class CassandraSinkConfig {
 
   static final String IGNORE_ERRORS = "ignoreErrors";
 
+  static final String BISECT_FAILED_BATCHES_OPT = "bisectFailedBatches";
+
+  static final String BATCH_GROUPING_OPT = "batchGrouping";
+
+  static final String BATCH_ACROSS_TASKS_OPT = "batchAcrossTasks";
+
+  static final String EXECUTION_ENGINE_OPT = "executionEngine";
+
+  static final String FAILURE_LOG_INTERVAL_OPT = "failureLogInterval";
+  static final String FAILURE_LOG_SAMPLES_OPT = "failureLogSamples";
+
+  static final String CIRCUIT_BREAKER_ENABLED_OPT = "circuitBreaker.enabled";
+  static final String CIRCUIT_BREAKER_WINDOW_SIZE_OPT = "circuitBreaker.windowSize";
+  static final String CIRCUIT_BREAKER_MINIMUM_REQUESTS_OPT = "circuitBreaker.minimumRequests";
+  static final String CIRCUIT_BREAKER_FAILURE_RATE_OPT = "circuitBreaker.failureRateThreshold";
+  static final String CIRCUIT_BREAKER_SLOW_REQUEST_OPT = "circuitBreaker.slowRequestThreshold";
+  static final String CIRCUIT_BREAKER_OPEN_DURATION_OPT = "circuitBreaker.openDuration";
+
+  static final String DEAD_LETTER_ENABLED_OPT = "deadLetter.enabled";
+  static final String DEAD_LETTER_DIRECTORY_OPT = "deadLetter.directory";
+  static final String DEAD_LETTER_QUEUE_SIZE_OPT = "deadLetter.queueSize";
+  static final String DEAD_LETTER_MAX_SEGMENT_SIZE_OPT = "deadLetter.maxSegmentSizeInBytes";
+
+  static final String STAGING_BUFFER_MAX_BYTES_PER_TASK_OPT = "stagingBuffer.maxBytesPerTask";
+  static final String STAGING_BUFFER_MAX_BYTES_OPT = "stagingBuffer.maxBytes";
+
+  static final String SPECULATIVE_EXECUTION_MAX_EXECUTIONS_OPT =
+      "speculativeExecution.maxExecutions";
+  static final String SPECULATIVE_EXECUTION_DELAY_OPT = "speculativeExecution.delay";
+
+  static final String SESSION_GRACE_PERIOD_OPT = "sessionGracePeriod";
+
+  static final String PREPARE_IN_BACKGROUND_OPT = "prepareInBackground";
+
+  static final String CONNECTION_POOL_MAX_LOCAL_SIZE_OPT = "connectionPoolMaxLocalSize";
+
+  static final String TRACK_UNACKED_RECORDS_OPT = "trackUnackedRecords";
+
   public static final String SECURE_CONNECT_BUNDLE_OPT = "cloud.secureConnectBundle";
   static final String SECURE_CONNECT_BUNDLE_DRIVER_SETTING =
       withDriverPrefix(DefaultDriverOption.CLOUD_SECURE_CONNECT_BUNDLE);
@@ -186,6 +230,212 @@ public class CassandraSinkConfig {
                   + "None (never ignore errors), "
                   + "All (ignore all errors), "
                   + "Driver (ignore driver errors only, i.e. errors when writing to the database).")
+          .define(
+              BISECT_FAILED_BATCHES_OPT,
+              ConfigDef.Type.BOOLEAN,
+              true,
+              ConfigDef.Importance.HIGH,
+              "Whether to split batches rejected by the database in halves, recursively, and retry "
+                  + "them in order to isolate the records that caused the failure. "
+                  + "Only the isolated records are then considered failed. Batches that would fail "
+                  + "whatever their records, e.g. because of missing permissions or a dropped table, "
+                  + "are not split; the others are split down to single records if needed.")
+          .define(
+              BATCH_GROUPING_OPT,
+              ConfigDef.Type.STRING,
+              "Partition",
+              ConfigDef.Importance.HIGH,
+              "Specifies which records of a table can be written in the same batch. "
+                  + "Valid values are: "
+                  + "Partition (records that write to the same partition), "
+                  + "ReplicaSet (records that write to partitions owned by the same replicas; "
+                  + "requires token metadata to be enabled in the driver).")
+          .define(
+              EXECUTION_ENGINE_OPT,
+              ConfigDef.Type.STRING,
+              "Async",
+              ConfigDef.Importance.HIGH,
+              "Specifies which driver API executes the writes. "
+                  + "Valid values are: "
+                  + "Async (executeAsync), "
+                  + "Reactive (executeReactive; each write is a publisher that is subscribed to "
+                  + "once the request is granted one of the maxConcurrentRequests slots).")
+          .define(
+              BATCH_ACROSS_TASKS_OPT,
+              ConfigDef.Type.BOOLEAN,
+              false,
+              ConfigDef.Importance.HIGH,
+              "Whether the records of all tasks of the connector that run in the same worker are "
+                  + "batched together, rather than the records of each put of each task "
+                  + "separately. Records of different topic partitions that write to the same "
+                  + "partition are then more likely to share a batch, at the cost of a single "
+                  + "thread grouping the statements of all tasks.")
+          .define(
+              FAILURE_LOG_INTERVAL_OPT,
+              ConfigDef.Type.INT,
+              0,
+              ConfigDef.Range.atLeast(0),
+              ConfigDef.Importance.HIGH,
+              "Interval, in seconds, over which failed records are aggregated by topic, table and "
+                  + "error type before a summary is logged. "
+                  + "When 0, the default, every failed record is logged individually.")
+          .define(
+              FAILURE_LOG_SAMPLES_OPT,
+              ConfigDef.Type.INT,
+              3,
+              ConfigDef.Range.atLeast(0),
+              ConfigDef.Importance.HIGH,
+              "Maximum number of failed records included in each failure summary")
+          .define(
+              CIRCUIT_BREAKER_ENABLED_OPT,
+              ConfigDef.Type.BOOLEAN,
+              false,
+              ConfigDef.Importance.HIGH,
+              "Whether to stop sending requests to a table that keeps failing or timing out, "
+                  + "and pause the topics that map to it, until it recovers")
+          .define(
+              CIRCUIT_BREAKER_WINDOW_SIZE_OPT,
+              ConfigDef.Type.INT,
+              100,
+              ConfigDef.Range.atLeast(1),
+              ConfigDef.Importance.HIGH,
+              "Number of most recent requests to a table used to compute its failure rate")
+          .define(
+              CIRCUIT_BREAKER_MINIMUM_REQUESTS_OPT,
+              ConfigDef.Type.INT,
+              20,
+              ConfigDef.Range.atLeast(1),
+              ConfigDef.Importance.HIGH,
+              "Minimum number of requests to a table before its circuit breaker may open")
+          .define(
+              CIRCUIT_BREAKER_FAILURE_RATE_OPT,
+              ConfigDef.Type.INT,
+              50,
+              ConfigDef.Range.between(1, 100),
+              ConfigDef.Importance.HIGH,
+              "Percentage of failed or slow requests to a table that opens its circuit breaker")
+          .define(
+              CIRCUIT_BREAKER_SLOW_REQUEST_OPT,
+              ConfigDef.Type.INT,
+              0,
+              ConfigDef.Range.atLeast(0),
+              ConfigDef.Importance.HIGH,
+              "Latency, in milliseconds, above which a request counts as failed for the circuit "
+                  + "breaker. 0 means that only errors are considered.")
+          .define(
+              CIRCUIT_BREAKER_OPEN_DURATION_OPT,
+              ConfigDef.Type.INT,
+              30,
+              ConfigDef.Range.atLeast(1),
+              ConfigDef.Importance.HIGH,
+              "How long, in seconds, requests to a table are rejected once its circuit breaker "
+                  + "opens, before a probe request is sent")
+          .define(
+              DEAD_LETTER_ENABLED_OPT,
+              ConfigDef.Type.BOOLEAN,
+              false,
+              ConfigDef.Importance.HIGH,
+              "Whether to send records that could not be written to a dead letter sink. "
+                  + "Records are reported to the errant record reporter of the Connect worker "
+                  + "when available (Kafka 2.6+, errors.deadletterqueue.topic.name), "
+                  + "and appended to files in deadLetter.directory otherwise.")
+          .define(
+              DEAD_LETTER_DIRECTORY_OPT,
+              ConfigDef.Type.STRING,
+              "",
+              ConfigDef.Importance.HIGH,
+              "Directory where failed records are written, one JSON document per line, "
+                  + "when the worker provides no errant record reporter. "
+                  + "If empty, such records are dropped.")
+          .define(
+              DEAD_LETTER_QUEUE_SIZE_OPT,
+              ConfigDef.Type.INT,
+              10000,
+              ConfigDef.Range.atLeast(1),
+              ConfigDef.Importance.HIGH,
+              "Maximum number of failed records waiting to be written to the dead letter sink. "
+                  + "Records failing while the queue is full are dropped.")
+          .define(
+              DEAD_LETTER_MAX_SEGMENT_SIZE_OPT,
+              ConfigDef.Type.LONG,
+              64L * 1024 * 1024,
+              ConfigDef.Range.atLeast(1),
+              ConfigDef.Importance.HIGH,
+              "Size in bytes after which a new dead letter file is started")
+          .define(
+              STAGING_BUFFER_MAX_BYTES_PER_TASK_OPT,
+              ConfigDef.Type.LONG,
+              64L * 1024 * 1024,
+              ConfigDef.Range.atLeast(0),
+              ConfigDef.Importance.HIGH,
+              "Maximum estimated size, in bytes, of the records that a task has mapped but not "
+                  + "written yet. Mapping waits while this size is exceeded. Set to 0 for no limit.")
+          .define(
+              STAGING_BUFFER_MAX_BYTES_OPT,
+              ConfigDef.Type.LONG,
+              0L,
+              ConfigDef.Range.atLeast(0),
+              ConfigDef.Importance.HIGH,
+              "Maximum estimated size, in bytes, of the records that all tasks of the connector "
+                  + "running in the same worker have mapped but not written yet. "
+                  + "Set to 0 for no limit.")
+          .define(
+              SPECULATIVE_EXECUTION_MAX_EXECUTIONS_OPT,
+              ConfigDef.Type.INT,
+              1,
+              ConfigDef.Range.atLeast(1),
+              ConfigDef.Importance.HIGH,
+              "Maximum number of times an idempotent write is sent, including the initial "
+                  + "request. When greater than 1, a write that hasn't completed after "
+                  + SPECULATIVE_EXECUTION_DELAY_OPT
+                  + " is also sent to the next replica, and the first response wins. "
+                  + "1 disables speculative executions.")
+          .define(
+              SPECULATIVE_EXECUTION_DELAY_OPT,
+              ConfigDef.Type.INT,
+              100,
+              ConfigDef.Range.atLeast(0),
+              ConfigDef.Importance.HIGH,
+              "Delay, in milliseconds, before each speculative execution of an idempotent write")
+          .define(
+              SESSION_GRACE_PERIOD_OPT,
+              ConfigDef.Type.INT,
+              0,
+              ConfigDef.Range.atLeast(0),
+              ConfigDef.Importance.HIGH,
+              "Time, in seconds, during which the session of the connector and its prepared "
+                  + "statements are kept after the last task of the worker stopped, so that tasks "
+                  + "started again with the same settings, e.g. during a rebalance, reuse them. "
+                  + "Set to 0 to close the session as soon as the last task stops.")
+          .define(
+              PREPARE_IN_BACKGROUND_OPT,
+              ConfigDef.Type.BOOLEAN,
+              false,
+              ConfigDef.Importance.HIGH,
+              "Whether tasks start without waiting for the statements of all mapped tables to be "
+                  + "prepared. Records then only wait for the statements of their own table, "
+                  + "and statements that can't be prepared fail the records of their table "
+                  + "instead of the start of the tasks, and are prepared again with a backoff of "
+                  + "up to one minute. Mappings are validated against the schema on start either "
+                  + "way.")
+          .define(
+              CONNECTION_POOL_MAX_LOCAL_SIZE_OPT,
+              ConfigDef.Type.INT,
+              0,
+              ConfigDef.Range.atLeast(0),
+              ConfigDef.Importance.HIGH,
+              "Maximum number of connections to each node in the local dc. When set, the pools "
+                  + "start with connectionPoolLocalSize connections, and grow or shrink between "
+                  + "that and this number of connections depending on the number of requests in "
+                  + "flight on each connection. Set to 0 to keep the pools at a fixed size.")
+          .define(
+              TRACK_UNACKED_RECORDS_OPT,
+              ConfigDef.Type.BOOLEAN,
+              true,
+              ConfigDef.Importance.LOW,
+              "Whether to keep track of the records that are not written yet, to report the age "
+                  + "of the oldest one of each topic-partition. This costs a short lock of the "
+                  + "partition for each statement queued and resolved.")
           .define(
               SECURE_CONNECT_BUNDLE_OPT,
               ConfigDef.Type.STRING,
@@ -196,8 +446,11 @@ public class CassandraSinkConfig {
       v -> String.format("%s seconds", v);
 
   static final String METRICS_INTERVAL_DEFAULT = "30 seconds";
+  static final String SCHEMA_DEBOUNCER_MAX_EVENTS_DEFAULT = "100";
+  private static final String IN_FLIGHT_NODE_METRIC = "pool.in-flight";
 
   private final String instanceName;
+  private final Map<String, String> settings;
   private final AbstractConfig globalConfig;
   private final Map<String, TopicConfig> topicConfigs;
   private final Map<String, String> javaDriverSettings;
@@ -205,10 +458,12 @@ public class CassandraSinkConfig {
   @Nullable private SslConfig sslConfig;
 
   private final AuthenticatorConfig authConfig;
+  private final boolean subscribedByPattern;
 
   public CassandraSinkConfig(Map<String, String> settings) {
     log.debug("create CassandraSinkConfig for settings:{} ", settings);
     instanceName = settings.get(SinkUtil.NAME_OPT);
+    this.settings = new HashMap<>(settings);
     // Walk through the settings and separate out "globals" from "topics", "ssl", and "auth".
     Map<String, String> globalSettings = new HashMap<>();
     Map<String, String> sslSettings = new HashMap<>();
@@ -250,10 +505,13 @@ public class CassandraSinkConfig {
             topicConfigs.put(name, new TopicConfig(name, topicConfigMap, cloud)));
 
     validateCompressionType();
+    schemaMetadataSettings();
 
     // Verify that we have a topic section for every topic we're subscribing to, if 'topics'
     // was provided. A user may use topics.regex to subscribe by pattern, in which case,
     // they're on their own.
+    String topicsRegex = globalSettings.get("topics.regex");
+    subscribedByPattern = topicsRegex != null && !topicsRegex.isEmpty();
     String topicsString = globalSettings.get("topics");
     if (topicsString != null) {
       List<String> topics = Splitter.on(",").trimResults().splitToList(topicsString);
@@ -282,6 +540,14 @@ public class CassandraSinkConfig {
           contactPoints,
           String.format("When contact points is provided, %s must also be specified", DC_OPT));
     }
+
+    int maxPoolSize = getConnectionPoolMaxLocalSize();
+    if (maxPoolSize > 0 && maxPoolSize < getConnectionPoolLocalSize()) {
+      throw new ConfigException(
+          CONNECTION_POOL_MAX_LOCAL_SIZE_OPT,
+          maxPoolSize,
+          String.format("Must be at least %s", CONNECTION_POOL_LOCAL_SIZE));
+    }
   }
 
   private static final Splitter COMA_SPLITTER = Splitter.on(",");
@@ -296,6 +562,10 @@ public class CassandraSinkConfig {
   }
 
   private void putAsTypesafeListProperty(@NonNull String key, @NonNull String value) {
+    if (value.trim().isEmpty()) {
+      // An empty list can't be expressed with indexed properties, leave the list unset instead.
+      return;
+    }
     List<String> values = COMA_SPLITTER.splitToList(value);
     for (int i = 0; i < values.size(); i++) {
       javaDriverSettings.put(String.format("%s.%d", key, i), values.get(i).trim());
@@ -323,6 +593,71 @@ public class CassandraSinkConfig {
     if (getJmx()) {
       metricsSettings();
     }
+    speculativeExecutionSettings();
+    if (getConnectionPoolMaxLocalSize() > 0) {
+      connectionPoolSizingSettings();
+    }
+  }
+
+  private void connectionPoolSizingSettings() {
+    // the pools are sized from the requests in flight on each node
+    String nodeMetricsDriverSetting = withDriverPrefix(METRICS_NODE_ENABLED);
+    int index = 0;
+    while (javaDriverSettings.containsKey(
+        String.format("%s.%d", nodeMetricsDriverSetting, index))) {
+      if (IN_FLIGHT_NODE_METRIC.equals(
+          javaDriverSettings.get(String.format("%s.%d", nodeMetricsDriverSetting, index)))) {
+        return;
+      }
+      index++;
+    }
+    javaDriverSettings.put(
+        String.format("%s.%d", nodeMetricsDriverSetting, index), IN_FLIGHT_NODE_METRIC);
+  }
+
+  private void schemaMetadataSettings() {
+    // Only maintain the schema, and hence token, metadata of the keyspaces the connector writes
+    // to, unless the user chose these keyspaces; an empty list stands for all keyspaces.
+    String refreshedKeyspacesDriverSetting = withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES);
+    if (!settings.containsKey(refreshedKeyspacesDriverSetting)
+        && javaDriverSettings
+            .keySet()
+            .stream()
+            .noneMatch(k -> k.startsWith(refreshedKeyspacesDriverSetting))) {
+      List<String> keyspaces =
+          topicConfigs
+              .values()
+              .stream()
+              .flatMap(topicConfig -> topicConfig.getTableConfigs().stream())
+              .map(tableConfig -> tableConfig.getKeyspace().asInternal())
+              .distinct()
+              .sorted()
+              .collect(Collectors.toList());
+      for (int i = 0; i < keyspaces.size(); i++) {
+        javaDriverSettings.put(
+            String.format("%s.%d", refreshedKeyspacesDriverSetting, i), keyspaces.get(i));
+      }
+    }
+    // Coalesce the schema changes of a migration into a single refresh, and a single rebuild of
+    // the record mappers of the altered tables.
+    String maxEventsDriverSetting = withDriverPrefix(METADATA_SCHEMA_MAX_EVENTS);
+    if (!javaDriverSettings.containsKey(maxEventsDriverSetting)) {
+      javaDriverSettings.put(maxEventsDriverSetting, SCHEMA_DEBOUNCER_MAX_EVENTS_DEFAULT);
+    }
+  }
+
+  private void speculativeExecutionSettings() {
+    String policyClassDriverSetting = withDriverPrefix(SPECULATIVE_EXECUTION_POLICY_CLASS);
+    int maxExecutions = getSpeculativeExecutionMaxExecutions();
+    // if user explicitly provided a policy under datastax-java-driver keep it as is
+    if (maxExecutions > 1 && !javaDriverSettings.containsKey(policyClassDriverSetting)) {
+      javaDriverSettings.put(policyClassDriverSetting, "ConstantSpeculativeExecutionPolicy");
+      javaDriverSettings.put(
+          withDriverPrefix(SPECULATIVE_EXECUTION_MAX), String.valueOf(maxExecutions));
+      javaDriverSettings.put(
+          withDriverPrefix(SPECULATIVE_EXECUTION_DELAY),
+          String.format("%d milliseconds", getSpeculativeExecutionDelay()));
+    }
   }
 
   private void deprecatedSecureBundle(Map<String, String> connectorSettings) {
@@ -507,6 +842,152 @@ public class CassandraSinkConfig {
             + ignoreErrors);
   }
 
+  public boolean isBisectFailedBatches() {
+    return globalConfig.getBoolean(BISECT_FAILED_BATCHES_OPT);
+  }
+
+  public enum BatchGrouping {
+    PARTITION,
+    REPLICA_SET
+  }
+
+  public BatchGrouping getBatchGrouping() {
+    String batchGrouping = globalConfig.getString(BATCH_GROUPING_OPT);
+    if ("partition".equalsIgnoreCase(batchGrouping)) {
+      return BatchGrouping.PARTITION;
+    } else if ("replicaSet".equalsIgnoreCase(batchGrouping)) {
+      return BatchGrouping.REPLICA_SET;
+    }
+    throw new IllegalArgumentException(
+        "Invalid value for setting "
+            + BATCH_GROUPING_OPT
+            + ", expecting either Partition or ReplicaSet, got: "
+            + batchGrouping);
+  }
+
+  public enum ExecutionEngine {
+    ASYNC,
+    REACTIVE
+  }
+
+  public ExecutionEngine getExecutionEngine() {
+    String executionEngine = globalConfig.getString(EXECUTION_ENGINE_OPT);
+    if ("async".equalsIgnoreCase(executionEngine)) {
+      return ExecutionEngine.ASYNC;
+    } else if ("reactive".equalsIgnoreCase(executionEngine)) {
+      return ExecutionEngine.REACTIVE;
+    }
+    throw new IllegalArgumentException(
+        "Invalid value for setting "
+            + EXECUTION_ENGINE_OPT
+            + ", expecting either Async or Reactive, got: "
+            + executionEngine);
+  }
+
+  public boolean isBatchAcrossTasks() {
+    return globalConfig.getBoolean(BATCH_ACROSS_TASKS_OPT);
+  }
+
+  public int getFailureLogInterval() {
+    return globalConfig.getInt(FAILURE_LOG_INTERVAL_OPT);
+  }
+
+  public int getFailureLogSamples() {
+    return globalConfig.getInt(FAILURE_LOG_SAMPLES_OPT);
+  }
+
+  public boolean isCircuitBreakerEnabled() {
+    return globalConfig.getBoolean(CIRCUIT_BREAKER_ENABLED_OPT);
+  }
+
+  public int getCircuitBreakerWindowSize() {
+    return globalConfig.getInt(CIRCUIT_BREAKER_WINDOW_SIZE_OPT);
+  }
+
+  public int getCircuitBreakerMinimumRequests() {
+    return globalConfig.getInt(CIRCUIT_BREAKER_MINIMUM_REQUESTS_OPT);
+  }
+
+  public int getCircuitBreakerFailureRateThreshold() {
+    return globalConfig.getInt(CIRCUIT_BREAKER_FAILURE_RATE_OPT);
+  }
+
+  public int getCircuitBreakerSlowRequestThreshold() {
+    return globalConfig.getInt(CIRCUIT_BREAKER_SLOW_REQUEST_OPT);
+  }
+
+  public int getCircuitBreakerOpenDuration() {
+    return globalConfig.getInt(CIRCUIT_BREAKER_OPEN_DURATION_OPT);
+  }
+
+  public boolean isDeadLetterEnabled() {
+    return globalConfig.getBoolean(DEAD_LETTER_ENABLED_OPT);
+  }
+
+  public Optional<Path> getDeadLetterDirectory() {
+    return Optional.of(globalConfig.getString(DEAD_LETTER_DIRECTORY_OPT))
+        .filter(v -> !v.isEmpty())
+        .map(Paths::get);
+  }
+
+  public int getDeadLetterQueueSize() {
+    return globalConfig.getInt(DEAD_LETTER_QUEUE_SIZE_OPT);
+  }
+
+  public long getDeadLetterMaxSegmentSizeInBytes() {
+    return globalConfig.getLong(DEAD_LETTER_MAX_SEGMENT_SIZE_OPT);
+  }
+
+  public long getStagingBufferMaxBytesPerTask() {
+    return globalConfig.getLong(STAGING_BUFFER_MAX_BYTES_PER_TASK_OPT);
+  }
+
+  public long getStagingBufferMaxBytes() {
+    return globalConfig.getLong(STAGING_BUFFER_MAX_BYTES_OPT);
+  }
+
+  public int getSpeculativeExecutionMaxExecutions() {
+    return globalConfig.getInt(SPECULATIVE_EXECUTION_MAX_EXECUTIONS_OPT);
+  }
+
+  public int getSpeculativeExecutionDelay() {
+    return globalConfig.getInt(SPECULATIVE_EXECUTION_DELAY_OPT);
+  }
+
+  /**
+   * @return true if the connector subscribes to topics with topics.regex, in which case only some
+   *     of the configured topics may be consumed.
+   */
+  public boolean isSubscribedByPattern() {
+    return subscribedByPattern;
+  }
+
+  public boolean isPrepareInBackground() {
+    return globalConfig.getBoolean(PREPARE_IN_BACKGROUND_OPT);
+  }
+
+  /** @return the maximum size of the connection pools, or 0 if they are not sized automatically. */
+  public int getConnectionPoolMaxLocalSize() {
+    return globalConfig.getInt(CONNECTION_POOL_MAX_LOCAL_SIZE_OPT);
+  }
+
+  public boolean isTrackUnackedRecords() {
+    return globalConfig.getBoolean(TRACK_UNACKED_RECORDS_OPT);
+  }
+
+  public int getConnectionPoolLocalSize() {
+    return Integer.parseInt(javaDriverSettings.get(CONNECTION_POOL_LOCAL_SIZE_DRIVER_SETTING));
+  }
+
+  public int getSessionGracePeriod() {
+    return globalConfig.getInt(SESSION_GRACE_PERIOD_OPT);
+  }
+
+  /** @return true if this config was created from the given settings. */
+  public boolean hasSettings(Map<String, String> settings) {
+    return this.settings.equals(settings);
+  }
+
   public boolean getJmx() {
     return globalConfig.getBoolean(JMX_OPT);
   }
@@ -549,6 +1030,12 @@ public class CassandraSinkConfig {
             + "        port: %s%n"
             + "        maxConcurrentRequests: %d%n"
             + "        maxNumberOfRecordsInBatch: %d%n"
+            + "        bisectFailedBatches: %b%n"
+            + "        batchGrouping: %s%n"
+            + "        batchAcrossTasks: %b%n"
+            + "        executionEngine: %s%n"
+            + "        circuitBreaker.enabled: %b%n"
+            + "        deadLetter.enabled: %b%n"
             + "        jmx: %b%n"
             + "SSL configuration:%n%s%n"
             + "Authentication configuration:%n%s%n"
@@ -558,6 +1045,12 @@ public class CassandraSinkConfig {
         getPortToString(),
         getMaxConcurrentRequests(),
         getMaxNumberOfRecordsInBatch(),
+        isBisectFailedBatches(),
+        globalConfig.getString(BATCH_GROUPING_OPT),
+        isBatchAcrossTasks(),
+        globalConfig.getString(EXECUTION_ENGINE_OPT),
+        isCircuitBreakerEnabled(),
+        isDeadLetterEnabled(),
         getJmx(),
         getSslConfigToString(),
         Splitter.on("\n")
@@ -50,6 +50,10 @@ public class TableConfig extends AbstractConfig {
   static final String QUERY_OPT = "query";
 
   static final String DELETES_ENABLED_OPT = "deletesEnabled";
+  static final String WEIGHT_OPT = "weight";
+  static final String MAX_ROWS_PER_SECOND_OPT = "maxRowsPerSecond";
+  static final String MAX_BYTES_PER_SECOND_OPT = "maxBytesPerSecond";
+  static final String PRESERVE_ORDER_OPT = "preserveOrder";
   private static final String NULL_TO_UNSET_OPT = "nullToUnset";
   private static final Pattern DELIM_PAT = Pattern.compile(", *");
 
@@ -65,6 +69,10 @@ public class TableConfig extends AbstractConfig {
   private final boolean nullToUnset;
   private final boolean deletesEnabled;
   private final String query;
+  private final int weight;
+  private final long maxRowsPerSecond;
+  private final long maxBytesPerSecond;
+  private final boolean preserveOrder;
 
   private TableConfig(
       @NonNull String topicName,
@@ -107,6 +115,12 @@ public class TableConfig extends AbstractConfig {
     deletesEnabled =
         getBoolean(getTableSettingPath(topicName, keyspace, table, DELETES_ENABLED_OPT));
     query = getString(getTableSettingPath(topicName, keyspace, table, QUERY_OPT));
+    weight = getInt(getTableSettingPath(topicName, keyspace, table, WEIGHT_OPT));
+    maxRowsPerSecond =
+        getLong(getTableSettingPath(topicName, keyspace, table, MAX_ROWS_PER_SECOND_OPT));
+    maxBytesPerSecond =
+        getLong(getTableSettingPath(topicName, keyspace, table, MAX_BYTES_PER_SECOND_OPT));
+    preserveOrder = getBoolean(getTableSettingPath(topicName, keyspace, table, PRESERVE_ORDER_OPT));
     validateQuery();
   }
 
@@ -222,6 +236,30 @@ public class TableConfig extends AbstractConfig {
     return deletesEnabled;
   }
 
+  /** @return the share of concurrent requests this table gets, relative to the other tables. */
+  public int getWeight() {
+    return weight;
+  }
+
+  /** @return the maximum number of rows written per second, or 0 if unlimited. */
+  public long getMaxRowsPerSecond() {
+    return maxRowsPerSecond;
+  }
+
+  /** @return the maximum number of bytes written per second, or 0 if unlimited. */
+  public long getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  public boolean isRateLimited() {
+    return maxRowsPerSecond > 0 || maxBytesPerSecond > 0;
+  }
+
+  /** @return whether requests writing to the same partition must be sent one at a time. */
+  public boolean isPreserveOrder() {
+    return preserveOrder;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -256,7 +294,7 @@ public class TableConfig extends AbstractConfig {
   public String toString() {
     return String.format(
         "{keyspace: %s, table: %s, cl: %s, ttl: %d, nullToUnset: %b, "
-            + "deletesEnabled: %b, mapping:\n%s\n"
+            + "deletesEnabled: %b, weight: %d, mapping:\n%s\n"
             + "}",
         keyspace,
         table,
@@ -264,6 +302,7 @@ public class TableConfig extends AbstractConfig {
         ttl,
         nullToUnset,
         deletesEnabled,
+        weight,
         Splitter.on(DELIM_PAT)
             .splitToList(mappingString)
             .stream()
@@ -331,7 +370,45 @@ public class TableConfig extends AbstractConfig {
             ConfigDef.Type.STRING,
             null,
             ConfigDef.Importance.HIGH,
-            "Custom query to use as a Prepared Statement for insert to this table.");
+            "Custom query to use as a Prepared Statement for insert to this table.")
+        .define(
+            getTableSettingPath(topicName, keyspace, table, WEIGHT_OPT),
+            ConfigDef.Type.INT,
+            1,
+            ConfigDef.Range.atLeast(1),
+            ConfigDef.Importance.HIGH,
+            "Share of the concurrent requests this table gets when requests to several tables "
+                + "are waiting, relative to the weight of the other tables.")
+        .define(
+            getTableSettingPath(topicName, keyspace, table, MAX_ROWS_PER_SECOND_OPT),
+            ConfigDef.Type.LONG,
+            0L,
+            ConfigDef.Range.atLeast(0),
+            ConfigDef.Importance.HIGH,
+            "Maximum number of rows written from this topic to this table per second by the "
+                + "connector instance; 0 means unlimited. Once the limit is exceeded, further "
+                + "records of the topic are redelivered and the topic is paused until the rate "
+                + "falls back under the limit.")
+        .define(
+            getTableSettingPath(topicName, keyspace, table, MAX_BYTES_PER_SECOND_OPT),
+            ConfigDef.Type.LONG,
+            0L,
+            ConfigDef.Range.atLeast(0),
+            ConfigDef.Importance.HIGH,
+            "Maximum number of bytes written from this topic to this table per second by the "
+                + "connector instance, estimated from the bound values; 0 means unlimited. Once "
+                + "the limit is exceeded, further records of the topic are redelivered and the "
+                + "topic is paused until the rate falls back under the limit.")
+        .define(
+            getTableSettingPath(topicName, keyspace, table, PRESERVE_ORDER_OPT),
+            ConfigDef.Type.BOOLEAN,
+            false,
+            ConfigDef.Importance.HIGH,
+            "Whether to wait for the request writing to a partition to complete before sending "
+                + "the next one, so that records of the same partition are written in order "
+                + "even without client timestamps. Requests to different partitions are still "
+                + "sent in parallel. Records of such tables are batched by partition, even with "
+                + "batchGrouping=ReplicaSet.");
   }
 
   @NonNull
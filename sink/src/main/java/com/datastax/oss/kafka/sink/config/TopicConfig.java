@@ -24,11 +24,12 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
@@ -43,9 +44,15 @@ public class TopicConfig extends AbstractConfig {
   static final String DATE_PAT_OPT = "codec.date";
   static final String TIME_UNIT_OPT = "codec.unit";
 
-  // Table settings are of the form "topic.mytopic.ks1.table1.setting"
-  private static final Pattern TABLE_KS_PATTERN =
-      Pattern.compile("^topic\\.[a-zA-Z0-9._-]+\\.([^.]+)\\.([^.]+)\\.");
+  private static final String[] CODEC_SETTINGS = {
+    LOCALE_OPT, TIMEZONE_OPT, TIMESTAMP_PAT_OPT, DATE_PAT_OPT, TIME_PAT_OPT, TIME_UNIT_OPT
+  };
+  private static final Set<String> CODEC_SETTING_NAMES =
+      new HashSet<>(Arrays.asList(CODEC_SETTINGS));
+
+  // Codec settings are parsed without their "topic.mytopic." prefix, so that all topics share the
+  // same ConfigDef.
+  private static final ConfigDef CODEC_CONFIG_DEF = makeCodecConfigDef();
 
   private final String topicName;
   private final Collection<TableConfig> tableConfigs;
@@ -55,40 +62,20 @@ public class TopicConfig extends AbstractConfig {
   }
 
   public TopicConfig(String topicName, Map<String, String> settings, boolean cloud) {
-    super(makeTopicConfigDef(topicName), settings, false);
-
-    Map<String, TableConfig.Builder> tableConfigBuilders = new LinkedHashMap<>();
-
-    // Walk through the settings and separate out the table settings. Other settings
-    // are effectively handled by our AbstractConfig super-class.
-    settings.forEach(
-        (name, value) -> {
-          Matcher codecSettingPattern = CassandraSinkConfig.TOPIC_CODEC_PATTERN.matcher(name);
-          Matcher tableKsSettingMatcher = TABLE_KS_PATTERN.matcher(name);
-
-          // using codecSettingPattern to prevent including of
-          // global topic level settings (under .codec prefix)
-          if (!codecSettingPattern.matches() && tableKsSettingMatcher.lookingAt()) {
-            TableConfig.Builder builder =
-                tableConfigBuilders.computeIfAbsent(
-                    tableKsSettingMatcher.group(),
-                    t ->
-                        new TableConfig.Builder(
-                            topicName,
-                            tableKsSettingMatcher.group(1),
-                            tableKsSettingMatcher.group(2),
-                            cloud));
-            builder.addSetting(name, value);
-          }
-        });
-
-    if (tableConfigBuilders.isEmpty()) {
+    this(topicName, new TopicSettings(topicName, settings, cloud));
+  }
+
+  private TopicConfig(String topicName, TopicSettings settings) {
+    super(CODEC_CONFIG_DEF, settings.codecSettings, false);
+
+    if (settings.tableConfigBuilders.isEmpty()) {
       throw new ConfigException(
           String.format("Topic %s must have at least one table configuration", topicName));
     }
 
     tableConfigs =
-        tableConfigBuilders
+        settings
+            .tableConfigBuilders
             .values()
             .stream()
             .map(TableConfig.Builder::build)
@@ -106,20 +93,21 @@ public class TopicConfig extends AbstractConfig {
     return tableConfigs;
   }
 
+  /**
+   * @return the codec settings of the topic, defaults included. Topics with equal codec settings
+   *     can share the same codec factory.
+   */
+  @NonNull
+  public Map<String, ?> getCodecSettings() {
+    return values();
+  }
+
   @Override
   @NonNull
   public String toString() {
-    String[] codecSettings = {
-      LOCALE_OPT, TIMEZONE_OPT, TIMESTAMP_PAT_OPT, DATE_PAT_OPT, TIME_PAT_OPT, TIME_UNIT_OPT
-    };
     String codecString =
-        Arrays.stream(codecSettings)
-            .map(
-                s ->
-                    String.format(
-                        "%s: %s",
-                        s.substring("codec.".length()),
-                        getString(getTopicSettingPath(topicName, s))))
+        Arrays.stream(CODEC_SETTINGS)
+            .map(s -> String.format("%s: %s", s.substring("codec.".length()), getString(s)))
             .collect(Collectors.joining(", "));
 
     return String.format(
@@ -142,62 +130,98 @@ public class TopicConfig extends AbstractConfig {
   public ConvertingCodecFactory createCodecFactory() {
     ConversionContext context =
         new TextConversionContext()
-            .setLocale(
-                CodecUtils.parseLocale(getString(getTopicSettingPath(topicName, LOCALE_OPT))))
-            .setTimestampFormat(getString(getTopicSettingPath(topicName, TIMESTAMP_PAT_OPT)))
-            .setDateFormat(getString(getTopicSettingPath(topicName, DATE_PAT_OPT)))
-            .setTimeFormat(getString(getTopicSettingPath(topicName, TIME_PAT_OPT)))
-            .setTimeZone(ZoneId.of(getString(getTopicSettingPath(topicName, TIMEZONE_OPT))))
-            .setTimeUnit(
-                TimeUnit.valueOf(getString(getTopicSettingPath(topicName, TIME_UNIT_OPT))));
+            .setLocale(CodecUtils.parseLocale(getString(LOCALE_OPT)))
+            .setTimestampFormat(getString(TIMESTAMP_PAT_OPT))
+            .setDateFormat(getString(DATE_PAT_OPT))
+            .setTimeFormat(getString(TIME_PAT_OPT))
+            .setTimeZone(ZoneId.of(getString(TIMEZONE_OPT)))
+            .setTimeUnit(TimeUnit.valueOf(getString(TIME_UNIT_OPT)));
     return new ConvertingCodecFactory(context);
   }
 
   /**
-   * Build up a {@link ConfigDef} for the given topic specification.
+   * Build up the {@link ConfigDef} of the codec settings of a topic.
    *
-   * @param topicName name of topic
-   * @return a ConfigDef of topic settings, where each setting name is the full setting path (e.g.
-   *     topic.[topicname]).
+   * @return a ConfigDef of codec settings, where each setting name is relative to the topic (e.g.
+   *     codec.locale).
    */
   @NonNull
-  private static ConfigDef makeTopicConfigDef(String topicName) {
+  private static ConfigDef makeCodecConfigDef() {
     return new ConfigDef()
         .define(
-            getTopicSettingPath(topicName, LOCALE_OPT),
+            LOCALE_OPT,
             ConfigDef.Type.STRING,
             "en_US",
             ConfigDef.Importance.HIGH,
             "The locale to use for locale-sensitive conversions.")
         .define(
-            getTopicSettingPath(topicName, TIMEZONE_OPT),
+            TIMEZONE_OPT,
             ConfigDef.Type.STRING,
             "UTC",
             ConfigDef.Importance.HIGH,
             "The time zone to use for temporal conversions that do not convey any explicit time zone information")
         .define(
-            getTopicSettingPath(topicName, TIMESTAMP_PAT_OPT),
+            TIMESTAMP_PAT_OPT,
             ConfigDef.Type.STRING,
             "CQL_TIMESTAMP",
             ConfigDef.Importance.HIGH,
             "The temporal pattern to use for `String` to CQL `timestamp` conversion")
         .define(
-            getTopicSettingPath(topicName, DATE_PAT_OPT),
+            DATE_PAT_OPT,
             ConfigDef.Type.STRING,
             "ISO_LOCAL_DATE",
             ConfigDef.Importance.HIGH,
             "The temporal pattern to use for `String` to CQL `date` conversion")
         .define(
-            getTopicSettingPath(topicName, TIME_PAT_OPT),
+            TIME_PAT_OPT,
             ConfigDef.Type.STRING,
             "ISO_LOCAL_TIME",
             ConfigDef.Importance.HIGH,
             "The temporal pattern to use for `String` to CQL `time` conversion")
         .define(
-            getTopicSettingPath(topicName, TIME_UNIT_OPT),
+            TIME_UNIT_OPT,
             ConfigDef.Type.STRING,
             "MILLISECONDS",
             ConfigDef.Importance.HIGH,
             "If the input is a string containing only digits that cannot be parsed using the `codec.timestamp` format, the specified time unit is applied to the parsed value. All `TimeUnit` enum constants are valid choices.");
   }
+
+  /**
+   * The settings of a topic, separated in a single pass into its codec settings and the settings of
+   * each of its tables.
+   */
+  private static class TopicSettings {
+    private final Map<String, String> codecSettings = new HashMap<>();
+    private final Map<String, TableConfig.Builder> tableConfigBuilders = new LinkedHashMap<>();
+
+    private TopicSettings(String topicName, Map<String, String> settings, boolean cloud) {
+      String prefix = getTopicSettingPath(topicName, "");
+      settings.forEach(
+          (name, value) -> {
+            if (!name.startsWith(prefix)) {
+              return;
+            }
+            String setting = name.substring(prefix.length());
+            if (CODEC_SETTING_NAMES.contains(setting)) {
+              codecSettings.put(setting, value);
+              return;
+            }
+            // Table settings are of the form "topic.mytopic.ks1.table1.setting"
+            int keyspaceEnd = setting.indexOf('.');
+            int tableEnd = keyspaceEnd > 0 ? setting.indexOf('.', keyspaceEnd + 1) : -1;
+            if (tableEnd > keyspaceEnd + 1) {
+              tableConfigBuilders
+                  .computeIfAbsent(
+                      setting.substring(0, tableEnd),
+                      t ->
+                          new TableConfig.Builder(
+                              topicName,
+                              setting.substring(0, keyspaceEnd),
+                              setting.substring(keyspaceEnd + 1, tableEnd),
+                              cloud))
+                  .addSetting(name, value);
+            }
+          });
+    }
+  }
 }
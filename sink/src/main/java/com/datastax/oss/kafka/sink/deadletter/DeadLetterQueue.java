@@ -0,0 +1,206 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.deadletter;
+
+import com.codahale.metrics.Meter;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.ThreadFactoryBuilder;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous dead letter sink for records that could not be written.
+ *
+ * <p>Failed records are handed over through a bounded queue to a single writer thread, so the
+ * threads that detect failures (mapping threads and driver completion callbacks) never block on
+ * I/O. The writer sends each record to the Connect {@link ErrantRecordReporterAdapter errant record
+ * reporter} of the task that processed it when there is one, and appends it to a local segment file
+ * otherwise. When the queue is full, records are dropped and counted rather than blocking the
+ * caller, which must then have them delivered again; records that can't be written are signaled as
+ * dropped to the task waiting for them, see {@link FailedRecord#awaitWritten(long,
+ * java.util.concurrent.TimeUnit)}.
+ */
+public class DeadLetterQueue implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(DeadLetterQueue.class);
+  private static final long POLL_INTERVAL_MS = 100;
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+  private final BlockingQueue<FailedRecord> queue;
+  private final SegmentFileWriter fileWriter;
+  private final Meter writtenRecords;
+  private final Meter droppedRecords;
+  private final Thread writerThread;
+  private volatile boolean running = true;
+
+  /**
+   * @param instanceName name of the connector instance; used as prefix for segment files
+   * @param directory directory where segment files are written, or null if records that cannot be
+   *     sent to an errant record reporter should be dropped
+   * @param capacity maximum number of records waiting to be written
+   * @param maxSegmentSizeInBytes size after which a new segment file is started
+   * @param writtenRecords meter of records successfully dead-lettered
+   * @param droppedRecords meter of records that could not be dead-lettered
+   */
+  public DeadLetterQueue(
+      @NonNull String instanceName,
+      @Nullable Path directory,
+      int capacity,
+      long maxSegmentSizeInBytes,
+      @NonNull Meter writtenRecords,
+      @NonNull Meter droppedRecords) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+    this.fileWriter =
+        directory == null
+            ? null
+            : new SegmentFileWriter(directory, instanceName, maxSegmentSizeInBytes);
+    this.writtenRecords = writtenRecords;
+    this.droppedRecords = droppedRecords;
+    writerThread =
+        new ThreadFactoryBuilder()
+            .setNameFormat("dead-letter-writer-" + instanceName)
+            .setDaemon(true)
+            .build()
+            .newThread(this::runLoop);
+    writerThread.start();
+  }
+
+  /**
+   * Enqueue the given record to be dead-lettered. This method never blocks.
+   *
+   * @param failedRecord the record
+   * @return true if the record was enqueued, false if it was dropped because the queue is full or
+   *     closed
+   */
+  public boolean offer(@NonNull FailedRecord failedRecord) {
+    if (running && queue.offer(failedRecord)) {
+      return true;
+    }
+    drop(failedRecord, null);
+    return false;
+  }
+
+  /** Write out records that are already enqueued, then stop the writer thread. */
+  @Override
+  public void close() {
+    running = false;
+    try {
+      writerThread.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (writerThread.isAlive()) {
+      log.warn("Timed out while writing out dead letter records, some records may be lost");
+      writerThread.interrupt();
+    }
+  }
+
+  private void runLoop() {
+    List<FailedRecord> batch = new ArrayList<>();
+    try {
+      while (running || !queue.isEmpty()) {
+        FailedRecord first = queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch);
+        batch.forEach(this::write);
+        IOException flushError = flush();
+        // Records handed over to a reporter, or dropped, were already marked; marking them again
+        // has no effect.
+        for (FailedRecord failedRecord : batch) {
+          if (flushError == null) {
+            failedRecord.markWritten(null);
+          } else {
+            drop(failedRecord, flushError);
+          }
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      queue.drainTo(batch);
+      batch.forEach(failedRecord -> drop(failedRecord, e));
+      Thread.currentThread().interrupt();
+    } finally {
+      closeQuietly();
+    }
+  }
+
+  private void write(FailedRecord failedRecord) {
+    ErrantRecordReporterAdapter reporter = failedRecord.getReporter();
+    Exception reportError = null;
+    if (reporter != null) {
+      try {
+        failedRecord.markWritten(
+            reporter.report(failedRecord.getRecord(), failedRecord.getError()));
+        writtenRecords.mark();
+        return;
+      } catch (Exception e) {
+        reportError = e;
+        log.warn(
+            "Could not report failed record to the errant record reporter: {}", e.getMessage());
+      }
+    }
+    if (fileWriter == null) {
+      drop(failedRecord, reportError);
+      return;
+    }
+    try {
+      fileWriter.write(failedRecord);
+      writtenRecords.mark();
+    } catch (IOException e) {
+      drop(failedRecord, e);
+      log.warn("Could not write failed record to dead letter file: {}", e.getMessage());
+    }
+  }
+
+  private void drop(FailedRecord failedRecord, @Nullable Throwable cause) {
+    if (failedRecord.markDropped(cause)) {
+      droppedRecords.mark();
+    }
+  }
+
+  /** @return the error if the records written to the file could not be flushed, null otherwise. */
+  @Nullable
+  private IOException flush() {
+    if (fileWriter != null) {
+      try {
+        fileWriter.flush();
+      } catch (IOException e) {
+        log.warn("Could not flush dead letter file: {}", e.getMessage());
+        return e;
+      }
+    }
+    return null;
+  }
+
+  private void closeQuietly() {
+    if (fileWriter != null) {
+      try {
+        fileWriter.close();
+      } catch (IOException e) {
+        log.debug("Failed to close dead letter file", e);
+      }
+    }
+  }
+}
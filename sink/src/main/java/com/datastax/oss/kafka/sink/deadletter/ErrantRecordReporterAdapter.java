@@ -0,0 +1,89 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.deadletter;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Future;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wrapper around Connect's {@code ErrantRecordReporter}.
+ *
+ * <p>The reporter was introduced in Kafka 2.6 (KIP-610), while the connector supports older
+ * workers. It is therefore looked up reflectively; on workers that don't provide one (or when the
+ * connector config does not enable it), {@link #fromContext(SinkTaskContext)} returns null.
+ */
+public class ErrantRecordReporterAdapter {
+  private static final Logger log = LoggerFactory.getLogger(ErrantRecordReporterAdapter.class);
+  private final Object reporter;
+  private final Method reportMethod;
+
+  private ErrantRecordReporterAdapter(Object reporter, Method reportMethod) {
+    this.reporter = reporter;
+    this.reportMethod = reportMethod;
+  }
+
+  /**
+   * Get the errant record reporter of the given task context.
+   *
+   * @param context the context of a sink task
+   * @return the reporter, or null if the worker doesn't provide one
+   */
+  @Nullable
+  public static ErrantRecordReporterAdapter fromContext(@Nullable SinkTaskContext context) {
+    if (context == null) {
+      return null;
+    }
+    try {
+      Method getter = SinkTaskContext.class.getMethod("errantRecordReporter");
+      Object reporter = getter.invoke(context);
+      if (reporter == null) {
+        return null;
+      }
+      Method reportMethod =
+          getter.getReturnType().getMethod("report", SinkRecord.class, Throwable.class);
+      return new ErrantRecordReporterAdapter(reporter, reportMethod);
+    } catch (NoSuchMethodException | NoClassDefFoundError e) {
+      log.debug("Connect worker does not support errant record reporting", e);
+      return null;
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      log.warn("Could not retrieve errant record reporter from task context", e);
+      return null;
+    }
+  }
+
+  /**
+   * Report the given record to the worker, which typically writes it to the dead letter queue topic
+   * configured for the connector.
+   *
+   * @param record the failed record
+   * @param error the error that occurred
+   * @return the future of the write of the record, which the worker performs asynchronously
+   */
+  Future<?> report(SinkRecord record, Throwable error) throws Exception {
+    try {
+      return (Future<?>) reportMethod.invoke(reporter, record, error);
+    } catch (InvocationTargetException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof Exception ? (Exception) cause : e;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.deadletter;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Simple container class to hold a SinkRecord that could not be written, the error that occurred
+ * and the reporter of the task that processed it, if any.
+ *
+ * <p>The task must not commit the offset of the record before it is {@linkplain
+ * #awaitWritten(long, TimeUnit) written}, or the record would be lost should the worker crash in
+ * the meantime.
+ */
+public class FailedRecord {
+  private final SinkRecord record;
+  private final Throwable error;
+  private final String cql;
+  private final ErrantRecordReporterAdapter reporter;
+
+  /**
+   * Completes once the record is written, with the future of its report if it was handed over to an
+   * errant record reporter, which writes it asynchronously; completes exceptionally if it was
+   * dropped.
+   */
+  private final CompletableFuture<Future<?>> written = new CompletableFuture<>();
+
+  public FailedRecord(
+      @NonNull SinkRecord record,
+      @NonNull Throwable error,
+      @Nullable String cql,
+      @Nullable ErrantRecordReporterAdapter reporter) {
+    this.record = record;
+    this.error = error;
+    this.cql = cql;
+    this.reporter = reporter;
+  }
+
+  @NonNull
+  public SinkRecord getRecord() {
+    return record;
+  }
+
+  @NonNull
+  public Throwable getError() {
+    return error;
+  }
+
+  /** @return the statement that failed to execute, or null if the record failed to be mapped. */
+  @Nullable
+  public String getCql() {
+    return cql;
+  }
+
+  @Nullable
+  ErrantRecordReporterAdapter getReporter() {
+    return reporter;
+  }
+
+  /**
+   * Signal that the record was written, or handed over to an errant record reporter.
+   *
+   * @param report the future of the report, or null if the record was written to a file
+   */
+  void markWritten(@Nullable Future<?> report) {
+    written.complete(report);
+  }
+
+  /**
+   * Signal that the record will not be written.
+   *
+   * @param cause the error that prevented writing the record, or null if it was never attempted
+   * @return false if the record was already signaled as written or dropped
+   */
+  boolean markDropped(@Nullable Throwable cause) {
+    return written.completeExceptionally(
+        new IOException("Record was dropped by the dead letter sink", cause));
+  }
+
+  /**
+   * Wait until the record is written to the dead letter sink.
+   *
+   * @throws ExecutionException if the record was dropped, or the errant record reporter failed to
+   *     write it
+   * @throws TimeoutException if the record is not written within the given time
+   */
+  public void awaitWritten(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    Future<?> report = written.get(timeout, unit);
+    if (report != null) {
+      report.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+  }
+}
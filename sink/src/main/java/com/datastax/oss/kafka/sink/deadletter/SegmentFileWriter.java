@@ -0,0 +1,119 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.deadletter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Writes failed records to append-only segment files, one JSON document per line. A new segment is
+ * started whenever the current one grows beyond the configured size. Segment files are named {@code
+ * <prefix>-<creation-time-millis>-<sequence>.jsonl}.
+ *
+ * <p>This class is not thread-safe; it is only used by the writer thread of {@link
+ * DeadLetterQueue}.
+ */
+class SegmentFileWriter implements AutoCloseable {
+  private static final byte[] NEW_LINE = {'\n'};
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final Path directory;
+  private final String prefix;
+  private final long maxSegmentSizeInBytes;
+  private OutputStream out;
+  private Path currentSegment;
+  private long currentSegmentSize;
+  private int sequence;
+
+  SegmentFileWriter(Path directory, String prefix, long maxSegmentSizeInBytes) {
+    this.directory = directory;
+    this.prefix = prefix;
+    this.maxSegmentSizeInBytes = maxSegmentSizeInBytes;
+  }
+
+  void write(FailedRecord failedRecord) throws IOException {
+    byte[] line = mapper.writeValueAsBytes(toDocument(failedRecord));
+    if (out == null || currentSegmentSize + line.length > maxSegmentSizeInBytes) {
+      rollSegment();
+    }
+    out.write(line);
+    out.write(NEW_LINE);
+    currentSegmentSize += line.length + NEW_LINE.length;
+  }
+
+  void flush() throws IOException {
+    if (out != null) {
+      out.flush();
+    }
+  }
+
+  Path getCurrentSegment() {
+    return currentSegment;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  private void rollSegment() throws IOException {
+    close();
+    Files.createDirectories(directory);
+    long now = System.currentTimeMillis();
+    while (true) {
+      Path segment = directory.resolve(String.format("%s-%d-%d.jsonl", prefix, now, sequence++));
+      try {
+        out =
+            new BufferedOutputStream(
+                Files.newOutputStream(
+                    segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.APPEND));
+        currentSegment = segment;
+        currentSegmentSize = 0;
+        return;
+      } catch (FileAlreadyExistsException e) {
+        // Another writer (e.g. a connector instance in another worker on this host) owns
+        // this segment; try the next sequence number.
+      }
+    }
+  }
+
+  private static Map<String, Object> toDocument(FailedRecord failedRecord) {
+    SinkRecord record = failedRecord.getRecord();
+    Throwable error = failedRecord.getError();
+    Map<String, Object> document = new LinkedHashMap<>();
+    document.put("topic", record.topic());
+    document.put("partition", record.kafkaPartition());
+    document.put("offset", record.kafkaOffset());
+    document.put("timestamp", record.timestamp());
+    document.put("key", record.key() == null ? null : String.valueOf(record.key()));
+    document.put("value", record.value() == null ? null : String.valueOf(record.value()));
+    document.put("error", error.getClass().getName());
+    document.put("errorMessage", error.getMessage());
+    document.put("cql", failedRecord.getCql());
+    return document;
+  }
+}
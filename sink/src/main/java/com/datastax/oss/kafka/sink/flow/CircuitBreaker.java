@@ -0,0 +1,203 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import com.datastax.oss.driver.api.core.servererrors.QueryValidationException;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker guarding the requests sent to one table.
+ *
+ * <p>The outcome of the last {@code windowSize} requests is kept in a ring. A request is considered
+ * bad if it failed with an error that indicates the table is unhealthy (anything but a {@link
+ * QueryValidationException}, which is caused by the data itself), or if it took longer than the
+ * slow request threshold. Once at least {@code minimumRequests} outcomes were recorded and the
+ * proportion of bad requests reaches the threshold, the breaker opens: requests are rejected
+ * without being sent for the open duration. After that, a single probe request is let through; the
+ * breaker closes if it succeeds and opens again otherwise.
+ *
+ * <p>This class is thread-safe; its methods are called from the bound statement processors of all
+ * tasks and from driver I/O threads.
+ */
+public class CircuitBreaker {
+  private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final String name;
+  private final int minimumRequests;
+  private final int failureRateThreshold;
+  private final long slowRequestThresholdNanos;
+  private final long openDurationNanos;
+  private final LongSupplier nanoClock;
+  private final boolean[] outcomes;
+
+  private State state = State.CLOSED;
+  private int index;
+  private int recorded;
+  private int badCount;
+  private long openedAt;
+  private boolean probeInFlight;
+
+  /**
+   * @param name the name of the guarded table, used in log messages
+   * @param windowSize the number of request outcomes considered
+   * @param minimumRequests the minimum number of outcomes recorded before the breaker may open
+   * @param failureRateThreshold the percentage of bad requests that opens the breaker
+   * @param slowRequestThresholdMillis the latency above which a request is considered bad, or 0 to
+   *     only consider errors
+   * @param openDurationMillis how long requests are rejected once the breaker is open
+   * @param nanoClock the time source
+   */
+  public CircuitBreaker(
+      @NonNull String name,
+      int windowSize,
+      int minimumRequests,
+      int failureRateThreshold,
+      long slowRequestThresholdMillis,
+      long openDurationMillis,
+      @NonNull LongSupplier nanoClock) {
+    this.name = name;
+    this.outcomes = new boolean[windowSize];
+    this.minimumRequests = Math.min(minimumRequests, windowSize);
+    this.failureRateThreshold = failureRateThreshold;
+    this.slowRequestThresholdNanos =
+        slowRequestThresholdMillis > 0
+            ? TimeUnit.MILLISECONDS.toNanos(slowRequestThresholdMillis)
+            : Long.MAX_VALUE;
+    this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+    this.nanoClock = nanoClock;
+  }
+
+  /**
+   * Check whether a request may be sent. When the open duration has elapsed, this lets one probe
+   * request through; its outcome must then be reported with {@link #onComplete(long, Throwable)}.
+   *
+   * @return true if the request may be sent, false if it should be rejected
+   */
+  public synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (nanoClock.getAsLong() - openedAt < openDurationNanos) {
+          return false;
+        }
+        log.info("Circuit breaker for {} is half-open, sending a probe request", name);
+        state = State.HALF_OPEN;
+        probeInFlight = true;
+        return true;
+      default:
+        if (probeInFlight) {
+          return false;
+        }
+        probeInFlight = true;
+        return true;
+    }
+  }
+
+  /**
+   * Record the outcome of a request.
+   *
+   * @param latencyNanos the request latency
+   * @param error the error the request failed with, or null if it succeeded
+   */
+  public synchronized void onComplete(long latencyNanos, @Nullable Throwable error) {
+    boolean bad =
+        (error != null && !(error instanceof QueryValidationException))
+            || latencyNanos > slowRequestThresholdNanos;
+    switch (state) {
+      case HALF_OPEN:
+        probeInFlight = false;
+        if (bad) {
+          open();
+        } else {
+          log.info("Circuit breaker for {} is closed, resuming requests", name);
+          state = State.CLOSED;
+        }
+        break;
+      case CLOSED:
+        record(bad);
+        if (recorded >= minimumRequests && badCount * 100L >= failureRateThreshold * recorded) {
+          open();
+        }
+        break;
+      default:
+        // Outcome of a request sent before the breaker opened, ignore.
+    }
+  }
+
+  /**
+   * @return true if the breaker is open and the open duration hasn't elapsed yet, i.e. if all
+   *     requests are currently rejected.
+   */
+  public synchronized boolean isOpen() {
+    return state == State.OPEN && nanoClock.getAsLong() - openedAt < openDurationNanos;
+  }
+
+  /**
+   * @return how long the breaker remains open, rounded up to the millisecond, or 0 if it is not
+   *     open. Once this elapses, {@link #tryAcquire()} lets a probe request through.
+   */
+  public synchronized long getRemainingOpenMillis() {
+    if (state != State.OPEN) {
+      return 0;
+    }
+    long remainingNanos = openDurationNanos - (nanoClock.getAsLong() - openedAt);
+    return remainingNanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remainingNanos + 999_999);
+  }
+
+  @NonNull
+  public synchronized State getState() {
+    return state;
+  }
+
+  private void record(boolean bad) {
+    if (recorded == outcomes.length) {
+      if (outcomes[index]) {
+        badCount--;
+      }
+    } else {
+      recorded++;
+    }
+    outcomes[index] = bad;
+    if (bad) {
+      badCount++;
+    }
+    index = (index + 1) % outcomes.length;
+  }
+
+  private void open() {
+    log.warn(
+        "Circuit breaker for {} is open, rejecting requests for {} ms",
+        name,
+        TimeUnit.NANOSECONDS.toMillis(openDurationNanos));
+    state = State.OPEN;
+    openedAt = nanoClock.getAsLong();
+    index = 0;
+    recorded = 0;
+    badCount = 0;
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import com.codahale.metrics.Timer;
+import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of concurrent requests of a connector instance, and shares them fairly between
+ * tables.
+ *
+ * <p>Requests are queued per table and dequeued with deficit round-robin: each time a table's turn
+ * comes, it is credited with {@code weight * quantum} records, and may send requests as long as its
+ * credit covers their size. A high-volume table therefore can't monopolize the in-flight requests,
+ * and the latency of low-volume tables stays bounded by the number of active tables rather than by
+ * the backlog of the busiest one.
+ *
+ * <p>Submitting never blocks, since requests may be submitted from driver I/O threads. Requests are
+ * started by whichever thread submits a request or completes one while a slot is free, typically
+ * the bound statement processors and the driver I/O threads. The threads producing requests must
+ * instead {@linkplain #acquireCapacity() reserve room} for each request beforehand: they wait once
+ * {@code maxInFlight} requests are in flight and as many are queued, so the queues stay bounded.
+ */
+public class FairRequestScheduler {
+  private final int maxInFlight;
+  private final int quantum;
+  private final LongSupplier nanoClock;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /** Bounds the requests that were reserved room for and are not done yet, in flight or queued. */
+  private final Semaphore capacity;
+
+  private final Deque<RequestQueue> activeQueues = new ArrayDeque<>();
+  private int inFlight;
+  private boolean dispatching;
+
+  /**
+   * @param maxInFlight the maximum number of concurrent requests
+   * @param quantum the number of records a table of weight 1 may send per round
+   * @param nanoClock the time source used to measure queueing delays
+   */
+  public FairRequestScheduler(int maxInFlight, int quantum, @NonNull LongSupplier nanoClock) {
+    this.maxInFlight = maxInFlight;
+    this.quantum = quantum;
+    this.nanoClock = nanoClock;
+    this.capacity = new Semaphore(2 * maxInFlight);
+  }
+
+  /**
+   * Wait until there is room for one more request, and reserve it. The room must be given back with
+   * {@link #releaseCapacity()} once the request is done.
+   */
+  public void acquireCapacity() {
+    capacity.acquireUninterruptibly();
+  }
+
+  /** Give back the room reserved for a request that is done. */
+  public void releaseCapacity() {
+    capacity.release();
+  }
+
+  /**
+   * Queue a request.
+   *
+   * @param queue the queue of the table the request writes to
+   * @param size the number of records written by the request
+   * @param request starts the request when invoked, and returns a stage that completes when the
+   *     request is done; the slot it uses is held until then
+   * @return a stage that completes with the stage returned by the request
+   */
+  @NonNull
+  public CompletionStage<Void> submit(
+      @NonNull RequestQueue queue, int size, @NonNull Supplier<CompletionStage<Void>> request) {
+    PendingRequest pending = new PendingRequest(size, request, nanoClock.getAsLong());
+    lock.lock();
+    try {
+      queue.pending.addLast(pending);
+      if (!queue.active) {
+        queue.active = true;
+        activeQueues.addLast(queue);
+      }
+    } finally {
+      lock.unlock();
+    }
+    dispatch();
+    return pending.result;
+  }
+
+  @VisibleForTesting
+  int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Start queued requests while slots are free. Only one thread dispatches at a time; others return
+   * immediately, the dispatching thread will see the requests they queued or the slots they freed.
+   * This also keeps requests that complete synchronously from recursing.
+   */
+  private void dispatch() {
+    lock.lock();
+    try {
+      if (dispatching) {
+        return;
+      }
+      dispatching = true;
+    } finally {
+      lock.unlock();
+    }
+    while (true) {
+      PendingRequest next;
+      lock.lock();
+      try {
+        next = inFlight < maxInFlight ? poll() : null;
+        if (next == null) {
+          dispatching = false;
+          return;
+        }
+        inFlight++;
+      } finally {
+        lock.unlock();
+      }
+      start(next);
+    }
+  }
+
+  /** Dequeue the next request according to deficit round-robin; must be called under the lock. */
+  private PendingRequest poll() {
+    while (!activeQueues.isEmpty()) {
+      RequestQueue queue = activeQueues.peekFirst();
+      PendingRequest head = queue.pending.peekFirst();
+      if (head.result.isDone()) {
+        // cancelled while waiting
+        queue.pending.pollFirst();
+      } else {
+        if (!queue.turnStarted) {
+          queue.turnStarted = true;
+          queue.deficit += (long) queue.weight * quantum;
+        }
+        if (head.size > queue.deficit) {
+          // turn over, move to the back of the line keeping the remaining credit
+          queue.turnStarted = false;
+          activeQueues.addLast(activeQueues.pollFirst());
+          continue;
+        }
+        queue.deficit -= head.size;
+        queue.pending.pollFirst();
+        queue.queueingDelay.update(nanoClock.getAsLong() - head.enqueuedAt, TimeUnit.NANOSECONDS);
+        if (queue.pending.isEmpty()) {
+          deactivate(queue);
+        }
+        return head;
+      }
+      if (queue.pending.isEmpty()) {
+        deactivate(queue);
+      }
+    }
+    return null;
+  }
+
+  private void deactivate(RequestQueue queue) {
+    activeQueues.pollFirst();
+    queue.active = false;
+    queue.turnStarted = false;
+    queue.deficit = 0;
+  }
+
+  private void start(PendingRequest pending) {
+    CompletionStage<Void> stage;
+    try {
+      stage = pending.request.get();
+    } catch (Throwable t) {
+      CompletableFuture<Void> failed = new CompletableFuture<>();
+      failed.completeExceptionally(t);
+      stage = failed;
+    }
+    stage.whenComplete(
+        (v, ex) -> {
+          lock.lock();
+          try {
+            inFlight--;
+          } finally {
+            lock.unlock();
+          }
+          if (ex == null) {
+            pending.result.complete(null);
+          } else {
+            pending.result.completeExceptionally(ex);
+          }
+          dispatch();
+        });
+  }
+
+  /** The queue of requests of one table. All fields are guarded by the scheduler's lock. */
+  public static class RequestQueue {
+    private final int weight;
+    private final Timer queueingDelay;
+    private final Deque<PendingRequest> pending = new ArrayDeque<>();
+    private boolean active;
+    private boolean turnStarted;
+    private long deficit;
+
+    /**
+     * @param weight the share of requests this table gets relative to the others
+     * @param queueingDelay records how long requests wait before being sent
+     */
+    public RequestQueue(int weight, @NonNull Timer queueingDelay) {
+      this.weight = weight;
+      this.queueingDelay = queueingDelay;
+    }
+  }
+
+  private static class PendingRequest {
+    private final int size;
+    private final Supplier<CompletionStage<Void>> request;
+    private final long enqueuedAt;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    private PendingRequest(int size, Supplier<CompletionStage<Void>> request, long enqueuedAt) {
+      this.size = size;
+      this.request = request;
+      this.enqueuedAt = enqueuedAt;
+    }
+  }
+}
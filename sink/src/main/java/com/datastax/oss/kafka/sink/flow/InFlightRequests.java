@@ -0,0 +1,68 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps count of the requests of one put that are still in flight, and signals when all of them are
+ * done, without holding on to the requests themselves.
+ *
+ * <p>Requests are added while the put is in progress, then the tracker is closed once no more
+ * requests can be added; only then does {@link #whenDone()} complete, as soon as the last request
+ * does. This class is thread-safe, but it must only be closed by one thread.
+ */
+public class InFlightRequests {
+  /** The requests in flight, plus one until the tracker is closed. */
+  private final AtomicInteger pending = new AtomicInteger(1);
+
+  private final CompletableFuture<Void> done = new CompletableFuture<>();
+  private volatile boolean closed;
+
+  /** Count the given request as in flight until it completes, successfully or not. */
+  public void add(@NonNull CompletionStage<?> request) {
+    pending.incrementAndGet();
+    request.whenComplete((v, ex) -> arrive());
+  }
+
+  /** Signal that no more requests will be added; has no effect if already closed. */
+  public void close() {
+    if (!closed) {
+      closed = true;
+      arrive();
+    }
+  }
+
+  /** @return a future that completes once closed and all requests are done. */
+  @NonNull
+  public CompletableFuture<Void> whenDone() {
+    return done;
+  }
+
+  /** @return the number of requests in flight. */
+  public int size() {
+    return closed ? pending.get() : pending.get() - 1;
+  }
+
+  private void arrive() {
+    if (pending.decrementAndGet() == 0) {
+      done.complete(null);
+    }
+  }
+}
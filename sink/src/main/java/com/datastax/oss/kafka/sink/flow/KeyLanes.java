@@ -0,0 +1,85 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Sends requests one key at a time: a request is only started once the previous request submitted
+ * with the same key has completed, successfully or not. Requests with different keys don't wait for
+ * each other.
+ *
+ * <p>Only the keys that have a request in flight are tracked, each mapped to the completion of its
+ * most recent request. Submitting a request swaps that entry for its own completion, so keys are
+ * locked independently of each other and nothing is left behind once a key's requests are done.
+ *
+ * <p>Requests are ordered as they are submitted; submitting all requests of a key from the same
+ * thread, as the bound statement processor does, writes them in that order. This class is
+ * thread-safe.
+ */
+public class KeyLanes {
+  /** The lane of requests that have no key, e.g. statements without a routing key. */
+  private static final Object NO_KEY = new Object();
+
+  private final ConcurrentMap<Object, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+  /**
+   * Start the given request once all requests previously submitted with the same key have
+   * completed.
+   *
+   * @param key the key to order the request by, or null to order it with all other requests without
+   *     a key
+   * @param request starts the request and returns its completion
+   * @return a stage that completes as the request does
+   */
+  @NonNull
+  public CompletionStage<Void> submit(
+      @Nullable Object key, @NonNull Supplier<CompletionStage<Void>> request) {
+    Object laneKey = key == null ? NO_KEY : key;
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    CompletableFuture<Void> previous = tails.put(laneKey, done);
+    CompletionStage<Void> result =
+        previous == null ? startSafely(request) : previous.thenCompose(v -> startSafely(request));
+    result.whenComplete(
+        (v, ex) -> {
+          // Only forget the key if no other request was queued behind this one.
+          tails.remove(laneKey, done);
+          done.complete(null);
+        });
+    return result;
+  }
+
+  /** @return the number of keys that have a request in flight. */
+  public int size() {
+    return tails.size();
+  }
+
+  private static CompletionStage<Void> startSafely(Supplier<CompletionStage<Void>> request) {
+    try {
+      return request.get();
+    } catch (Throwable t) {
+      CompletableFuture<Void> failed = new CompletableFuture<>();
+      failed.completeExceptionally(t);
+      return failed;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accounts for the estimated size of the statements that were mapped but not written yet, and
+ * blocks the mapping threads while that size exceeds a limit.
+ *
+ * <p>Budgets can be nested: a task's budget has the connector's budget as parent, and bytes are
+ * reserved in both. A reservation is granted whenever a budget has nothing reserved, so that a
+ * statement larger than the limit still goes through, on its own.
+ *
+ * <p>Reserved bytes are only given back once the statements are written, so whoever holds
+ * statements back, e.g. to fill up batches, must stop doing so when {@link #isExhausted()}.
+ *
+ * <p>This class is thread-safe.
+ */
+public class MemoryBudget {
+  private final long maxBytes;
+  @Nullable private final MemoryBudget parent;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition released = lock.newCondition();
+  private long usedBytes;
+  private int waiters;
+
+  /**
+   * @param maxBytes the maximum number of bytes that can be reserved, or 0 for no limit
+   * @param parent the budget to also reserve bytes in, if any
+   */
+  public MemoryBudget(long maxBytes, @Nullable MemoryBudget parent) {
+    this.maxBytes = maxBytes;
+    this.parent = parent;
+  }
+
+  /**
+   * Reserve the given number of bytes, waiting for enough of them to be released if needed.
+   *
+   * @param bytes the number of bytes to reserve
+   * @throws InterruptedException if interrupted while waiting, in which case nothing is reserved
+   */
+  public void acquire(long bytes) throws InterruptedException {
+    lock.lock();
+    try {
+      while (maxBytes > 0 && usedBytes > 0 && usedBytes + bytes > maxBytes) {
+        waiters++;
+        try {
+          released.await();
+        } finally {
+          waiters--;
+        }
+      }
+      usedBytes += bytes;
+    } finally {
+      lock.unlock();
+    }
+    if (parent != null) {
+      try {
+        parent.acquire(bytes);
+      } catch (InterruptedException e) {
+        releaseLocal(bytes);
+        throw e;
+      }
+    }
+  }
+
+  /** Give back bytes that were reserved with {@link #acquire(long)}. */
+  public void release(long bytes) {
+    releaseLocal(bytes);
+    if (parent != null) {
+      parent.release(bytes);
+    }
+  }
+
+  /**
+   * Give back all of the bytes still reserved in this budget, in case some statements were lost
+   * without being released; must only be called when no statement is pending.
+   */
+  public void releaseAll() {
+    long bytes;
+    lock.lock();
+    try {
+      bytes = usedBytes;
+    } finally {
+      lock.unlock();
+    }
+    if (bytes > 0) {
+      release(bytes);
+    }
+  }
+
+  /** @return the number of bytes currently reserved. */
+  public long getUsedBytes() {
+    lock.lock();
+    try {
+      return usedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return true if a thread is waiting for bytes to be released in this budget or its parent. */
+  public boolean isExhausted() {
+    lock.lock();
+    try {
+      if (waiters > 0) {
+        return true;
+      }
+    } finally {
+      lock.unlock();
+    }
+    return parent != null && parent.isExhausted();
+  }
+
+  private void releaseLocal(long bytes) {
+    lock.lock();
+    try {
+      usedBytes -= bytes;
+      released.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
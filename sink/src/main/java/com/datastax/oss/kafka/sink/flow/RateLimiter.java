@@ -0,0 +1,123 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token-bucket rate limiter of the writes of one topic to one table, in rows and bytes per second.
+ *
+ * <p>Each limit has its own bucket, refilled continuously at the configured rate and holding at
+ * most one second worth of tokens. Records are checked before their statements are queued: a
+ * record is admitted as long as no bucket is in debt, and then takes its tokens even if that puts a
+ * bucket in debt, so that records larger than a bucket still get through. The debt is capped at
+ * one second worth of tokens. Once a bucket is in debt, the next records are redelivered and the
+ * task pauses the topic until the debt is paid back, so the write rate converges to the limit.
+ *
+ * <p>This class is thread-safe; it is shared by the mapping threads of all tasks.
+ */
+public class RateLimiter {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final LongSupplier nanoClock;
+  @Nullable private final Bucket rows;
+  @Nullable private final Bucket bytes;
+
+  /**
+   * @param maxRowsPerSecond the maximum number of rows written per second, or 0 for no limit
+   * @param maxBytesPerSecond the maximum number of bytes written per second, or 0 for no limit
+   * @param nanoClock the time source
+   */
+  public RateLimiter(
+      long maxRowsPerSecond, long maxBytesPerSecond, @NonNull LongSupplier nanoClock) {
+    this.nanoClock = nanoClock;
+    long now = nanoClock.getAsLong();
+    this.rows = maxRowsPerSecond > 0 ? new Bucket(maxRowsPerSecond, now) : null;
+    this.bytes = maxBytesPerSecond > 0 ? new Bucket(maxBytesPerSecond, now) : null;
+  }
+
+  /**
+   * Take the tokens of a write, unless the limits are already exceeded.
+   *
+   * @param rowCount the number of rows to write
+   * @param byteCount the estimated size of the data to write
+   * @return true if the write is admitted, false if the table is throttled and nothing was taken
+   */
+  public synchronized boolean tryAcquire(long rowCount, long byteCount) {
+    long now = nanoClock.getAsLong();
+    if ((rows != null && rows.inDebt(now)) || (bytes != null && bytes.inDebt(now))) {
+      return false;
+    }
+    if (rows != null) {
+      rows.take(rowCount);
+    }
+    if (bytes != null) {
+      bytes.take(byteCount);
+    }
+    return true;
+  }
+
+  /** @return how long writes should be held back until all buckets are out of debt, or 0. */
+  public synchronized long getDelayMillis() {
+    long now = nanoClock.getAsLong();
+    long delayNanos = 0;
+    if (rows != null) {
+      delayNanos = rows.delayNanos(now);
+    }
+    if (bytes != null) {
+      delayNanos = Math.max(delayNanos, bytes.delayNanos(now));
+    }
+    // round up, so that the table isn't found throttled again when the delay expires
+    return (delayNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private static class Bucket {
+    private final long ratePerSecond;
+    private double tokens;
+    private long refilledAt;
+
+    private Bucket(long ratePerSecond, long now) {
+      this.ratePerSecond = ratePerSecond;
+      this.tokens = ratePerSecond;
+      this.refilledAt = now;
+    }
+
+    private boolean inDebt(long now) {
+      refill(now);
+      return tokens < 0;
+    }
+
+    private void take(long count) {
+      tokens = Math.max(-ratePerSecond, tokens - count);
+    }
+
+    private long delayNanos(long now) {
+      refill(now);
+      return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * NANOS_PER_SECOND / ratePerSecond);
+    }
+
+    private void refill(long now) {
+      tokens =
+          Math.min(
+              ratePerSecond,
+              tokens + (double) (now - refilledAt) * ratePerSecond / NANOS_PER_SECOND);
+      refilledAt = now;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.metrics;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.ThreadFactoryBuilder;
+import com.datastax.oss.kafka.sink.config.TableConfig;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports failed records in the logs and in metrics.
+ *
+ * <p>Logging every failed record, with its value and statement, becomes the bottleneck when a whole
+ * table starts rejecting writes. Failures are therefore aggregated by topic, table and error type,
+ * and one summary per group is logged at the end of each interval, along with a few sample records.
+ * Individual failures are still logged at DEBUG level.
+ *
+ * <p>Groups are updated without locking, for the same reason as in {@link
+ * com.datastax.oss.kafka.sink.FailureOffsets}. The number of failures of each group is exact, while
+ * its sample records are picked on a best-effort basis.
+ *
+ * <p>The number of failures per group is also exported as a meter named {@code
+ * topic/keyspace/table/failuresByError/<exception class name>}.
+ */
+public class FailureReporter implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(FailureReporter.class);
+  private final MetricRegistry metricRegistry;
+  private final long intervalSeconds;
+  private final int maxSamples;
+  private final ConcurrentMap<FailureKey, Failures> failures = new ConcurrentHashMap<>();
+  private final ConcurrentMap<FailureKey, Meter> meters = new ConcurrentHashMap<>();
+  @Nullable private final ScheduledExecutorService scheduler;
+
+  /**
+   * @param metricRegistry the registry where failure meters are created
+   * @param intervalSeconds the aggregation interval, or 0 to log every failure individually
+   * @param maxSamples the maximum number of records logged per summary
+   */
+  public FailureReporter(
+      @NonNull MetricRegistry metricRegistry, long intervalSeconds, int maxSamples) {
+    this.metricRegistry = metricRegistry;
+    this.intervalSeconds = intervalSeconds;
+    this.maxSamples = maxSamples;
+    if (intervalSeconds > 0) {
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("failure-reporter-%d")
+                  .setDaemon(true)
+                  .build());
+      scheduler.scheduleAtFixedRate(
+          this::flush, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    } else {
+      scheduler = null;
+    }
+  }
+
+  /**
+   * Report a failed record.
+   *
+   * @param tableConfig the table the record was mapped to, or null if it could not be determined
+   * @param record the record
+   * @param error the error that occurred
+   * @param cql the statement that failed to execute, or null if the record could not be mapped
+   */
+  public void report(
+      @Nullable TableConfig tableConfig,
+      @NonNull SinkRecord record,
+      @NonNull Throwable error,
+      @Nullable String cql) {
+    report(tableConfig, record.topic(), record, error, cql);
+  }
+
+  /**
+   * Report a failed record that may not have been retained.
+   *
+   * @param tableConfig the table the record was mapped to, or null if it could not be determined
+   * @param topic the topic of the record
+   * @param record the record, or a description of its position if it was not retained; logged as is
+   * @param error the error that occurred
+   * @param cql the statement that failed to execute, or null if the record could not be mapped
+   */
+  public void report(
+      @Nullable TableConfig tableConfig,
+      @NonNull String topic,
+      @NonNull Object record,
+      @NonNull Throwable error,
+      @Nullable String cql) {
+    FailureKey key =
+        new FailureKey(
+            topic,
+            tableConfig == null ? null : tableConfig.getKeyspaceAndTable(),
+            error.getClass());
+    if (tableConfig != null) {
+      // Only lock the map when the meter doesn't exist yet.
+      Meter meter = meters.get(key);
+      if (meter == null) {
+        meter =
+            meters.computeIfAbsent(
+                key,
+                k ->
+                    metricRegistry.meter(
+                        MetricNamesCreator.createFailuresByErrorMetricName(
+                            tableConfig, error.getClass())));
+      }
+      meter.mark();
+    }
+    if (scheduler == null) {
+      logFailure(record, error, cql);
+      return;
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Failed to process Kafka record {}, statement: {}", record, cql, error);
+    }
+    Failures group = failures.get(key);
+    if (group == null) {
+      group = failures.computeIfAbsent(key, k -> new Failures(maxSamples));
+    }
+    group.add(record, error, cql);
+  }
+
+  /** Log a summary of the failures that occurred since the last flush. */
+  @VisibleForTesting
+  void flush() {
+    try {
+      // Groups are kept once created: there are only so many topics, tables and errors.
+      for (Map.Entry<FailureKey, Failures> entry : failures.entrySet()) {
+        Failures group = entry.getValue();
+        AtomicReferenceArray<Sample> samples = group.resetSamples();
+        long count = group.resetCount();
+        if (count > 0) {
+          log.warn(summarize(entry.getKey(), count, group.lastMessage, samples));
+        }
+      }
+    } catch (RuntimeException e) {
+      // Don't let an unexpected error cancel the scheduled task.
+      log.warn("Could not log failure summary", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      flush();
+    }
+  }
+
+  private String summarize(
+      FailureKey key, long count, String lastMessage, AtomicReferenceArray<Sample> samples) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(count)
+        .append(count == 1 ? " record" : " records")
+        .append(" from topic ")
+        .append(key.topic);
+    if (key.keyspaceAndTable != null) {
+      sb.append(" failed to be written to ").append(key.keyspaceAndTable);
+    } else {
+      sb.append(" failed to be processed");
+    }
+    sb.append(" in the last ")
+        .append(intervalSeconds)
+        .append(" seconds with ")
+        .append(key.errorClass.getName())
+        .append(": ")
+        .append(lastMessage);
+    for (int i = 0; i < samples.length(); i++) {
+      Sample sample = samples.get(i);
+      if (sample == null) {
+        // Not taken, or not stored yet by the thread that took it.
+        continue;
+      }
+      sb.append(System.lineSeparator()).append("   record: ").append(sample.record);
+      if (sample.cql != null) {
+        sb.append(System.lineSeparator()).append("   statement: ").append(sample.cql);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void logFailure(Object record, Throwable error, String cql) {
+    if (cql != null) {
+      log.warn(
+          "Error inserting/updating row for Kafka record {}: {}\n   statement: {}}",
+          record,
+          error.getMessage(),
+          cql);
+    } else {
+      log.warn("Error decoding/mapping Kafka record {}: {}", record, error.getMessage());
+    }
+  }
+
+  @VisibleForTesting
+  long getPendingFailureCount() {
+    return failures.values().stream().mapToLong(group -> group.count.get()).sum();
+  }
+
+  private static class FailureKey {
+    private final String topic;
+    private final String keyspaceAndTable;
+    private final Class<?> errorClass;
+
+    private FailureKey(String topic, String keyspaceAndTable, Class<?> errorClass) {
+      this.topic = topic;
+      this.keyspaceAndTable = keyspaceAndTable;
+      this.errorClass = errorClass;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      FailureKey that = (FailureKey) o;
+      return topic.equals(that.topic)
+          && Objects.equals(keyspaceAndTable, that.keyspaceAndTable)
+          && errorClass.equals(that.errorClass);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(topic, keyspaceAndTable, errorClass);
+    }
+  }
+
+  /**
+   * Failures of one group since the last flush. The first failures of each interval are taken as
+   * samples: each failure takes the slot matching the count of failures before it.
+   */
+  private static class Failures {
+    private final int maxSamples;
+    private final AtomicLong count = new AtomicLong();
+    private volatile AtomicReferenceArray<Sample> samples;
+    private volatile String lastMessage;
+
+    private Failures(int maxSamples) {
+      this.maxSamples = maxSamples;
+      this.samples = new AtomicReferenceArray<>(maxSamples);
+    }
+
+    private void add(Object record, Throwable error, String cql) {
+      long index = count.getAndIncrement();
+      lastMessage = error.getMessage();
+      if (index < maxSamples) {
+        samples.set((int) index, new Sample(record, cql));
+      }
+    }
+
+    /** @return the samples of the interval, replaced with empty ones for the next interval. */
+    private AtomicReferenceArray<Sample> resetSamples() {
+      AtomicReferenceArray<Sample> current = samples;
+      samples = new AtomicReferenceArray<>(maxSamples);
+      return current;
+    }
+
+    /** @return the count of failures of the interval, reset for the next interval. */
+    private long resetCount() {
+      return count.getAndSet(0);
+    }
+  }
+
+  private static class Sample {
+    private final Object record;
+    private final String cql;
+
+    private Sample(Object record, String cql) {
+      this.record = record;
+      this.cql = cql;
+    }
+  }
+}
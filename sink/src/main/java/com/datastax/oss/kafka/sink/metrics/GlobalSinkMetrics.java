@@ -16,15 +16,27 @@
 package com.datastax.oss.kafka.sink.metrics;
 
 import avro.shaded.com.google.common.annotations.VisibleForTesting;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import java.util.function.LongSupplier;
 
 public class GlobalSinkMetrics {
   private static final String FAILED_RECORDS_WITH_UNKNOWN_TOPIC = "failedRecordsWithUnknownTopic";
+  private static final String DEAD_LETTER_RECORDS = "deadLetterRecords";
+  private static final String DEAD_LETTER_DROPPED_RECORDS = "deadLetterDroppedRecords";
+  private static final String STAGED_BYTES = "stagedBytes";
   private final Meter failedRecordsWithUnknownTopicCounter;
+  private final Meter deadLetterRecords;
+  private final Meter deadLetterDroppedRecords;
 
-  public GlobalSinkMetrics(MetricRegistry metricRegistry) {
+  public GlobalSinkMetrics(MetricRegistry metricRegistry, LongSupplier stagedBytes) {
     failedRecordsWithUnknownTopicCounter = metricRegistry.meter(FAILED_RECORDS_WITH_UNKNOWN_TOPIC);
+    deadLetterRecords = metricRegistry.meter(DEAD_LETTER_RECORDS);
+    deadLetterDroppedRecords = metricRegistry.meter(DEAD_LETTER_DROPPED_RECORDS);
+    // The registry outlives instance states, replace any gauge left by a previous one.
+    metricRegistry.remove(STAGED_BYTES);
+    metricRegistry.register(STAGED_BYTES, (Gauge<Long>) stagedBytes::getAsLong);
   }
 
   @VisibleForTesting
@@ -32,6 +44,14 @@ public class GlobalSinkMetrics {
     return failedRecordsWithUnknownTopicCounter;
   }
 
+  public Meter getDeadLetterRecords() {
+    return deadLetterRecords;
+  }
+
+  public Meter getDeadLetterDroppedRecords() {
+    return deadLetterDroppedRecords;
+  }
+
   public void incrementFailedWithUnknownTopicCounter() {
     failedRecordsWithUnknownTopicCounter.mark();
   }
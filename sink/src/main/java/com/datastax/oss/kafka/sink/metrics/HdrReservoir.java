@@ -0,0 +1,181 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.Recorder;
+
+/**
+ * A reservoir backed by an HdrHistogram {@link Recorder}, used by all of the connector's histograms
+ * and timers instead of the default, exponentially decaying reservoir.
+ *
+ * <p>Recording a value is wait-free and takes a few nanoseconds, so that metrics updated once per
+ * statement don't slow down the threads that write statements, nor have them contend on a lock.
+ * Values are counted in buckets with a precision of 2 significant digits, so that percentiles are
+ * accurate up to 1%, whatever the number of recorded values.
+ *
+ * <p>Snapshots cover the values recorded during the current and the previous interval of 30
+ * seconds, i.e. the last 30 to 60 seconds. Intervals only roll over when a snapshot is taken, so
+ * that reservoirs nobody reads cost nothing besides recording: the values recorded since the last
+ * snapshot count as part of the current interval, and all others are dropped if more than one
+ * interval went by. Values are expected to be positive, negative ones are recorded as 0.
+ */
+public class HdrReservoir implements Reservoir {
+  private static final int SIGNIFICANT_DIGITS = 2;
+  private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+  // The histograms grow with the highest recorded value, rather than allocating buckets up front
+  // for values that may never be recorded.
+  private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+  private final LongSupplier nanoClock;
+  private org.HdrHistogram.Histogram recorded;
+  private org.HdrHistogram.Histogram previousInterval;
+  private org.HdrHistogram.Histogram currentInterval;
+  private long intervalEnd;
+  private HdrSnapshot snapshot;
+
+  /** @return a new histogram backed by an HdrHistogram reservoir. */
+  public static Histogram newHistogram() {
+    return new Histogram(new HdrReservoir(System::nanoTime));
+  }
+
+  /** @return a new timer backed by an HdrHistogram reservoir. */
+  public static Timer newTimer() {
+    return new Timer(new HdrReservoir(System::nanoTime));
+  }
+
+  /** @param nanoClock the source of the current time, in nanoseconds */
+  @VisibleForTesting
+  HdrReservoir(LongSupplier nanoClock) {
+    this.nanoClock = nanoClock;
+    recorded = recorder.getIntervalHistogram();
+    previousInterval = recorded.copy();
+    currentInterval = recorded.copy();
+    intervalEnd = nanoClock.getAsLong() + INTERVAL_NANOS;
+    snapshot = new HdrSnapshot(recorded.copy());
+  }
+
+  @Override
+  public int size() {
+    return getSnapshot().size();
+  }
+
+  @Override
+  public void update(long value) {
+    recorder.recordValue(Math.max(0, value));
+  }
+
+  @Override
+  public synchronized Snapshot getSnapshot() {
+    recorded = recorder.getIntervalHistogram(recorded);
+    boolean changed = recorded.getTotalCount() > 0;
+    long now = nanoClock.getAsLong();
+    if (now - intervalEnd >= 0) {
+      org.HdrHistogram.Histogram oldest = previousInterval;
+      previousInterval = currentInterval;
+      currentInterval = oldest;
+      currentInterval.reset();
+      if (now - intervalEnd >= INTERVAL_NANOS) {
+        // No snapshot was taken for more than an interval: the previous one is over too.
+        previousInterval.reset();
+      }
+      intervalEnd = now + INTERVAL_NANOS;
+      changed = true;
+    }
+    // The values recorded since the last snapshot may be recent, count them in the current
+    // interval.
+    currentInterval.add(recorded);
+    if (changed) {
+      // Snapshots are shared by their readers, and must not change once handed out.
+      org.HdrHistogram.Histogram values = previousInterval.copy();
+      values.add(currentInterval);
+      snapshot = new HdrSnapshot(values);
+    }
+    return snapshot;
+  }
+
+  private static class HdrSnapshot extends Snapshot {
+    private final org.HdrHistogram.Histogram histogram;
+
+    private HdrSnapshot(org.HdrHistogram.Histogram histogram) {
+      this.histogram = histogram;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+      return histogram.getValueAtPercentile(quantile * 100);
+    }
+
+    /** @return every recorded value, rounded to its bucket; meant for tests and dumps. */
+    @Override
+    public long[] getValues() {
+      long[] values = new long[size()];
+      int i = 0;
+      for (HistogramIterationValue value : histogram.recordedValues()) {
+        for (long j = 0; j < value.getCountAtValueIteratedTo(); j++) {
+          values[i++] = value.getValueIteratedTo();
+        }
+      }
+      return values;
+    }
+
+    @Override
+    public int size() {
+      return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+      return histogram.getMaxValue();
+    }
+
+    @Override
+    public double getMean() {
+      return histogram.getMean();
+    }
+
+    @Override
+    public long getMin() {
+      return histogram.getMinValue();
+    }
+
+    @Override
+    public double getStdDev() {
+      return histogram.getStdDeviation();
+    }
+
+    @Override
+    public void dump(OutputStream output) {
+      try (PrintWriter out =
+          new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+        for (long value : getValues()) {
+          out.printf("%d%n", value);
+        }
+      }
+    }
+  }
+}
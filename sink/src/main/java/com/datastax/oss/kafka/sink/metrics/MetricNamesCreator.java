@@ -16,6 +16,7 @@
 package com.datastax.oss.kafka.sink.metrics;
 
 import com.datastax.oss.kafka.sink.config.TableConfig;
+import org.apache.kafka.common.TopicPartition;
 
 public class MetricNamesCreator {
 
@@ -27,6 +28,10 @@ public class MetricNamesCreator {
     return topicKeyspacePrefix(tableConfig, "batchSizeInBytes");
   }
 
+  public static String createBisectionDepthMetricName(TableConfig tableConfig) {
+    return topicKeyspacePrefix(tableConfig, "bisectionDepth");
+  }
+
   public static String createRecordCountMetricName(TableConfig tableConfig) {
     return topicKeyspacePrefix(tableConfig, "recordCount");
   }
@@ -35,6 +40,44 @@ public class MetricNamesCreator {
     return topicKeyspacePrefix(tableConfig, "failedRecordCount");
   }
 
+  public static String createQueueingDelayMetricName(TableConfig tableConfig) {
+    return topicKeyspacePrefix(tableConfig, "queueingDelay");
+  }
+
+  public static String createFreshnessMetricName(TableConfig tableConfig) {
+    return topicKeyspacePrefix(tableConfig, "freshness");
+  }
+
+  public static String createMapLatencyMetricName(TableConfig tableConfig) {
+    return topicKeyspacePrefix(tableConfig, "mapLatency");
+  }
+
+  public static String createEnqueueDelayMetricName(TableConfig tableConfig) {
+    return topicKeyspacePrefix(tableConfig, "enqueueDelay");
+  }
+
+  public static String createExecuteLatencyMetricName(TableConfig tableConfig) {
+    return topicKeyspacePrefix(tableConfig, "executeLatency");
+  }
+
+  public static String createEndToEndLatencyMetricName(TableConfig tableConfig) {
+    return topicKeyspacePrefix(tableConfig, "endToEndLatency");
+  }
+
+  public static String createCircuitBreakerStateMetricName(TableConfig tableConfig) {
+    return topicKeyspacePrefix(tableConfig, "circuitBreakerState");
+  }
+
+  public static String createFailuresByErrorMetricName(
+      TableConfig tableConfig, Class<?> errorClass) {
+    return topicKeyspacePrefix(tableConfig, "failuresByError") + "/" + errorClass.getName();
+  }
+
+  public static String createOldestUnackedRecordAgeMetricName(TopicPartition topicPartition) {
+    return String.format(
+        "%s/%d/%s", topicPartition.topic(), topicPartition.partition(), "oldestUnackedRecordAge");
+  }
+
   private static String topicKeyspacePrefix(TableConfig tableConfig, String metricName) {
     return String.format(
         "%s/%s/%s/%s",
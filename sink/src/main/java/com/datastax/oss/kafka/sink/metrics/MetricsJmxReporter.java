@@ -54,12 +54,42 @@ public class MetricsJmxReporter {
               .append(JMXUtil.quoteJMXIfNecessary(instanceName))
               .append(',');
       Iterator<String> tokens = Splitter.on("/").split(metricName).iterator();
-      if (metricName.contains("batchSize")
+      if (metricName.contains("failuresByError")) {
+        // special-case failuresByError metrics and expose them per topic, ks, table and error
+        sb.append("topic=")
+            .append(JMXUtil.quoteJMXIfNecessary(tokens.next()))
+            .append(",keyspace=")
+            .append(JMXUtil.quoteJMXIfNecessary(tokens.next()))
+            .append(",table=")
+            .append(JMXUtil.quoteJMXIfNecessary(tokens.next()))
+            .append(",name=")
+            .append(JMXUtil.quoteJMXIfNecessary(tokens.next()))
+            .append(",error=")
+            .append(JMXUtil.quoteJMXIfNecessary(tokens.next()));
+      } else if (metricName.contains("oldestUnackedRecordAge")) {
+        // special-case oldestUnackedRecordAge metrics and expose them per topic and partition
+        sb.append("topic=")
+            .append(JMXUtil.quoteJMXIfNecessary(tokens.next()))
+            .append(",partition=")
+            .append(JMXUtil.quoteJMXIfNecessary(tokens.next()))
+            .append(",name=")
+            .append(JMXUtil.quoteJMXIfNecessary(tokens.next()));
+      } else if (metricName.contains("batchSize")
           || metricName.contains("batchSizeInBytes")
+          || metricName.contains("bisectionDepth")
+          || metricName.contains("freshness")
+          || metricName.contains("circuitBreakerState")
+          || metricName.contains("queueingDelay")
+          || metricName.contains("mapLatency")
+          || metricName.contains("enqueueDelay")
+          || metricName.contains("executeLatency")
+          || metricName.contains("endToEndLatency")
           || metricName.contains("failedRecordCount")
           || metricName.contains("recordCount")) {
-        // special-case batchSize, batchSizeInBytes, failedRecordCount, recordCount metrics
-        // and expose them per topic, ks and table
+        // special-case batchSize, batchSizeInBytes, bisectionDepth, freshness,
+        // circuitBreakerState, queueingDelay, mapLatency, enqueueDelay, executeLatency,
+        // endToEndLatency, failedRecordCount, recordCount metrics and expose them per topic, ks
+        // and table
         sb.append("topic=")
             .append(JMXUtil.quoteJMXIfNecessary(tokens.next()))
             .append(",keyspace=")
@@ -16,29 +16,101 @@
 package com.datastax.oss.kafka.sink.record;
 
 import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.kafka.sink.PutTracker;
+import com.datastax.oss.kafka.sink.state.TableHandle;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.RecordBatch;
 import org.apache.kafka.connect.sink.SinkRecord;
 
-/** Simple container class to hold a SinkRecord and its associated BoundStatement. */
+/**
+ * Simple container class to hold the position of a SinkRecord and its associated BoundStatement.
+ *
+ * <p>Once bound, the record's key, value and headers are only needed to report the record to a dead
+ * letter sink; otherwise, the record itself is not retained, so that it can be garbage collected
+ * while its statement is being written.
+ */
 public class RecordAndStatement {
-  private final SinkRecord record;
-  private final String keyspaceAndTable;
+  private final TopicPartition topicPartition;
+  private final long offset;
+  private final long timestamp;
+  @Nullable private final SinkRecord record;
+  private final TableHandle table;
   private final BoundStatement statement;
+  private final long dataSize;
+  private final PutTracker putTracker;
 
-  public RecordAndStatement(SinkRecord record, String keyspaceAndTable, BoundStatement statement) {
+  /**
+   * @param topicPartition the topic-partition of the record, ideally a shared instance
+   * @param offset the offset of the record
+   * @param timestamp the Kafka timestamp of the record, or {@link RecordBatch#NO_TIMESTAMP}
+   * @param record the record, if it needs to be retained
+   * @param table the handle of the topic-table the statement writes to
+   * @param statement the statement the record was mapped to
+   * @param dataSize the estimated size of the statement's data, in bytes
+   * @param putTracker the tracker of the put that the record was delivered in
+   */
+  public RecordAndStatement(
+      TopicPartition topicPartition,
+      long offset,
+      long timestamp,
+      @Nullable SinkRecord record,
+      TableHandle table,
+      BoundStatement statement,
+      long dataSize,
+      PutTracker putTracker) {
+    this.topicPartition = topicPartition;
+    this.offset = offset;
+    this.timestamp = timestamp;
     this.record = record;
-    this.keyspaceAndTable = keyspaceAndTable;
+    this.table = table;
     this.statement = statement;
+    this.dataSize = dataSize;
+    this.putTracker = putTracker;
+  }
+
+  public TopicPartition getTopicPartition() {
+    return topicPartition;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * @return the Kafka timestamp of the record, in milliseconds since the epoch, or {@link
+   *     RecordBatch#NO_TIMESTAMP} if it has none.
+   */
+  public long getTimestamp() {
+    return timestamp;
   }
 
+  /** @return the record, or null if it was not retained. */
+  @Nullable
   public SinkRecord getRecord() {
     return record;
   }
 
+  /** @return the handle of the topic-table the statement writes to. */
+  public TableHandle getTable() {
+    return table;
+  }
+
   public String getKeyspaceAndTable() {
-    return keyspaceAndTable;
+    return table.getKeyspaceAndTable();
   }
 
   public BoundStatement getStatement() {
     return statement;
   }
+
+  /** @return the estimated size of the statement's data, in bytes. */
+  public long getDataSize() {
+    return dataSize;
+  }
+
+  /** @return the tracker of the put that the record was delivered in. */
+  public PutTracker getPutTracker() {
+    return putTracker;
+  }
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.state;
+
+import com.codahale.metrics.Gauge;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
+import com.datastax.oss.driver.api.core.loadbalancing.NodeDistance;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.metrics.DefaultNodeMetric;
+import com.datastax.oss.driver.api.core.metrics.Metrics;
+import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
+import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableMap;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Grows the connection pools of the session when the requests in flight on the connections of a
+ * node get close to the number of requests a connection accepts, and shrinks them back when they
+ * are mostly idle, but not below their configured size.
+ *
+ * <p>The size of the pools is set through the config of the session, which the driver applies to
+ * the existing pools when the config is reloaded.
+ */
+class ConnectionPoolSizer implements AutoCloseable {
+  private static final Logger log = LoggerFactory.getLogger(ConnectionPoolSizer.class);
+  private static final String POOL_LOCAL_SIZE_PATH =
+      "datastax-java-driver." + DefaultDriverOption.CONNECTION_POOL_LOCAL_SIZE.getPath();
+  private static final long CHECK_INTERVAL_SECONDS = 10;
+
+  // Grow above half of the requests a connection accepts, shrink if a connection less would still
+  // stay below a quarter of them.
+  private static final double GROW_THRESHOLD = 0.5;
+  private static final double SHRINK_THRESHOLD = 0.25;
+
+  private final int minSize;
+  private final int maxSize;
+  private volatile int size;
+  private ScheduledExecutorService executor;
+
+  /**
+   * @param initialSize the configured size of the pools, which they don't shrink below
+   * @param maxSize the size the pools don't grow above
+   */
+  ConnectionPoolSizer(int initialSize, int maxSize) {
+    this.size = initialSize;
+    this.minSize = initialSize;
+    this.maxSize = maxSize;
+  }
+
+  /** @return the config setting the current size of the pools, to override the others with. */
+  Config getConfig() {
+    return ConfigFactory.parseMap(ImmutableMap.of(POOL_LOCAL_SIZE_PATH, size));
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  /** Start checking the requests in flight on the connections of the given session. */
+  void start(CqlSession session) {
+    executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("connection-pool-sizer-%d")
+                .setDaemon(true)
+                .build());
+    executor.scheduleWithFixedDelay(
+        () -> {
+          try {
+            resize(session);
+          } catch (RuntimeException e) {
+            log.warn("Could not resize the connection pools", e);
+          }
+        },
+        CHECK_INTERVAL_SECONDS,
+        CHECK_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  private void resize(CqlSession session) {
+    Optional<Metrics> metrics = session.getMetrics();
+    if (!metrics.isPresent()) {
+      return;
+    }
+    int maxInFlight = 0;
+    for (Node node : session.getMetadata().getNodes().values()) {
+      if (node.getDistance() == NodeDistance.LOCAL && node.getOpenConnections() > 0) {
+        Optional<Integer> inFlight =
+            metrics
+                .get()
+                .getNodeMetric(node, DefaultNodeMetric.IN_FLIGHT)
+                .map(metric -> (Integer) ((Gauge<?>) metric).getValue());
+        if (inFlight.isPresent()) {
+          maxInFlight = Math.max(maxInFlight, inFlight.get());
+        }
+      }
+    }
+    int maxRequestsPerConnection =
+        session
+            .getContext()
+            .getConfig()
+            .getDefaultProfile()
+            .getInt(DefaultDriverOption.CONNECTION_MAX_REQUESTS);
+    int oldSize = size;
+    int newSize = computeSize(oldSize, minSize, maxSize, maxInFlight, maxRequestsPerConnection);
+    if (newSize != oldSize) {
+      log.info(
+          "Resizing connection pools from {} to {} connections, with up to {} requests in flight "
+              + "on a node",
+          oldSize,
+          newSize,
+          maxInFlight);
+      size = newSize;
+      session
+          .getContext()
+          .getConfigLoader()
+          .reload()
+          .whenComplete(
+              (reloaded, error) -> {
+                if (error != null) {
+                  // The pools keep their size, try again at the next check.
+                  log.warn(
+                      "Could not resize connection pools from {} to {} connections",
+                      oldSize,
+                      newSize,
+                      error);
+                  size = oldSize;
+                }
+              });
+    }
+  }
+
+  /**
+   * @param size the current size of the pools
+   * @param minSize the minimum size of the pools
+   * @param maxSize the maximum size of the pools
+   * @param maxInFlight the highest number of requests in flight on a node
+   * @param maxRequestsPerConnection the number of requests a connection accepts
+   * @return the new size of the pools.
+   */
+  @VisibleForTesting
+  static int computeSize(
+      int size, int minSize, int maxSize, int maxInFlight, int maxRequestsPerConnection) {
+    if (size < maxSize && maxInFlight > size * maxRequestsPerConnection * GROW_THRESHOLD) {
+      return size + 1;
+    }
+    if (size > minSize && maxInFlight < (size - 1) * maxRequestsPerConnection * SHRINK_THRESHOLD) {
+      return size - 1;
+    }
+    return size;
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -15,31 +15,51 @@
  */
 package com.datastax.oss.kafka.sink.state;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.jmx.JmxReporter;
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.api.core.ProtocolVersion;
+import com.datastax.oss.driver.api.core.config.DefaultDriverOption;
 import com.datastax.oss.driver.api.core.type.codec.registry.CodecRegistry;
 import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
 import com.datastax.oss.driver.shaded.guava.common.collect.Sets;
 import com.datastax.oss.driver.shaded.guava.common.util.concurrent.ThreadFactoryBuilder;
+import com.datastax.oss.kafka.sink.BoundStatementProcessor;
 import com.datastax.oss.kafka.sink.CassandraSinkTask;
 import com.datastax.oss.kafka.sink.RecordMapper;
 import com.datastax.oss.kafka.sink.config.CassandraSinkConfig;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.BatchGrouping;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.ExecutionEngine;
 import com.datastax.oss.kafka.sink.config.TableConfig;
 import com.datastax.oss.kafka.sink.config.TopicConfig;
+import com.datastax.oss.kafka.sink.deadletter.DeadLetterQueue;
+import com.datastax.oss.kafka.sink.flow.CircuitBreaker;
+import com.datastax.oss.kafka.sink.flow.FairRequestScheduler;
+import com.datastax.oss.kafka.sink.flow.MemoryBudget;
+import com.datastax.oss.kafka.sink.flow.RateLimiter;
+import com.datastax.oss.kafka.sink.metrics.FailureReporter;
 import com.datastax.oss.kafka.sink.metrics.GlobalSinkMetrics;
 import com.datastax.oss.kafka.sink.metrics.MetricNamesCreator;
 import com.datastax.oss.kafka.sink.metrics.MetricsJmxReporter;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,15 +68,35 @@ public class InstanceState {
   private static final Logger log = LoggerFactory.getLogger(InstanceState.class);
   private final CqlSession session;
   private final CassandraSinkConfig config;
-  private final Map<String, TopicState> topicStates;
+  private final ConcurrentMap<String, TopicState> topicStates;
+  private final MetricRegistry metricRegistry;
 
-  /** Semaphore to limit the number of concurrent requests. */
-  private final Semaphore requestBarrier;
+  /** Limits the number of concurrent requests and shares them fairly between tables. */
+  private final FairRequestScheduler requestScheduler;
+
+  private final BatchGrouping batchGrouping;
+
+  private final ExecutionEngine executionEngine;
+
+  /** Limits the size of the records mapped but not written yet by all tasks. */
+  private final MemoryBudget memoryBudget;
 
   private final Set<CassandraSinkTask> tasks;
+  private int registrationCount;
   private final Executor mappingExecutor;
+
+  /** Batches the statements of all tasks together, if enabled. */
+  @Nullable private final BoundStatementProcessor sharedStatementProcessor;
+
+  @Nullable private final ExecutorService sharedStatementProcessorService;
+
+  /** Sizes the connection pools of the session, if enabled. */
+  @Nullable private volatile ConnectionPoolSizer connectionPoolSizer;
+
   private final JmxReporter reporter;
   private final GlobalSinkMetrics globalSinkMetrics;
+  @Nullable private final DeadLetterQueue deadLetterQueue;
+  private final FailureReporter failureReporter;
 
   public InstanceState(
       @NonNull CassandraSinkConfig config,
@@ -65,8 +105,23 @@ public class InstanceState {
       @NonNull MetricRegistry metricRegistry) {
     this.session = session;
     this.config = config;
-    this.topicStates = topicStates;
-    this.requestBarrier = new Semaphore(getConfig().getMaxConcurrentRequests());
+    this.topicStates = new ConcurrentHashMap<>(topicStates);
+    this.metricRegistry = metricRegistry;
+    this.requestScheduler =
+        new FairRequestScheduler(
+            config.getMaxConcurrentRequests(),
+            config.getMaxNumberOfRecordsInBatch(),
+            System::nanoTime);
+    this.batchGrouping = config.getBatchGrouping();
+    this.executionEngine = config.getExecutionEngine();
+    this.memoryBudget = new MemoryBudget(config.getStagingBufferMaxBytes(), null);
+    if (batchGrouping == BatchGrouping.REPLICA_SET
+        && !session.getMetadata().getTokenMap().isPresent()) {
+      log.warn(
+          "Token metadata is not available, records will only be batched when they write to "
+              + "the same partition. Make sure that datastax-java-driver.{} is enabled.",
+          DefaultDriverOption.METADATA_TOKEN_MAP_ENABLED.getPath());
+    }
     tasks = Sets.newConcurrentHashSet();
     mappingExecutor =
         Executors.newFixedThreadPool(
@@ -83,40 +138,126 @@ public class InstanceState {
                             metricRegistry.register(
                                 MetricNamesCreator.createDriverMetricName(name), metric)));
 
-    topicStates.values().forEach(ts -> ts.initializeMetrics(metricRegistry));
-    globalSinkMetrics = new GlobalSinkMetrics(metricRegistry);
+    topicStates.values().forEach(this::initializeTopicState);
+    globalSinkMetrics = new GlobalSinkMetrics(metricRegistry, memoryBudget::getUsedBytes);
     reporter = MetricsJmxReporter.createJmxReporter(config.getInstanceName(), metricRegistry);
+    failureReporter =
+        new FailureReporter(
+            metricRegistry, config.getFailureLogInterval(), config.getFailureLogSamples());
+    deadLetterQueue = config.isDeadLetterEnabled() ? createDeadLetterQueue() : null;
 
     if (config.getJmx()) {
       reporter.start();
     }
+
+    if (config.isBatchAcrossTasks()) {
+      sharedStatementProcessor =
+          new BoundStatementProcessor(
+              this, new LinkedBlockingQueue<>(), config.getMaxNumberOfRecordsInBatch());
+      sharedStatementProcessorService =
+          Executors.newSingleThreadExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("shared-bound-statement-processor-%d")
+                  .build());
+      sharedStatementProcessorService.submit(this::runSharedStatementProcessor);
+    } else {
+      sharedStatementProcessor = null;
+      sharedStatementProcessorService = null;
+    }
+  }
+
+  private Void runSharedStatementProcessor() throws InterruptedException {
+    assert sharedStatementProcessor != null;
+    while (true) {
+      try {
+        return sharedStatementProcessor.call();
+      } catch (RuntimeException e) {
+        // Keep serving the tasks, whose puts would otherwise wait forever. The statements of the
+        // puts that were in progress are redelivered, and the puts flushed, as the processor
+        // runs again.
+        log.error(
+            "Problem when processing statements. This is likely a bug in the connector, please "
+                + "report.",
+            e);
+      }
+    }
+  }
+
+  private CircuitBreaker createCircuitBreaker(TableConfig tableConfig) {
+    return new CircuitBreaker(
+        tableConfig.getKeyspaceAndTable(),
+        config.getCircuitBreakerWindowSize(),
+        config.getCircuitBreakerMinimumRequests(),
+        config.getCircuitBreakerFailureRateThreshold(),
+        config.getCircuitBreakerSlowRequestThreshold(),
+        TimeUnit.SECONDS.toMillis(config.getCircuitBreakerOpenDuration()),
+        System::nanoTime);
+  }
+
+  private DeadLetterQueue createDeadLetterQueue() {
+    Path directory = config.getDeadLetterDirectory().orElse(null);
+    if (directory == null) {
+      log.warn(
+          "Dead letter sink is enabled but no directory is configured; "
+              + "failed records will be dropped on workers without an errant record reporter");
+    }
+    return new DeadLetterQueue(
+        config.getInstanceName() == null ? "kafka-sink" : config.getInstanceName(),
+        directory,
+        config.getDeadLetterQueueSize(),
+        config.getDeadLetterMaxSegmentSizeInBytes(),
+        globalSinkMetrics.getDeadLetterRecords(),
+        globalSinkMetrics.getDeadLetterDroppedRecords());
   }
 
-  void registerTask(CassandraSinkTask task) {
+  synchronized void registerTask(CassandraSinkTask task) {
     tasks.add(task);
+    registrationCount++;
   }
 
   /**
-   * Unregister the given task. This method is synchronized because it also handles cleaning up the
-   * InstanceState if this is the last task. Without synchronization, two threads that unregister
-   * the last tasks simultaneously may both believe they are the last, causing multiple cleanups to
-   * occur.
+   * Unregister the given task. This method is synchronized so that, when two threads unregister the
+   * last tasks simultaneously, only one of them believes it is the last.
    *
    * @param task the task
    * @return true if this is the last task to be unregistered in the InstanceState, false otherwise.
    */
   synchronized boolean unregisterTaskAndCheckIfLast(CassandraSinkTask task) {
     tasks.remove(task);
-    if (tasks.isEmpty()) {
-      log.debug("last task unregister close");
-      closeQuietly(session);
-      reporter.stop();
-      // Indicate to the caller that this is the last task in the InstanceState.
-      return true;
+    return tasks.isEmpty();
+  }
+
+  /** @return true if no task is registered, e.g. while the last tasks are being rebalanced. */
+  synchronized boolean isIdle() {
+    return tasks.isEmpty();
+  }
+
+  /**
+   * @return the number of times a task was registered, which tells whether an idle instance state
+   *     was reused in the meantime.
+   */
+  synchronized int getRegistrationCount() {
+    return registrationCount;
+  }
+
+  /** Close the session and everything else this instance state holds; it must be idle. */
+  void close() {
+    log.debug("closing instance state");
+    if (sharedStatementProcessor != null) {
+      sharedStatementProcessor.stop();
+      sharedStatementProcessorService.shutdown();
     }
+    closeQuietly(connectionPoolSizer);
+    closeQuietly(session);
+    closeQuietly(deadLetterQueue);
+    closeQuietly(failureReporter);
+    reporter.stop();
+  }
 
-    // Indicate to the caller that this is not the last task in the InstanceState.
-    return false;
+  /** Start sizing the connection pools of the session with the given sizer. */
+  void startConnectionPoolSizer(ConnectionPoolSizer connectionPoolSizer) {
+    this.connectionPoolSizer = connectionPoolSizer;
+    connectionPoolSizer.start(session);
   }
 
   @NonNull
@@ -130,8 +271,23 @@ public class InstanceState {
   }
 
   @NonNull
-  public Semaphore getRequestBarrier() {
-    return requestBarrier;
+  public FairRequestScheduler getRequestScheduler() {
+    return requestScheduler;
+  }
+
+  /** @return a new memory budget for a task, nested in the budget of the connector. */
+  @NonNull
+  public MemoryBudget createTaskMemoryBudget() {
+    return new MemoryBudget(config.getStagingBufferMaxBytesPerTask(), memoryBudget);
+  }
+
+  /**
+   * @return the processor batching the statements of all tasks together, or null if each put
+   *     batches its own statements.
+   */
+  @Nullable
+  public BoundStatementProcessor getSharedStatementProcessor() {
+    return sharedStatementProcessor;
   }
 
   public int getMaxNumberOfRecordsInBatch() {
@@ -160,22 +316,100 @@ public class InstanceState {
     return getTopicState(topicName).getBatchSizeInBytesHistogram(keyspaceAndTable);
   }
 
+  public boolean isBisectFailedBatches() {
+    return config.isBisectFailedBatches();
+  }
+
+  @NonNull
+  public BatchGrouping getBatchGrouping() {
+    return batchGrouping;
+  }
+
+  @NonNull
+  public ExecutionEngine getExecutionEngine() {
+    return executionEngine;
+  }
+
+  @NonNull
+  public FailureReporter getFailureReporter() {
+    return failureReporter;
+  }
+
+  /**
+   * @return true if the circuit breaker of any table the given topic maps to is open, meaning that
+   *     records of this topic can't be written for now.
+   */
+  public boolean hasOpenCircuitBreaker(String topicName) {
+    TopicState topicState = topicStates.get(topicName);
+    return topicState != null
+        && topicState.getCircuitBreakers().stream().anyMatch(CircuitBreaker::isOpen);
+  }
+
+  /**
+   * @return how long records of the given topic should be held back for the circuit breakers of the
+   *     tables it maps to to close again, or 0 if none of them is open.
+   */
+  public long getCircuitBreakerDelayMillis(String topicName) {
+    TopicState topicState = topicStates.get(topicName);
+    return topicState == null
+        ? 0
+        : topicState
+            .getCircuitBreakers()
+            .stream()
+            .mapToLong(CircuitBreaker::getRemainingOpenMillis)
+            .max()
+            .orElse(0);
+  }
+
+  /**
+   * @return how long records of the given topic should be held back for the tables it maps to to
+   *     get back under their rate limits, or 0 if none of them is throttled.
+   */
+  public long getThrottleDelayMillis(String topicName) {
+    TopicState topicState = topicStates.get(topicName);
+    return topicState == null
+        ? 0
+        : topicState
+            .getRateLimiters()
+            .stream()
+            .mapToLong(RateLimiter::getDelayMillis)
+            .max()
+            .orElse(0);
+  }
+
+  /** @return the dead letter sink, or null if it is not enabled. */
+  @Nullable
+  public DeadLetterQueue getDeadLetterQueue() {
+    return deadLetterQueue;
+  }
+
   @NonNull
   public Executor getMappingExecutor() {
     return mappingExecutor;
   }
 
+  /** @return the handles of all of the tables the given topic maps to. */
   @NonNull
-  public RecordMapper getRecordMapper(TableConfig tableConfig) {
-    return getTopicState(tableConfig.getTopicName()).getRecordMapper(tableConfig);
+  public List<TableHandle> getTableHandles(String topicName) {
+    return getTopicState(topicName).getTableHandles();
   }
 
-  public void incrementRecordCounter(String topicName, String keyspaceAndTable, int incrementBy) {
-    getTopicState(topicName).incrementRecordCount(keyspaceAndTable, incrementBy);
+  /**
+   * @return a future that completes once the statements of all tables the given topic maps to were
+   *     prepared, or could not be; it never completes exceptionally.
+   */
+  @NonNull
+  public CompletableFuture<Void> whenRecordMappersReady(String topicName) {
+    TopicState topicState = topicStates.get(topicName);
+    // Records of unknown topics fail when they are mapped.
+    return topicState == null
+        ? CompletableFuture.completedFuture(null)
+        : topicState.whenRecordMappersReady();
   }
 
-  public void incrementFailedCounter(String topicName, String keyspaceAndTable) {
-    getTopicState(topicName).incrementFailedCounter(keyspaceAndTable);
+  @NonNull
+  public RecordMapper getRecordMapper(TableConfig tableConfig) {
+    return getTopicState(tableConfig.getTopicName()).getRecordMapper(tableConfig);
   }
 
   @VisibleForTesting
@@ -197,8 +431,54 @@ public class InstanceState {
     return globalSinkMetrics.getFailedRecordsWithUnknownTopicCounter();
   }
 
+  /**
+   * Register the gauge of the age of the oldest unacknowledged record of the given topic-partition,
+   * replacing any gauge left by the task that previously owned the partition.
+   */
+  public synchronized void registerOldestUnackedRecordAgeGauge(
+      TopicPartition topicPartition, Gauge<Long> gauge) {
+    String name = MetricNamesCreator.createOldestUnackedRecordAgeMetricName(topicPartition);
+    metricRegistry.remove(name);
+    metricRegistry.register(name, gauge);
+  }
+
+  /**
+   * Remove the given gauge of the age of the oldest unacknowledged record of the given partition,
+   * unless another task that was assigned the partition since then replaced it.
+   */
+  public synchronized void removeOldestUnackedRecordAgeGauge(
+      TopicPartition topicPartition, Gauge<Long> gauge) {
+    String name = MetricNamesCreator.createOldestUnackedRecordAgeMetricName(topicPartition);
+    if (metricRegistry.getMetrics().get(name) == gauge) {
+      metricRegistry.remove(name);
+    }
+  }
+
+  /**
+   * Initialize and add the given state of a topic, unless the topic already has one, e.g. because
+   * another task added it first. The state should be built beforehand, since other topics can't be
+   * added meanwhile.
+   *
+   * @return the state of the topic
+   */
   @NonNull
-  private TopicState getTopicState(String topicName) {
+  TopicState addTopicStateIfAbsent(String topicName, TopicState topicState) {
+    return topicStates.computeIfAbsent(
+        topicName,
+        t -> {
+          initializeTopicState(topicState);
+          return topicState;
+        });
+  }
+
+  /** @return the state of the given topic, or null if it wasn't initialized. */
+  @Nullable
+  TopicState findTopicState(String topicName) {
+    return topicStates.get(topicName);
+  }
+
+  @NonNull
+  TopicState getTopicState(String topicName) {
     TopicState topicState = topicStates.get(topicName);
     if (topicState == null) {
       throw new KafkaException(
@@ -209,6 +489,20 @@ public class InstanceState {
     return topicState;
   }
 
+  private void initializeTopicState(TopicState topicState) {
+    topicState.initializeMetrics(metricRegistry);
+    if (config.isCircuitBreakerEnabled()) {
+      topicState.initializeCircuitBreakers(this::createCircuitBreaker, metricRegistry);
+    }
+    topicState.initializeRateLimiters(
+        tableConfig ->
+            new RateLimiter(
+                tableConfig.getMaxRowsPerSecond(),
+                tableConfig.getMaxBytesPerSecond(),
+                System::nanoTime));
+    topicState.initializeTableHandles();
+  }
+
   /**
    * Close the given closeable without reporting errors if any occur.
    *
@@ -41,15 +41,20 @@ import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.metadata.Metadata;
 import com.datastax.oss.driver.api.core.metadata.schema.ColumnMetadata;
 import com.datastax.oss.driver.api.core.metadata.schema.KeyspaceMetadata;
+import com.datastax.oss.driver.api.core.metadata.schema.SchemaChangeListener;
 import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
+import com.datastax.oss.driver.api.core.type.DataType;
 import com.datastax.oss.driver.api.core.type.DataTypes;
+import com.datastax.oss.driver.api.core.type.ListType;
 import com.datastax.oss.driver.internal.core.auth.PlainTextAuthProvider;
 import com.datastax.oss.driver.internal.core.config.typesafe.DefaultDriverConfigLoader;
 import com.datastax.oss.driver.internal.core.config.typesafe.DefaultProgrammaticDriverConfigLoaderBuilder;
 import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
 import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableMap;
+import com.datastax.oss.driver.shaded.guava.common.util.concurrent.ThreadFactoryBuilder;
 import com.datastax.oss.dsbulk.codecs.api.ConvertingCodecFactory;
 import com.datastax.oss.kafka.sink.CassandraSinkTask;
+import com.datastax.oss.kafka.sink.RecordMapper;
 import com.datastax.oss.kafka.sink.config.AuthenticatorConfig;
 import com.datastax.oss.kafka.sink.config.CassandraSinkConfig;
 import com.datastax.oss.kafka.sink.config.ContactPointsValidator;
@@ -57,13 +62,16 @@ import com.datastax.oss.kafka.sink.config.SslConfig;
 import com.datastax.oss.kafka.sink.config.TableConfig;
 import com.datastax.oss.kafka.sink.config.TopicConfig;
 import com.datastax.oss.kafka.sink.ssl.SessionBuilder;
+import com.datastax.oss.kafka.sink.util.FunctionMapper;
 import com.datastax.oss.kafka.sink.util.SinkUtil;
 import com.datastax.oss.kafka.sink.util.StringUtil;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
 import java.net.InetSocketAddress;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -74,6 +82,10 @@ import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import org.apache.kafka.common.config.ConfigException;
 import org.slf4j.Logger;
@@ -90,6 +102,25 @@ public class LifeCycleManager {
       new ConcurrentHashMap<>();
   private static MetricRegistry metricRegistry = new MetricRegistry();
 
+  private static final long PREPARE_RETRY_BASE_DELAY_MILLIS = 1000;
+  private static final long PREPARE_RETRY_MAX_DELAY_MILLIS = 60_000;
+
+  /** Numbers the schema refreshes, to make their queries distinct from the ones prepared before. */
+  private static final AtomicLong SCHEMA_REFRESHES = new AtomicLong();
+
+  /** Prepares again the statements that could not be prepared in the background. */
+  private static final ScheduledExecutorService PREPARE_RETRIER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("prepare-retrier-%d").setDaemon(true).build());
+
+  /** Closes the instance states that stayed idle for their grace period. */
+  private static final ScheduledExecutorService IDLE_INSTANCE_STATE_CLOSER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("idle-instance-state-closer-%d")
+              .setDaemon(true)
+              .build());
+
   public static final String KAFKA_CONNECTOR_APPLICATION_NAME = "DataStax Apache Kafka Connector";
 
   /** This is a utility class that no one should instantiate. */
@@ -99,22 +130,51 @@ public class LifeCycleManager {
    * Perform setup needed before a CassandraSinkTask is ready to handle records. Primarily, get or
    * create an {@link InstanceState} and register the task with the owning InstanceState.
    *
+   * <p>An instance state whose tasks all stopped is reused if it is still in its grace period and
+   * has the same settings; otherwise it is closed and a new one is created.
+   *
    * @param task the task
    * @param props connector instance properties, from the connector config file (for
    *     connect-standalone) or a config stored in Kafka itself (connect-distributed).
    * @return the {@link InstanceState} that owns this task.
    */
   public static InstanceState startTask(CassandraSinkTask task, Map<String, String> props) {
-    InstanceState instanceState =
-        INSTANCE_STATES.computeIfAbsent(
-            props.get(SinkUtil.NAME_OPT),
-            x -> {
-              CassandraSinkConfig config = new CassandraSinkConfig(props);
-              CqlSession session = buildCqlSession(config, task.version());
-              return buildInstanceState(session, config);
-            });
-    instanceState.registerTask(task);
-    return instanceState;
+    String instanceName = props.get(SinkUtil.NAME_OPT);
+    INSTANCE_STATES.computeIfPresent(
+        instanceName,
+        (name, current) -> {
+          if (current.isIdle() && !current.getConfig().hasSettings(props)) {
+            log.debug("Settings changed, closing idle instance state");
+            current.close();
+            return null;
+          }
+          return current;
+        });
+    // Registering the task while the map entry is locked guarantees that the instance state isn't
+    // closed in the meantime.
+    return INSTANCE_STATES.compute(
+        instanceName,
+        (name, current) -> {
+          InstanceState instanceState = current;
+          if (instanceState == null) {
+            CassandraSinkConfig config = new CassandraSinkConfig(props);
+            SchemaChangeHandler schemaChangeHandler = new SchemaChangeHandler();
+            ConnectionPoolSizer connectionPoolSizer =
+                config.getConnectionPoolMaxLocalSize() > 0
+                    ? new ConnectionPoolSizer(
+                        config.getConnectionPoolLocalSize(), config.getConnectionPoolMaxLocalSize())
+                    : null;
+            CqlSession session =
+                buildCqlSession(config, task.version(), schemaChangeHandler, connectionPoolSizer);
+            instanceState = buildInstanceState(session, config);
+            schemaChangeHandler.setInstanceState(instanceState);
+            if (connectionPoolSizer != null) {
+              instanceState.startConnectionPoolSizer(connectionPoolSizer);
+            }
+          }
+          instanceState.registerTask(task);
+          return instanceState;
+        });
   }
 
   /**
@@ -125,12 +185,50 @@ public class LifeCycleManager {
    */
   public static void stopTask(InstanceState instanceState, CassandraSinkTask task) {
     log.debug("Unregistering task");
-    if (instanceState != null && instanceState.unregisterTaskAndCheckIfLast(task)) {
-      INSTANCE_STATES.remove(instanceState.getConfig().getInstanceName());
+    if (instanceState != null) {
+      INSTANCE_STATES.compute(
+          instanceState.getConfig().getInstanceName(),
+          (name, current) -> {
+            if (!instanceState.unregisterTaskAndCheckIfLast(task)) {
+              return current;
+            }
+            int gracePeriod = instanceState.getConfig().getSessionGracePeriod();
+            if (current != instanceState || gracePeriod == 0) {
+              instanceState.close();
+              return current == instanceState ? null : current;
+            }
+            // Keep the session for tasks that start again shortly, e.g. during a rebalance.
+            log.debug("Last task stopped, keeping instance state for {} seconds", gracePeriod);
+            int registrationCount = instanceState.getRegistrationCount();
+            IDLE_INSTANCE_STATE_CLOSER.schedule(
+                () -> closeIfStillIdle(instanceState, registrationCount),
+                gracePeriod,
+                TimeUnit.SECONDS);
+            return current;
+          });
     }
     log.debug("Task is no longer registered with Connector instance.");
   }
 
+  /**
+   * Close the given instance state if no task was registered with it since its last task stopped,
+   * when the registration count was the given one.
+   */
+  private static void closeIfStillIdle(InstanceState instanceState, int registrationCount) {
+    INSTANCE_STATES.computeIfPresent(
+        instanceState.getConfig().getInstanceName(),
+        (name, current) -> {
+          if (current == instanceState
+              && instanceState.isIdle()
+              && instanceState.getRegistrationCount() == registrationCount) {
+            log.debug("Grace period expired, closing idle instance state");
+            instanceState.close();
+            return null;
+          }
+          return current;
+        });
+  }
+
   /**
    * Validate that the mapping in the given tableConfig references columns that exist in the table,
    * and that every primary key column in the table has a mapping.
@@ -384,12 +482,47 @@ public class LifeCycleManager {
     return table.getColumns().values().stream().anyMatch(c -> c.getType() == DataTypes.COUNTER);
   }
 
+  /**
+   * Whether the insert or update statement of a table can be marked idempotent, i.e. whether
+   * writing a record twice has the same effect as writing it once. Only then does the driver retry
+   * the statement after a timeout, or execute it speculatively.
+   *
+   * <p>This holds for the INSERTs made by the connector, provided they are bound with a timestamp,
+   * which the record mapper checks for each record. It doesn't hold for counter updates, nor for
+   * inserts into non-frozen lists, which append elements rather than overwrite them. Mappings that
+   * call functions, such as now(), and user-provided queries are conservatively excluded.
+   *
+   * @param config the config
+   * @param table the table metadata
+   * @return true if the statement is idempotent when bound with a timestamp
+   */
+  @VisibleForTesting
+  static boolean isIdempotentInsertUpdate(TableConfig config, TableMetadata table) {
+    if (config.isQueryProvided() || isCounterTable(table)) {
+      return false;
+    }
+    for (Map.Entry<CqlIdentifier, CqlIdentifier> entry : config.getMapping().entrySet()) {
+      if (FunctionMapper.SUPPORTED_FUNCTIONS_IN_MAPPING.contains(entry.getValue())) {
+        return false;
+      }
+      Optional<? extends ColumnMetadata> column = table.getColumn(entry.getKey());
+      if (column.isPresent() && isNonFrozenList(column.get().getType())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isNonFrozenList(DataType type) {
+    return type instanceof ListType && !((ListType) type).isFrozen();
+  }
+
   /**
    * Perform heavy lifting of creating an InstanceState:
    *
    * <ul>
    *   <li>Verify that all nodes are DSE or DDAC
-   *   <li>Walk through each {@link TopicConfig}:
+   *   <li>Walk through each {@link TopicConfig}, unless the connector subscribes by pattern:
    *       <ul>
    *         <li>Prepare insert, update, delete statements for each table mapping in each topic
    *         <li>Deduce the primary key for each table
@@ -404,59 +537,130 @@ public class LifeCycleManager {
    */
   @NonNull
   private static InstanceState buildInstanceState(CqlSession session, CassandraSinkConfig config) {
+    Map<String, TopicState> topicStates = new HashMap<>();
+    if (config.isSubscribedByPattern()) {
+      // Only the topics whose partitions get assigned to a task are initialized, see openTopics.
+      log.info(
+          "Subscribed by pattern, topics will be initialized when their partitions are assigned");
+    } else {
+      StatementPreparer preparer =
+          new StatementPreparer(session, config.getMaxConcurrentRequests());
+      Map<Map<String, ?>, ConvertingCodecFactory> codecFactories = new HashMap<>();
+      List<CompletionStage<Void>> futures = new ArrayList<>();
+      for (TopicConfig topicConfig : config.getTopicConfigs().values()) {
+        topicStates.put(
+            topicConfig.getTopicName(),
+            buildTopicState(
+                session,
+                preparer,
+                codecFactories,
+                topicConfig,
+                config.isPrepareInBackground(),
+                futures));
+      }
+      awaitPrepares(config, futures);
+    }
+    return new InstanceState(config, session, topicStates, metricRegistry);
+  }
 
-    // Compute the primary keys of all tables being mapped to (across topics).
-    Map<String, List<CqlIdentifier>> primaryKeys = new HashMap<>();
-
-    // Walk through topic-configs to create TopicState's. This involves computing the
-    // codec-registry and the following for each mapped table:
-    // cql for insert-update statements
-    // cql for delete statements
-    // prepared-statement for insert/update requests
-    // prepared-statement for delete requests, if deletesEnabled is true and all columns are mapped.
-    Map<String, TopicState> topicStates = new ConcurrentHashMap<>();
-    List<CompletionStage<Void>> futures =
-        config
-            .getTopicConfigs()
-            .values()
-            .stream()
-            .map(
-                topicConfig -> {
-                  ConvertingCodecFactory codecFactory = topicConfig.createCodecFactory();
-                  TopicState topicState = new TopicState(codecFactory);
-                  topicStates.put(topicConfig.getTopicName(), topicState);
-
-                  return topicConfig
-                      .getTableConfigs()
-                      .stream()
-                      .map(
-                          tableConfig -> {
-                            TableMetadata table = getTableMetadata(session, tableConfig);
-                            // Save off the primary key of the table, if we haven't done so
-                            // already.
-                            String keyspaceAndTable = tableConfig.getKeyspaceAndTable();
-                            if (!primaryKeys.containsKey(keyspaceAndTable)) {
-                              primaryKeys.put(
-                                  keyspaceAndTable,
-                                  table
-                                      .getPrimaryKey()
-                                      .stream()
-                                      .map(ColumnMetadata::getName)
-                                      .collect(Collectors.toList()));
-                            }
-
-                            return prepareStatementsAsync(
-                                session,
-                                topicState,
-                                tableConfig,
-                                table,
-                                primaryKeys.get(keyspaceAndTable));
-                          })
-                      .collect(Collectors.toList());
-                })
-            .flatMap(Collection::stream)
-            .collect(Collectors.toList());
+  /**
+   * Initialize the given topics, if they aren't already. This is a no-op unless the connector
+   * subscribes by pattern, in which case topics are only initialized once some task is assigned one
+   * of their partitions. Topics stay initialized after their partitions are revoked, since eager
+   * rebalances revoke and assign all partitions again.
+   *
+   * @param instanceState the instance state
+   * @param topicNames the topics of the partitions assigned to a task
+   */
+  public static void openTopics(InstanceState instanceState, Collection<String> topicNames) {
+    CassandraSinkConfig config = instanceState.getConfig();
+    if (!config.isSubscribedByPattern()) {
+      return;
+    }
+    StatementPreparer preparer =
+        new StatementPreparer(instanceState.getSession(), config.getMaxConcurrentRequests());
+    Map<Map<String, ?>, ConvertingCodecFactory> codecFactories = new HashMap<>();
+    Map<String, TopicState> topicStates = new HashMap<>();
+    List<CompletionStage<Void>> futures = new ArrayList<>();
+    for (String topicName : topicNames) {
+      TopicConfig topicConfig = config.getTopicConfigs().get(topicName);
+      // Records of topics without configuration fail when they are mapped, as they always did.
+      if (topicConfig != null && instanceState.findTopicState(topicName) == null) {
+        topicStates.put(
+            topicName,
+            buildTopicState(
+                instanceState.getSession(),
+                preparer,
+                codecFactories,
+                topicConfig,
+                config.isPrepareInBackground(),
+                futures));
+      }
+    }
+    // Topics are only added once their statements are prepared, so that those that could not be
+    // are prepared again when their partitions are assigned next. Tasks assigned the same topic at
+    // once may both prepare its statements, and the first one to be done adds its state.
+    awaitPrepares(config, futures);
+    topicStates.forEach(instanceState::addTopicStateIfAbsent);
+  }
+
+  /**
+   * Create the state of the given topic. This involves computing the codec-registry and the
+   * following for each mapped table:
+   *
+   * <ul>
+   *   <li>cql for insert-update statements
+   *   <li>cql for delete statements
+   *   <li>prepared-statement for insert/update requests
+   *   <li>prepared-statement for delete requests, if deletesEnabled is true and all columns are
+   *       mapped.
+   * </ul>
+   *
+   * Topics with the same codec settings share the same codec factory, and statements are prepared
+   * in parallel, but not so many at once that requests get rejected.
+   *
+   * @param retryFailedPrepares whether statements that can't be prepared are prepared again later,
+   *     rather than failing the start of the tasks
+   * @param futures the list to add the futures of the prepares to
+   */
+  @NonNull
+  private static TopicState buildTopicState(
+      CqlSession session,
+      StatementPreparer preparer,
+      Map<Map<String, ?>, ConvertingCodecFactory> codecFactories,
+      TopicConfig topicConfig,
+      boolean retryFailedPrepares,
+      List<CompletionStage<Void>> futures) {
+    ConvertingCodecFactory codecFactory =
+        codecFactories.computeIfAbsent(
+            topicConfig.getCodecSettings(), settings -> topicConfig.createCodecFactory());
+    TopicState topicState = new TopicState(codecFactory);
+    for (TableConfig tableConfig : topicConfig.getTableConfigs()) {
+      TableMetadata table = getTableMetadata(session, tableConfig);
+      List<CqlIdentifier> primaryKey =
+          table.getPrimaryKey().stream().map(ColumnMetadata::getName).collect(Collectors.toList());
+      CompletionStage<Void> future =
+          prepareStatementsAsync(preparer, topicState, tableConfig, table, primaryKey);
+      if (retryFailedPrepares) {
+        future =
+            future.exceptionally(
+                e -> {
+                  retryPrepareLater(session, preparer, topicState, tableConfig, e.getCause(), 1);
+                  return null;
+                });
+      }
+      futures.add(future);
+    }
+    return topicState;
+  }
 
+  private static void awaitPrepares(
+      CassandraSinkConfig config, List<CompletionStage<Void>> futures) {
+    if (config.isPrepareInBackground()) {
+      // Records are only mapped once the statements of their own table are prepared, and fail
+      // while these can't be prepared; failed prepares are retried, see retryPrepareLater.
+      return;
+    }
     // Wait for all of the prepares to complete and topicStates to be up-to-date.
     futures.forEach(
         f -> {
@@ -467,8 +671,6 @@ public class LifeCycleManager {
             throw (RuntimeException) e.getCause();
           }
         });
-
-    return new InstanceState(config, session, topicStates, metricRegistry);
   }
 
   /**
@@ -480,6 +682,15 @@ public class LifeCycleManager {
   @VisibleForTesting
   @NonNull
   public static CqlSession buildCqlSession(CassandraSinkConfig config, String version) {
+    return buildCqlSession(config, version, null, null);
+  }
+
+  @NonNull
+  private static CqlSession buildCqlSession(
+      CassandraSinkConfig config,
+      String version,
+      @Nullable SchemaChangeListener schemaChangeListener,
+      @Nullable ConnectionPoolSizer connectionPoolSizer) {
     log.info("CassandraSinkTask starting with config:\n{}\n", config.toString());
     SslConfig sslConfig = config.getSslConfig();
     CqlSessionBuilder builder =
@@ -507,13 +718,17 @@ public class LifeCycleManager {
 
     ProgrammaticDriverConfigLoaderBuilder configLoaderBuilder =
         dseProgrammaticBuilderWithFallback(
-            ConfigFactory.parseMap(config.getJavaDriverSettings(), "Connector properties"));
+            ConfigFactory.parseMap(config.getJavaDriverSettings(), "Connector properties"),
+            connectionPoolSizer);
 
     processAuthenticatorConfig(config, configLoaderBuilder);
     if (sslConfig != null) {
       processSslConfig(sslConfig, configLoaderBuilder);
     }
     builder.withConfigLoader(configLoaderBuilder.build());
+    if (schemaChangeListener != null) {
+      builder.withSchemaChangeListener(schemaChangeListener);
+    }
 
     return builder.build();
   }
@@ -600,9 +815,9 @@ public class LifeCycleManager {
 
   /**
    * Prepare insert or update (depending on whether or not the table is a COUNTER table), and delete
-   * statements asynchronously.
+   * statements asynchronously, and set the record mapper of the table once they are prepared.
    *
-   * @param session the session
+   * @param preparer the preparer of the statements
    * @param topicState the topic state (e.g. topic-related state produced from the config).
    * @param tableConfig the table settings within the topic
    * @param table the table metadata
@@ -611,7 +826,94 @@ public class LifeCycleManager {
    */
   @NonNull
   private static CompletionStage<Void> prepareStatementsAsync(
+      StatementPreparer preparer,
+      TopicState topicState,
+      TableConfig tableConfig,
+      TableMetadata table,
+      List<CqlIdentifier> primaryKey) {
+    topicState.addTable(tableConfig);
+    return prepareRecordMapperAsync(preparer, topicState, tableConfig, table, primaryKey)
+        .whenComplete(
+            (recordMapper, error) -> {
+              if (error == null) {
+                topicState.setRecordMapper(tableConfig, recordMapper);
+              } else {
+                topicState.failRecordMapper(tableConfig, (RuntimeException) error.getCause());
+              }
+            })
+        .thenApply(recordMapper -> null);
+  }
+
+  /**
+   * Prepare the statements of the given table again after a delay that doubles with each attempt,
+   * until they are prepared or the session is closed. Meanwhile, the records of the table fail as
+   * soon as they are mapped.
+   *
+   * @param error the error of the previous attempt
+   * @param attempt the number of attempts so far
+   */
+  private static void retryPrepareLater(
       CqlSession session,
+      StatementPreparer preparer,
+      TopicState topicState,
+      TableConfig tableConfig,
+      Throwable error,
+      int attempt) {
+    long delayMillis =
+        Math.min(
+            PREPARE_RETRY_MAX_DELAY_MILLIS,
+            PREPARE_RETRY_BASE_DELAY_MILLIS << Math.min(attempt - 1, 16));
+    log.error(
+        "Could not prepare statements of topic {} for table {}, records will fail until they are "
+            + "prepared; retrying in {} ms",
+        tableConfig.getTopicName(),
+        tableConfig.getKeyspaceAndTable(),
+        delayMillis,
+        error);
+    PREPARE_RETRIER.schedule(
+        () -> {
+          if (session.isClosed()) {
+            return;
+          }
+          try {
+            TableMetadata table = getTableMetadata(session, tableConfig);
+            List<CqlIdentifier> primaryKey =
+                table
+                    .getPrimaryKey()
+                    .stream()
+                    .map(ColumnMetadata::getName)
+                    .collect(Collectors.toList());
+            prepareRecordMapperAsync(preparer, topicState, tableConfig, table, primaryKey)
+                .whenComplete(
+                    (recordMapper, e) -> {
+                      if (e == null) {
+                        topicState.setRecordMapper(tableConfig, recordMapper);
+                        log.info(
+                            "Prepared statements of topic {} for table {} after {} attempts",
+                            tableConfig.getTopicName(),
+                            tableConfig.getKeyspaceAndTable(),
+                            attempt + 1);
+                      } else {
+                        retryPrepareLater(
+                            session, preparer, topicState, tableConfig, e.getCause(), attempt + 1);
+                      }
+                    });
+          } catch (RuntimeException e) {
+            retryPrepareLater(session, preparer, topicState, tableConfig, e, attempt + 1);
+          }
+        },
+        delayMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Validate the mapping of the given table, and prepare its statements asynchronously.
+   *
+   * @return a future of the record mapper using the prepared statements
+   */
+  @NonNull
+  private static CompletionStage<RecordMapper> prepareRecordMapperAsync(
+      StatementPreparer preparer,
       TopicState topicState,
       TableConfig tableConfig,
       TableMetadata table,
@@ -627,11 +929,11 @@ public class LifeCycleManager {
     String insertUpdateStatement = getInsertUpdateStatement(tableConfig, table);
 
     CompletionStage<? extends PreparedStatement> insertUpdateFuture =
-        session.prepareAsync(insertUpdateStatement);
+        preparer.prepareAsync(insertUpdateStatement);
     CompletionStage<? extends PreparedStatement> deleteFuture;
     String deleteStatement = makeDeleteStatement(tableConfig, table);
     if (tableConfig.isDeletesEnabled() && allColumnsMapped) {
-      deleteFuture = session.prepareAsync(deleteStatement);
+      deleteFuture = preparer.prepareAsync(deleteStatement);
     } else {
       // Make a dummy future that's already completed since there is no work to do here.
       CompletableFuture<PreparedStatement> dummyFuture = new CompletableFuture<>();
@@ -639,11 +941,15 @@ public class LifeCycleManager {
       deleteFuture = dummyFuture;
     }
     return insertUpdateFuture
-        .thenAcceptBoth(
+        .<PreparedStatement, RecordMapper>thenCombine(
             deleteFuture,
             (preparedInsertUpdate, preparedDelete) ->
-                topicState.createRecordMapper(
-                    tableConfig, primaryKey, preparedInsertUpdate, preparedDelete))
+                topicState.newRecordMapper(
+                    tableConfig,
+                    primaryKey,
+                    preparedInsertUpdate,
+                    preparedDelete,
+                    isIdempotentInsertUpdate(tableConfig, table)))
         .exceptionally(
             e -> {
               String statements =
@@ -655,6 +961,97 @@ public class LifeCycleManager {
             });
   }
 
+  /**
+   * Rebuild the record mappers of the topic-tables that write to the given table, or to any table
+   * of the given keyspace, after a schema change. Each new mapper replaces the previous one once
+   * its statements are prepared; should that fail, e.g. because a mapped column was dropped, the
+   * previous mapper is kept.
+   *
+   * <p>The queries are prepared with a comment numbering the refresh: the driver would otherwise
+   * return the statements it prepared before, with the previous definition of the user types they
+   * bind, or the ids of the statements of a table that was dropped and created again.
+   */
+  static void refreshRecordMappers(
+      InstanceState instanceState, CqlIdentifier keyspace, @Nullable CqlIdentifier table) {
+    StatementPreparer preparer =
+        new StatementPreparer(
+            instanceState.getSession(),
+            instanceState.getConfig().getMaxConcurrentRequests(),
+            "schema refresh " + SCHEMA_REFRESHES.incrementAndGet());
+    for (TopicConfig topicConfig : instanceState.getConfig().getTopicConfigs().values()) {
+      for (TableConfig tableConfig : topicConfig.getTableConfigs()) {
+        if (tableConfig.getKeyspace().equals(keyspace)
+            && (table == null || tableConfig.getTable().equals(table))) {
+          refreshRecordMapper(instanceState, preparer, tableConfig);
+        }
+      }
+    }
+  }
+
+  private static void refreshRecordMapper(
+      InstanceState instanceState, StatementPreparer preparer, TableConfig tableConfig) {
+    TopicState topicState = instanceState.findTopicState(tableConfig.getTopicName());
+    if (topicState == null) {
+      // The topic is initialized later on, from the current schema.
+      return;
+    }
+    try {
+      TableMetadata table = getTableMetadata(instanceState.getSession(), tableConfig);
+      List<CqlIdentifier> primaryKey =
+          table.getPrimaryKey().stream().map(ColumnMetadata::getName).collect(Collectors.toList());
+      prepareRecordMapperAsync(preparer, topicState, tableConfig, table, primaryKey)
+          .whenComplete(
+              (recordMapper, error) -> {
+                if (error == null) {
+                  topicState.setRecordMapper(tableConfig, recordMapper);
+                  log.info(
+                      "Refreshed mapping of topic {} to table {} after a schema change",
+                      tableConfig.getTopicName(),
+                      tableConfig.getKeyspaceAndTable());
+                } else {
+                  logRefreshFailure(tableConfig, error.getCause());
+                }
+              });
+    } catch (RuntimeException e) {
+      logRefreshFailure(tableConfig, e);
+    }
+  }
+
+  /**
+   * Fail the record mappers of the topic-tables that write to the given dropped table, so that
+   * their records fail as soon as they are mapped rather than when they are written. The mappers
+   * are rebuilt if the table is created again.
+   */
+  static void failRecordMappers(
+      InstanceState instanceState, CqlIdentifier keyspace, CqlIdentifier table) {
+    for (TopicConfig topicConfig : instanceState.getConfig().getTopicConfigs().values()) {
+      for (TableConfig tableConfig : topicConfig.getTableConfigs()) {
+        TopicState topicState = instanceState.findTopicState(tableConfig.getTopicName());
+        if (topicState != null
+            && tableConfig.getKeyspace().equals(keyspace)
+            && tableConfig.getTable().equals(table)) {
+          log.error(
+              "Table {} was dropped, records of topic {} will fail until it is created again",
+              tableConfig.getKeyspaceAndTable(),
+              tableConfig.getTopicName());
+          topicState.failRecordMapper(
+              tableConfig,
+              new RuntimeException(
+                  String.format("Table %s was dropped", tableConfig.getKeyspaceAndTable())));
+        }
+      }
+    }
+  }
+
+  private static void logRefreshFailure(TableConfig tableConfig, Throwable error) {
+    log.error(
+        "Could not refresh mapping of topic {} to table {} after a schema change, "
+            + "keeping the previous one",
+        tableConfig.getTopicName(),
+        tableConfig.getKeyspaceAndTable(),
+        error);
+  }
+
   @NonNull
   private static String getInsertUpdateStatement(TableConfig tableConfig, TableMetadata table) {
     // if user provides query explicitly it has priority over any connector specific query
@@ -684,13 +1081,18 @@ public class LifeCycleManager {
     metricRegistry = new MetricRegistry();
   }
 
+  /**
+   * @param connectionPoolSizer sets the size of the connection pools, if they are sized
+   *     automatically; its config is read again each time the driver reloads its config.
+   */
   @NonNull
   private static ProgrammaticDriverConfigLoaderBuilder dseProgrammaticBuilderWithFallback(
-      Config properties) {
+      Config properties, @Nullable ConnectionPoolSizer connectionPoolSizer) {
     ConfigFactory.invalidateCaches();
     return new DefaultProgrammaticDriverConfigLoaderBuilder(
         () ->
-            ConfigFactory.defaultApplication()
+            (connectionPoolSizer == null ? ConfigFactory.empty() : connectionPoolSizer.getConfig())
+                .withFallback(ConfigFactory.defaultApplication())
                 .withFallback(properties)
                 .withFallback(ConfigFactory.parseResourcesAnySyntax("dse-reference"))
                 .withFallback(ConfigFactory.defaultReference()),
@@ -0,0 +1,75 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.state;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.metadata.schema.SchemaChangeListenerBase;
+import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
+import com.datastax.oss.driver.api.core.type.UserDefinedType;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Rebuilds the record mappers of the tables whose schema changes while the connector is running, so
+ * that new columns can be written without restarting the tasks, and fails the record mappers of the
+ * tables that are dropped.
+ *
+ * <p>The session is created before the instance state, so schema changes are ignored until {@link
+ * #setInstanceState(InstanceState)} is called.
+ */
+class SchemaChangeHandler extends SchemaChangeListenerBase {
+  @Nullable private volatile InstanceState instanceState;
+
+  void setInstanceState(@NonNull InstanceState instanceState) {
+    this.instanceState = instanceState;
+  }
+
+  @Override
+  public void onTableCreated(@NonNull TableMetadata table) {
+    // The table may have been dropped and created again, which invalidates prepared statements.
+    refresh(table.getKeyspace(), table.getName());
+  }
+
+  @Override
+  public void onTableDropped(@NonNull TableMetadata table) {
+    InstanceState instanceState = this.instanceState;
+    if (instanceState != null) {
+      LifeCycleManager.failRecordMappers(instanceState, table.getKeyspace(), table.getName());
+    }
+  }
+
+  @Override
+  public void onTableUpdated(@NonNull TableMetadata current, @NonNull TableMetadata previous) {
+    // Option changes, e.g. compaction, don't affect the statements.
+    if (!current.getColumns().equals(previous.getColumns())) {
+      refresh(current.getKeyspace(), current.getName());
+    }
+  }
+
+  @Override
+  public void onUserDefinedTypeUpdated(
+      @NonNull UserDefinedType current, @NonNull UserDefinedType previous) {
+    // Any table of the keyspace may have a column of that type.
+    refresh(current.getKeyspace(), null);
+  }
+
+  private void refresh(CqlIdentifier keyspace, @Nullable CqlIdentifier table) {
+    InstanceState instanceState = this.instanceState;
+    if (instanceState != null) {
+      LifeCycleManager.refreshRecordMappers(instanceState, keyspace, table);
+    }
+  }
+}
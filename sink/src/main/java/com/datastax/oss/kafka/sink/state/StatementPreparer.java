@@ -0,0 +1,123 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.state;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares statements asynchronously, at most a given number at a time. With thousands of tables,
+ * preparing all of their statements at once would exceed the number of requests that the
+ * connections of the session accept, and fail them.
+ *
+ * <p>The driver caches prepared statements by query string, along with the metadata of their
+ * variables, e.g. the fields of the user types they bind, and doesn't invalidate them when the
+ * schema changes. Preparers created with a comment prepend it to each query, so that their prepares
+ * bypass the statements cached before.
+ *
+ * <p>This class is thread-safe.
+ */
+class StatementPreparer {
+  private final CqlSession session;
+  private final int maxConcurrentPrepares;
+  private final String queryPrefix;
+  private final Queue<Runnable> pending = new ArrayDeque<>();
+  private final AtomicInteger drainRequests = new AtomicInteger();
+  private int inFlight;
+
+  StatementPreparer(CqlSession session, int maxConcurrentPrepares) {
+    this(session, maxConcurrentPrepares, null);
+  }
+
+  /** @param comment the comment to prepend to each query, or null for none */
+  StatementPreparer(CqlSession session, int maxConcurrentPrepares, @Nullable String comment) {
+    this.session = session;
+    this.maxConcurrentPrepares = maxConcurrentPrepares;
+    this.queryPrefix = comment == null ? "" : String.format("/* %s */ ", comment);
+  }
+
+  CompletionStage<PreparedStatement> prepareAsync(String query) {
+    CompletableFuture<PreparedStatement> result = new CompletableFuture<>();
+    Runnable prepare =
+        () -> {
+          CompletionStage<PreparedStatement> future;
+          try {
+            future = session.prepareAsync(queryPrefix + query);
+          } catch (RuntimeException e) {
+            // Fail this prepare rather than the drain loop, and give its slot back below.
+            CompletableFuture<PreparedStatement> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            future = failed;
+          }
+          future.whenComplete(
+              (preparedStatement, error) -> {
+                if (error == null) {
+                  result.complete(preparedStatement);
+                } else {
+                  result.completeExceptionally(error);
+                }
+                synchronized (this) {
+                  inFlight--;
+                }
+                drain();
+              });
+        };
+    synchronized (this) {
+      pending.add(prepare);
+    }
+    drain();
+    return result;
+  }
+
+  /**
+   * Start the pending prepares while there is room for them. Prepares that complete right away call
+   * this again from within the loop, so only the outermost call loops, and the stack doesn't grow
+   * with the number of statements.
+   */
+  private void drain() {
+    if (drainRequests.getAndIncrement() != 0) {
+      return;
+    }
+    int requests = 1;
+    try {
+      do {
+        while (true) {
+          Runnable prepare;
+          synchronized (this) {
+            if (inFlight >= maxConcurrentPrepares || pending.isEmpty()) {
+              break;
+            }
+            inFlight++;
+            prepare = pending.poll();
+          }
+          prepare.run();
+        }
+        requests = drainRequests.addAndGet(-requests);
+      } while (requests != 0);
+    } finally {
+      // Should the loop throw anyway, let the next call loop instead of returning right away.
+      if (requests != 0) {
+        drainRequests.set(0);
+      }
+    }
+  }
+}
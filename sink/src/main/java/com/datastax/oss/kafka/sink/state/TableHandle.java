@@ -0,0 +1,235 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.state;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.datastax.oss.kafka.sink.RecordMapper;
+import com.datastax.oss.kafka.sink.config.TableConfig;
+import com.datastax.oss.kafka.sink.flow.CircuitBreaker;
+import com.datastax.oss.kafka.sink.flow.FairRequestScheduler.RequestQueue;
+import com.datastax.oss.kafka.sink.flow.KeyLanes;
+import com.datastax.oss.kafka.sink.flow.RateLimiter;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Everything the sink tasks need to write the records of one topic to one table, resolved once when
+ * the connector instance starts. Only the record mapper changes afterwards, when the schema of the
+ * table changes.
+ *
+ * <p>Handles are carried along with the statements they produce, so that processing a statement
+ * requires no lookup by topic or table name. There is exactly one handle per topic and table of an
+ * instance state, which is why handles can be compared, and used as map keys, by identity.
+ */
+public class TableHandle {
+  private final TableConfig tableConfig;
+  private volatile CompletableFuture<RecordMapper> recordMapper;
+  private final Histogram batchSizeHistogram;
+  private final Histogram batchSizeInBytesHistogram;
+  private final Histogram bisectionDepthHistogram;
+  private final Histogram freshnessHistogram;
+  private final Meter recordCounter;
+  private final Meter failedRecordCounter;
+  private final PipelineTimers timers;
+  private final RequestQueue requestQueue;
+  @Nullable private final CircuitBreaker circuitBreaker;
+  @Nullable private final RateLimiter rateLimiter;
+  @Nullable private final KeyLanes lanes;
+
+  TableHandle(
+      TableConfig tableConfig,
+      CompletableFuture<RecordMapper> recordMapper,
+      Histogram batchSizeHistogram,
+      Histogram batchSizeInBytesHistogram,
+      Histogram bisectionDepthHistogram,
+      Histogram freshnessHistogram,
+      Meter recordCounter,
+      Meter failedRecordCounter,
+      PipelineTimers timers,
+      RequestQueue requestQueue,
+      @Nullable CircuitBreaker circuitBreaker,
+      @Nullable RateLimiter rateLimiter,
+      @Nullable KeyLanes lanes) {
+    this.tableConfig = tableConfig;
+    this.recordMapper = recordMapper;
+    this.batchSizeHistogram = batchSizeHistogram;
+    this.batchSizeInBytesHistogram = batchSizeInBytesHistogram;
+    this.bisectionDepthHistogram = bisectionDepthHistogram;
+    this.freshnessHistogram = freshnessHistogram;
+    this.recordCounter = recordCounter;
+    this.failedRecordCounter = failedRecordCounter;
+    this.timers = timers;
+    this.requestQueue = requestQueue;
+    this.circuitBreaker = circuitBreaker;
+    this.rateLimiter = rateLimiter;
+    this.lanes = lanes;
+  }
+
+  @NonNull
+  public TableConfig getTableConfig() {
+    return tableConfig;
+  }
+
+  @NonNull
+  public String getTopicName() {
+    return tableConfig.getTopicName();
+  }
+
+  @NonNull
+  public String getKeyspaceAndTable() {
+    return tableConfig.getKeyspaceAndTable();
+  }
+
+  /**
+   * @return the record mapper of the table, waiting for its statements to be prepared if they are
+   *     prepared in the background; see {@link InstanceState#whenRecordMappersReady(String)} to
+   *     avoid waiting.
+   * @throws RuntimeException if the statements could not be prepared, until they are prepared again
+   */
+  @NonNull
+  public RecordMapper getRecordMapper() {
+    return join(recordMapper);
+  }
+
+  void setRecordMapper(CompletableFuture<RecordMapper> recordMapper) {
+    this.recordMapper = recordMapper;
+  }
+
+  @NonNull
+  public Histogram getBatchSizeHistogram() {
+    return batchSizeHistogram;
+  }
+
+  @NonNull
+  public Histogram getBatchSizeInBytesHistogram() {
+    return batchSizeInBytesHistogram;
+  }
+
+  @NonNull
+  public Histogram getBisectionDepthHistogram() {
+    return bisectionDepthHistogram;
+  }
+
+  /**
+   * @return the time between the Kafka timestamp of a record and the acknowledgement of its write
+   *     to the table, in milliseconds.
+   */
+  @NonNull
+  public Histogram getFreshnessHistogram() {
+    return freshnessHistogram;
+  }
+
+  @NonNull
+  public Meter getRecordCounter() {
+    return recordCounter;
+  }
+
+  @NonNull
+  public Meter getFailedRecordCounter() {
+    return failedRecordCounter;
+  }
+
+  /** @return the time it takes to map a record to a statement of the table. */
+  @NonNull
+  public Timer getMapLatencyTimer() {
+    return timers.mapLatency;
+  }
+
+  /**
+   * @return the time that mapped statements of the table wait for memory before they can be queued
+   *     for execution.
+   */
+  @NonNull
+  public Timer getEnqueueDelayTimer() {
+    return timers.enqueueDelay;
+  }
+
+  /** @return the time it takes the database to execute a request to the table. */
+  @NonNull
+  public Timer getExecuteLatencyTimer() {
+    return timers.executeLatency;
+  }
+
+  /**
+   * @return the time between the start of a put and the resolution of each request writing its
+   *     records to the table, whether they were written or not; requests writing the records of
+   *     several puts are timed once for each of them.
+   */
+  @NonNull
+  public Timer getEndToEndLatencyTimer() {
+    return timers.endToEndLatency;
+  }
+
+  @NonNull
+  public RequestQueue getRequestQueue() {
+    return requestQueue;
+  }
+
+  /** @return the circuit breaker of the table, or null if circuit breakers are disabled. */
+  @Nullable
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /** @return the rate limiter of the topic's writes to the table, or null if not limited. */
+  @Nullable
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /** @return the lanes ordering the writes to the table, or null if its order isn't preserved. */
+  @Nullable
+  public KeyLanes getLanes() {
+    return lanes;
+  }
+
+  /**
+   * The latency timers of the stages that a record goes through. The time that requests wait for
+   * the scheduler is recorded by the {@linkplain RequestQueue request queue}.
+   */
+  static class PipelineTimers {
+    private final Timer mapLatency;
+    private final Timer enqueueDelay;
+    private final Timer executeLatency;
+    private final Timer endToEndLatency;
+
+    PipelineTimers(
+        Timer mapLatency, Timer enqueueDelay, Timer executeLatency, Timer endToEndLatency) {
+      this.mapLatency = mapLatency;
+      this.enqueueDelay = enqueueDelay;
+      this.executeLatency = executeLatency;
+      this.endToEndLatency = endToEndLatency;
+    }
+  }
+
+  static RecordMapper join(CompletableFuture<RecordMapper> recordMapper) {
+    try {
+      return recordMapper.join();
+    } catch (CompletionException e) {
+      // The exception wraps an underlying runtime exception. Throw *that*.
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s.%s", getTopicName(), getKeyspaceAndTable());
+  }
+}
@@ -15,9 +15,11 @@
  */
 package com.datastax.oss.kafka.sink.state;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.datastax.oss.driver.api.core.CqlIdentifier;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.shaded.guava.common.annotations.VisibleForTesting;
@@ -25,10 +27,19 @@ import com.datastax.oss.dsbulk.codecs.api.ConvertingCodecFactory;
 import com.datastax.oss.kafka.sink.Mapping;
 import com.datastax.oss.kafka.sink.RecordMapper;
 import com.datastax.oss.kafka.sink.config.TableConfig;
+import com.datastax.oss.kafka.sink.flow.CircuitBreaker;
+import com.datastax.oss.kafka.sink.flow.FairRequestScheduler.RequestQueue;
+import com.datastax.oss.kafka.sink.flow.KeyLanes;
+import com.datastax.oss.kafka.sink.flow.RateLimiter;
+import com.datastax.oss.kafka.sink.metrics.HdrReservoir;
 import com.datastax.oss.kafka.sink.metrics.MetricNamesCreator;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -39,48 +50,151 @@ import java.util.stream.Collectors;
  */
 class TopicState {
   private final ConvertingCodecFactory codecFactory;
-  private final Map<TableConfig, RecordMapper> recordMappers;
+  private final Map<TableConfig, CompletableFuture<RecordMapper>> recordMappers;
   private Map<String, Histogram> batchSizeHistograms;
   private Map<String, Meter> recordCounters;
   private Map<String, Meter> failedRecordCounters;
   private Map<String, Histogram> batchSizeInBytesHistograms;
+  private Map<String, Histogram> bisectionDepthHistograms;
+  private Map<String, Histogram> freshnessHistograms;
+  private Map<String, TableHandle.PipelineTimers> pipelineTimers;
+  private Map<String, CircuitBreaker> circuitBreakers = Collections.emptyMap();
+  private Map<String, RequestQueue> requestQueues;
+  private Map<String, RateLimiter> rateLimiters = Collections.emptyMap();
+  private volatile List<TableHandle> tableHandles;
 
   TopicState(ConvertingCodecFactory codecFactory) {
     this.codecFactory = codecFactory;
     recordMappers = new ConcurrentHashMap<>();
   }
 
+  /**
+   * Register the given table, whose record mapper is only created once its statements are prepared.
+   */
+  void addTable(TableConfig tableConfig) {
+    recordMappers.computeIfAbsent(tableConfig, t -> new CompletableFuture<>());
+  }
+
   void createRecordMapper(
       TableConfig tableConfig,
       List<CqlIdentifier> primaryKey,
       PreparedStatement insertUpdateStatement,
-      PreparedStatement deleteStatement) {
-    recordMappers.putIfAbsent(
+      PreparedStatement deleteStatement,
+      boolean idempotentInsertUpdate) {
+    setRecordMapper(
         tableConfig,
-        new RecordMapper(
+        newRecordMapper(
+            tableConfig,
+            primaryKey,
             insertUpdateStatement,
             deleteStatement,
-            primaryKey,
-            new Mapping(tableConfig.getMapping(), codecFactory),
-            true,
-            false,
-            tableConfig));
+            idempotentInsertUpdate));
+  }
+
+  @NonNull
+  RecordMapper newRecordMapper(
+      TableConfig tableConfig,
+      List<CqlIdentifier> primaryKey,
+      PreparedStatement insertUpdateStatement,
+      PreparedStatement deleteStatement,
+      boolean idempotentInsertUpdate) {
+    return new RecordMapper(
+        insertUpdateStatement,
+        deleteStatement,
+        idempotentInsertUpdate,
+        primaryKey,
+        new Mapping(tableConfig.getMapping(), codecFactory),
+        true,
+        false,
+        tableConfig);
+  }
+
+  /**
+   * Set the record mapper of the given table. If the table already had one, e.g. because its schema
+   * changed, the new mapper replaces it atomically: records being mapped keep using the previous
+   * one, and so do their statements until they are written.
+   */
+  void setRecordMapper(TableConfig tableConfig, RecordMapper recordMapper) {
+    addTable(tableConfig);
+    if (!recordMappers.get(tableConfig).complete(recordMapper)) {
+      replaceRecordMapper(tableConfig, CompletableFuture.completedFuture(recordMapper));
+    }
+  }
+
+  /**
+   * Record that the statements of the given table could not be prepared, or that the table was
+   * dropped. In the latter case, the error replaces the mapper of the table until a new one is set.
+   */
+  void failRecordMapper(TableConfig tableConfig, RuntimeException error) {
+    addTable(tableConfig);
+    if (!recordMappers.get(tableConfig).completeExceptionally(error)) {
+      CompletableFuture<RecordMapper> replacement = new CompletableFuture<>();
+      replacement.completeExceptionally(error);
+      replaceRecordMapper(tableConfig, replacement);
+    }
+  }
+
+  private void replaceRecordMapper(
+      TableConfig tableConfig, CompletableFuture<RecordMapper> replacement) {
+    recordMappers.put(tableConfig, replacement);
+    // Handles that are not created yet pick up the replacement from the map.
+    if (tableHandles != null) {
+      for (TableHandle tableHandle : tableHandles) {
+        if (tableHandle.getTableConfig() == tableConfig) {
+          tableHandle.setRecordMapper(replacement);
+        }
+      }
+    }
   }
 
   void initializeMetrics(MetricRegistry metricRegistry) {
+    // Record values in HdrHistogram reservoirs: the default reservoirs lock on each update.
+    Function<String, Histogram> histogram =
+        name -> metricRegistry.histogram(name, HdrReservoir::newHistogram);
+    Function<String, Timer> timer = name -> metricRegistry.timer(name, HdrReservoir::newTimer);
+
     // Add batch size histograms for all topic-tables.
     batchSizeHistograms =
-        constructMetrics(
-            recordMappers,
-            MetricNamesCreator::createBatchSizeMetricName,
-            metricRegistry::histogram);
+        constructMetrics(recordMappers, MetricNamesCreator::createBatchSizeMetricName, histogram);
 
     // Add batch size in bytes histograms for all topic-tables.
     batchSizeInBytesHistograms =
+        constructMetrics(
+            recordMappers, MetricNamesCreator::createBatchSizeInBytesMetricName, histogram);
+
+    // Add bisection depth histograms for all topic-tables.
+    bisectionDepthHistograms =
+        constructMetrics(
+            recordMappers, MetricNamesCreator::createBisectionDepthMetricName, histogram);
+
+    // Add freshness histograms for all topic-tables.
+    freshnessHistograms =
+        constructMetrics(recordMappers, MetricNamesCreator::createFreshnessMetricName, histogram);
+
+    // Add the latency timers of each stage of the pipeline for all topic-tables.
+    pipelineTimers =
         constructMetrics(
             recordMappers,
-            MetricNamesCreator::createBatchSizeInBytesMetricName,
-            metricRegistry::histogram);
+            t ->
+                new TableHandle.PipelineTimers(
+                    timer.apply(MetricNamesCreator.createMapLatencyMetricName(t)),
+                    timer.apply(MetricNamesCreator.createEnqueueDelayMetricName(t)),
+                    timer.apply(MetricNamesCreator.createExecuteLatencyMetricName(t)),
+                    timer.apply(MetricNamesCreator.createEndToEndLatencyMetricName(t))));
+
+    // Add request queues, and their queueing delay timers, for all topic-tables.
+    Map<String, Timer> queueingDelayTimers =
+        constructMetrics(recordMappers, MetricNamesCreator::createQueueingDelayMetricName, timer);
+    requestQueues =
+        recordMappers
+            .keySet()
+            .stream()
+            .collect(
+                Collectors.toMap(
+                    TableConfig::getKeyspaceAndTable,
+                    t ->
+                        new RequestQueue(
+                            t.getWeight(), queueingDelayTimers.get(t.getKeyspaceAndTable()))));
 
     // Add recordCounters for all topic-tables.
     recordCounters =
@@ -95,18 +209,73 @@ class TopicState {
             metricRegistry::meter);
   }
 
+  void initializeCircuitBreakers(
+      Function<TableConfig, CircuitBreaker> circuitBreakerFactory, MetricRegistry metricRegistry) {
+    Map<String, CircuitBreaker> breakers = new HashMap<>();
+    for (TableConfig tableConfig : recordMappers.keySet()) {
+      CircuitBreaker circuitBreaker = circuitBreakerFactory.apply(tableConfig);
+      breakers.put(tableConfig.getKeyspaceAndTable(), circuitBreaker);
+      // The registry outlives instance states, replace any gauge left by a previous one.
+      String name = MetricNamesCreator.createCircuitBreakerStateMetricName(tableConfig);
+      metricRegistry.remove(name);
+      metricRegistry.register(name, (Gauge<String>) () -> circuitBreaker.getState().name());
+    }
+    circuitBreakers = breakers;
+  }
+
+  void initializeRateLimiters(Function<TableConfig, RateLimiter> rateLimiterFactory) {
+    rateLimiters =
+        recordMappers
+            .keySet()
+            .stream()
+            .filter(TableConfig::isRateLimited)
+            .collect(Collectors.toMap(TableConfig::getKeyspaceAndTable, rateLimiterFactory));
+  }
+
+  /**
+   * Resolve the handles of all topic-tables; must be called once all other per-table state is
+   * initialized.
+   */
+  void initializeTableHandles() {
+    tableHandles =
+        recordMappers
+            .entrySet()
+            .stream()
+            .map(
+                entry -> {
+                  String keyspaceAndTable = entry.getKey().getKeyspaceAndTable();
+                  return new TableHandle(
+                      entry.getKey(),
+                      entry.getValue(),
+                      batchSizeHistograms.get(keyspaceAndTable),
+                      batchSizeInBytesHistograms.get(keyspaceAndTable),
+                      bisectionDepthHistograms.get(keyspaceAndTable),
+                      freshnessHistograms.get(keyspaceAndTable),
+                      recordCounters.get(keyspaceAndTable),
+                      failedRecordCounters.get(keyspaceAndTable),
+                      pipelineTimers.get(keyspaceAndTable),
+                      requestQueues.get(keyspaceAndTable),
+                      circuitBreakers.get(keyspaceAndTable),
+                      rateLimiters.get(keyspaceAndTable),
+                      entry.getKey().isPreserveOrder() ? new KeyLanes() : null);
+                })
+            .collect(Collectors.toList());
+  }
+
   private <T> Map<String, T> constructMetrics(
-      Map<TableConfig, RecordMapper> recordMappers,
+      Map<TableConfig, CompletableFuture<RecordMapper>> recordMappers,
       Function<TableConfig, String> metricNameCreator,
       Function<String, T> metricCreator) {
+    return constructMetrics(recordMappers, t -> metricCreator.apply(metricNameCreator.apply(t)));
+  }
 
+  private <T> Map<String, T> constructMetrics(
+      Map<TableConfig, CompletableFuture<RecordMapper>> recordMappers,
+      Function<TableConfig, T> metricsCreator) {
     return recordMappers
         .keySet()
         .stream()
-        .collect(
-            Collectors.toMap(
-                TableConfig::getKeyspaceAndTable,
-                t -> metricCreator.apply(metricNameCreator.apply(t))));
+        .collect(Collectors.toMap(TableConfig::getKeyspaceAndTable, metricsCreator));
   }
 
   @NonNull
@@ -119,14 +288,6 @@ class TopicState {
     return batchSizeInBytesHistograms.get(keyspaceAndTable);
   }
 
-  void incrementRecordCount(String keyspaceAndTable, int incrementBy) {
-    recordCounters.get(keyspaceAndTable).mark(incrementBy);
-  }
-
-  void incrementFailedCounter(String keyspaceAndTable) {
-    failedRecordCounters.get(keyspaceAndTable).mark();
-  }
-
   @VisibleForTesting
   Meter getRecordCountMeter(String keyspaceAndTable) {
     return recordCounters.get(keyspaceAndTable);
@@ -137,8 +298,34 @@ class TopicState {
     return failedRecordCounters.get(keyspaceAndTable);
   }
 
+  @NonNull
+  Collection<CircuitBreaker> getCircuitBreakers() {
+    return circuitBreakers.values();
+  }
+
+  @NonNull
+  Collection<RateLimiter> getRateLimiters() {
+    return rateLimiters.values();
+  }
+
+  @NonNull
+  List<TableHandle> getTableHandles() {
+    return tableHandles;
+  }
+
+  /**
+   * @return a future that completes once the statements of all tables of the topic were prepared,
+   *     or could not be; it never completes exceptionally.
+   */
+  @NonNull
+  CompletableFuture<Void> whenRecordMappersReady() {
+    return CompletableFuture.allOf(recordMappers.values().toArray(new CompletableFuture[0]))
+        .handle((v, e) -> null);
+  }
+
+  /** @return the record mapper of the given table, waiting for its statements to be prepared. */
   @NonNull
   RecordMapper getRecordMapper(TableConfig tableConfig) {
-    return recordMappers.get(tableConfig);
+    return TableHandle.join(recordMappers.get(tableConfig));
   }
 }
@@ -16,30 +16,82 @@
 package com.datastax.oss.kafka.sink;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import com.datastax.oss.driver.api.core.ProtocolVersion;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.datastax.dse.driver.api.core.cql.reactive.ReactiveResultSet;
+import com.datastax.dse.driver.api.core.cql.reactive.ReactiveRow;
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.AsyncResultSet;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
 import com.datastax.oss.driver.api.core.cql.BoundStatement;
-import com.datastax.oss.driver.api.core.type.codec.registry.CodecRegistry;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.datastax.oss.driver.api.core.metadata.Metadata;
+import com.datastax.oss.driver.api.core.metadata.Node;
+import com.datastax.oss.driver.api.core.metadata.TokenMap;
+import com.datastax.oss.driver.api.core.servererrors.InvalidQueryException;
+import com.datastax.oss.driver.api.core.servererrors.UnauthorizedException;
+import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableSet;
+import com.datastax.oss.driver.shaded.guava.common.collect.Iterables;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.BatchGrouping;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.ExecutionEngine;
+import com.datastax.oss.kafka.sink.config.TableConfig;
+import com.datastax.oss.kafka.sink.flow.CircuitBreaker;
+import com.datastax.oss.kafka.sink.flow.FairRequestScheduler;
+import com.datastax.oss.kafka.sink.flow.FairRequestScheduler.RequestQueue;
+import com.datastax.oss.kafka.sink.flow.InFlightRequests;
+import com.datastax.oss.kafka.sink.flow.KeyLanes;
+import com.datastax.oss.kafka.sink.flow.MemoryBudget;
 import com.datastax.oss.kafka.sink.record.RecordAndStatement;
 import com.datastax.oss.kafka.sink.state.InstanceState;
+import com.datastax.oss.kafka.sink.state.TableHandle;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
 
 class BoundStatementProcessorTest {
+  private final Map<String, TableHandle> tables = new HashMap<>();
+
+  /** The put that the statements belong to, of the task last created by the test. */
+  private PutTracker put;
 
   @Test
   void should_categorize_statement_in_statement_group() {
@@ -49,16 +101,18 @@ class BoundStatementProcessorTest {
     when(bs1.getRoutingKey()).thenReturn(routingKey);
 
     SinkRecord record1 = new SinkRecord("mytopic", 0, null, null, null, "value", 1234L);
-    RecordAndStatement recordAndStatement1 = new RecordAndStatement(record1, "ks.mytable", bs1);
+    RecordAndStatement recordAndStatement1 =
+        recordAndStatement(record1, table("mytopic", "ks", "mytable"), bs1, 0);
 
     SinkRecord record2 = new SinkRecord("yourtopic", 0, null, null, null, "value", 1234L);
-    RecordAndStatement recordAndStatement2 = new RecordAndStatement(record2, "ks.mytable", bs1);
+    RecordAndStatement recordAndStatement2 =
+        recordAndStatement(record2, table("yourtopic", "ks", "mytable"), bs1, 0);
 
-    Map<String, Map<ByteBuffer, List<RecordAndStatement>>> statementGroups = new HashMap<>();
+    Map<TableHandle, Map<Object, List<RecordAndStatement>>> statementGroups = new HashMap<>();
 
     // We don't care about the args to the constructor for this test.
     BoundStatementProcessor statementProcessor =
-        new BoundStatementProcessor(mockCassandraSinkTask(), null, null, 32);
+        new BoundStatementProcessor(mockCassandraSinkTask().getInstanceState(), null, 32);
 
     // Categorize the two statements. Although they refer to the same ks/table and have the
     // same routing key, they should be in different buckets.
@@ -70,15 +124,15 @@ class BoundStatementProcessorTest {
     assertThat(result1.size()).isEqualTo(1);
     assertThat(result1.get(0)).isSameAs(recordAndStatement1);
     assertThat(statementGroups.size()).isEqualTo(2);
-    assertThat(statementGroups.containsKey("mytopic.ks.mytable")).isTrue();
-    Map<ByteBuffer, List<RecordAndStatement>> batchGroups =
-        statementGroups.get("mytopic.ks.mytable");
+    assertThat(statementGroups.containsKey(recordAndStatement1.getTable())).isTrue();
+    Map<Object, List<RecordAndStatement>> batchGroups =
+        statementGroups.get(recordAndStatement1.getTable());
     assertThat(batchGroups.size()).isEqualTo(1);
     assertThat(batchGroups.containsKey(routingKey)).isTrue();
     List<RecordAndStatement> batchGroup = batchGroups.get(routingKey);
     assertThat(batchGroup).isSameAs(result1);
 
-    batchGroups = statementGroups.get("yourtopic.ks.mytable");
+    batchGroups = statementGroups.get(recordAndStatement2.getTable());
     assertThat(batchGroups.size()).isEqualTo(1);
     assertThat(batchGroups.containsKey(routingKey)).isTrue();
     batchGroup = batchGroups.get(routingKey);
@@ -97,9 +151,8 @@ class BoundStatementProcessorTest {
     BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
     BoundStatementProcessor statementProcessor =
         new BoundStatementProcessor(
-            mockCassandraSinkTask(),
+            mockCassandraSinkTask().getInstanceState(),
             recordAndStatements,
-            new ArrayList<>(),
             maxNumberOfRecordsInBatch);
     List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
     // we need to copy the batch into a new list since the original one may be cleared after
@@ -115,7 +168,8 @@ class BoundStatementProcessorTest {
                 SinkRecord record = new SinkRecord("mytopic", i, null, null, null, i, i);
                 BoundStatement statement = mock(BoundStatement.class);
                 when(statement.getRoutingKey()).thenReturn(routingKey);
-                recordAndStatements.add(new RecordAndStatement(record, "ks.tb", statement));
+                recordAndStatements.add(
+                    recordAndStatement(record, table("mytopic", "ks", "tb"), statement, 0));
               }
               statementProcessor.stop();
             });
@@ -148,7 +202,7 @@ class BoundStatementProcessorTest {
     BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
     BoundStatementProcessor statementProcessor =
         new BoundStatementProcessor(
-            mockCassandraSinkTask(), recordAndStatements, new ArrayList<>(), 3);
+            mockCassandraSinkTask().getInstanceState(), recordAndStatements, 3);
     List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
     // we need to copy the batch into a new list since the original one may be cleared after
     Consumer<List<RecordAndStatement>> mockConsumer = e -> actualBatches.add(new ArrayList<>(e));
@@ -207,6 +261,165 @@ class BoundStatementProcessorTest {
     assertThat(actualBatches.get(1).size()).isEqualTo(1);
   }
 
+  @Test
+  void should_group_batch_by_replica_set() throws InterruptedException {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    InstanceState instanceState = sinkTask.getInstanceState();
+    CqlSession session = mock(CqlSession.class);
+    Metadata metadata = mock(Metadata.class);
+    TokenMap tokenMap = mock(TokenMap.class);
+    when(instanceState.getBatchGrouping()).thenReturn(BatchGrouping.REPLICA_SET);
+    when(instanceState.getSession()).thenReturn(session);
+    when(session.getMetadata()).thenReturn(metadata);
+    when(metadata.getTokenMap()).thenReturn(Optional.of(tokenMap));
+    CqlIdentifier keyspace = CqlIdentifier.fromInternal("keyspace1");
+    Node node1 = mock(Node.class);
+    Node node2 = mock(Node.class);
+    ByteBuffer key1 = ByteBuffer.wrap(new byte[] {1});
+    ByteBuffer key2 = ByteBuffer.wrap(new byte[] {2});
+    ByteBuffer key3 = ByteBuffer.wrap(new byte[] {3});
+    when(tokenMap.getReplicas(keyspace, key1)).thenReturn(ImmutableSet.of(node1, node2));
+    when(tokenMap.getReplicas(keyspace, key2)).thenReturn(ImmutableSet.of(node2, node1));
+    when(tokenMap.getReplicas(keyspace, key3)).thenReturn(ImmutableSet.of(node2));
+
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(instanceState, recordAndStatements, 3);
+    List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
+    Consumer<List<RecordAndStatement>> mockConsumer = e -> actualBatches.add(new ArrayList<>(e));
+    for (ByteBuffer key : Arrays.asList(key1, key2, key3)) {
+      SinkRecord record = new SinkRecord("topic1", 0, null, null, null, key.get(0), 1234);
+      BoundStatement statement = mock(BoundStatement.class);
+      when(statement.getRoutingKey()).thenReturn(key);
+      recordAndStatements.add(
+          recordAndStatement(record, table("topic1", "keyspace1", "table1"), statement, 0));
+    }
+
+    // when
+    statementProcessor.stop();
+    statementProcessor.runLoop(mockConsumer);
+
+    // then
+    // partitions 1 and 2 have different routing keys but the same replicas
+    assertThat(actualBatches).hasSize(2);
+    assertThat(actualBatches)
+        .anySatisfy(
+            batch ->
+                assertThat(batch)
+                    .extracting(recordAndStatement -> recordAndStatement.getRecord().value())
+                    .containsExactly((byte) 1, (byte) 2));
+    assertThat(actualBatches)
+        .anySatisfy(
+            batch ->
+                assertThat(batch)
+                    .extracting(recordAndStatement -> recordAndStatement.getRecord().value())
+                    .containsExactly((byte) 3));
+  }
+
+  @Test
+  void should_group_batch_by_partition_when_preserving_order_with_replica_set_grouping()
+      throws InterruptedException {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    InstanceState instanceState = sinkTask.getInstanceState();
+    CqlSession session = mock(CqlSession.class);
+    Metadata metadata = mock(Metadata.class);
+    TokenMap tokenMap = mock(TokenMap.class);
+    when(instanceState.getBatchGrouping()).thenReturn(BatchGrouping.REPLICA_SET);
+    when(instanceState.getSession()).thenReturn(session);
+    when(session.getMetadata()).thenReturn(metadata);
+    when(metadata.getTokenMap()).thenReturn(Optional.of(tokenMap));
+    when(table("topic1", "keyspace1", "table1").getLanes()).thenReturn(new KeyLanes());
+    CqlIdentifier keyspace = CqlIdentifier.fromInternal("keyspace1");
+    Node node1 = mock(Node.class);
+    ByteBuffer key1 = ByteBuffer.wrap(new byte[] {1});
+    ByteBuffer key2 = ByteBuffer.wrap(new byte[] {2});
+    when(tokenMap.getReplicas(keyspace, key1)).thenReturn(ImmutableSet.of(node1));
+    when(tokenMap.getReplicas(keyspace, key2)).thenReturn(ImmutableSet.of(node1));
+
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(instanceState, recordAndStatements, 3);
+    List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
+    Consumer<List<RecordAndStatement>> mockConsumer = e -> actualBatches.add(new ArrayList<>(e));
+    for (ByteBuffer key : Arrays.asList(key1, key2, key1)) {
+      SinkRecord record = new SinkRecord("topic1", 0, null, null, null, key.get(0), 1234);
+      BoundStatement statement = mock(BoundStatement.class);
+      when(statement.getRoutingKey()).thenReturn(key);
+      recordAndStatements.add(
+          recordAndStatement(record, table("topic1", "keyspace1", "table1"), statement, 0));
+    }
+
+    // when
+    statementProcessor.stop();
+    statementProcessor.runLoop(mockConsumer);
+
+    // then
+    // both partitions have the same replicas, but each request must only write to one partition so
+    // that it is ordered by the lane of that partition only
+    assertThat(actualBatches).hasSize(2);
+    assertThat(actualBatches)
+        .anySatisfy(
+            batch ->
+                assertThat(batch)
+                    .extracting(recordAndStatement -> recordAndStatement.getRecord().value())
+                    .containsExactly((byte) 1, (byte) 1));
+    assertThat(actualBatches)
+        .anySatisfy(
+            batch ->
+                assertThat(batch)
+                    .extracting(recordAndStatement -> recordAndStatement.getRecord().value())
+                    .containsExactly((byte) 2));
+  }
+
+  @Test
+  void should_redeliver_pending_and_queued_statements_of_puts_when_processing_fails()
+      throws Exception {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(sinkTask.getInstanceState(), recordAndStatements, 2);
+    Consumer<List<RecordAndStatement>> failingConsumer =
+        e -> {
+          throw new IllegalStateException("boom");
+        };
+    ByteBuffer routingKey1 = ByteBuffer.wrap(new byte[] {1});
+    ByteBuffer routingKey2 = ByteBuffer.wrap(new byte[] {2});
+    // the third statement fills up the batch of the first one, whose execution then fails
+    for (ByteBuffer routingKey : Arrays.asList(routingKey1, routingKey2, routingKey1)) {
+      recordAndStatements.add(
+          recordAndStatement(
+              table("mytopic", "ks", "tb"), routingKey, 1234 + recordAndStatements.size(), put));
+    }
+
+    // when
+    Throwable error = catchThrowable(() -> statementProcessor.runLoop(failingConsumer));
+
+    // then
+    assertThat(error).isInstanceOf(IllegalStateException.class);
+    TopicPartition topicPartition = new TopicPartition("mytopic", 0);
+    verify(sinkTask).retryLater(topicPartition, 1234);
+    verify(sinkTask).retryLater(topicPartition, 1235);
+    verify(sinkTask).retryLater(topicPartition, 1236);
+
+    // when
+    // the loop runs again while the put still has statements queued
+    recordAndStatements.add(
+        recordAndStatement(table("mytopic", "ks", "tb"), routingKey2, 1237, put));
+    statementProcessor.endPut(put);
+    statementProcessor.stop();
+    List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
+    statementProcessor.runLoop(actualBatches::add);
+
+    // then
+    // the rest of the statements of the put are redelivered rather than executed
+    assertThat(actualBatches).isEmpty();
+    verify(sinkTask).retryLater(topicPartition, 1237);
+    assertTimeoutPreemptively(Duration.ofSeconds(1), put::awaitFlushed);
+  }
+
   @Test
   void should_create_two_batches_for_the_same_dse_tables_but_different_input_topics()
       throws InterruptedException {
@@ -214,7 +427,7 @@ class BoundStatementProcessorTest {
     BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
     BoundStatementProcessor statementProcessor =
         new BoundStatementProcessor(
-            mockCassandraSinkTask(), recordAndStatements, new ArrayList<>(), 3);
+            mockCassandraSinkTask().getInstanceState(), recordAndStatements, 3);
     List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
     // we need to copy the batch into a new list since the original one may be cleared after
     Consumer<List<RecordAndStatement>> mockConsumer = e -> actualBatches.add(new ArrayList<>(e));
@@ -280,7 +493,7 @@ class BoundStatementProcessorTest {
     BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
     BoundStatementProcessor statementProcessor =
         new BoundStatementProcessor(
-            mockCassandraSinkTask(), recordAndStatements, new ArrayList<>(), 2);
+            mockCassandraSinkTask().getInstanceState(), recordAndStatements, 2);
     List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
     // we need to copy the batch into a new list since the original one may be cleared after
     Consumer<List<RecordAndStatement>> mockConsumer = e -> actualBatches.add(new ArrayList<>(e));
@@ -331,6 +544,488 @@ class BoundStatementProcessorTest {
     assertThat(actualBatches.get(1).size()).isEqualTo(1);
   }
 
+  @Test
+  void should_bisect_rejected_batch_and_fail_only_offending_statement() throws Exception {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    InstanceState instanceState = sinkTask.getInstanceState();
+    CqlSession session = mock(CqlSession.class);
+    Histogram bisectionDepthHistogram = new Histogram(new UniformReservoir());
+    when(instanceState.getSession()).thenReturn(session);
+    when(instanceState.getRequestScheduler())
+        .thenReturn(new FairRequestScheduler(1, 4, System::nanoTime));
+    when(instanceState.isBisectFailedBatches()).thenReturn(true);
+    when(table("mytopic", "ks", "tb").getBisectionDepthHistogram())
+        .thenReturn(bisectionDepthHistogram);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(preparedStatement.getQuery()).thenReturn("INSERT INTO ks.tb (a) VALUES (:a)");
+    when(preparedStatement.getVariableDefinitions()).thenReturn(mock(ColumnDefinitions.class));
+
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    InFlightRequests inFlightRequests = put.getInFlightRequests();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(instanceState, recordAndStatements, 4);
+    ByteBuffer routingKey = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    List<BoundStatement> statements = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      SinkRecord record = new SinkRecord("mytopic", 0, null, null, null, i, i);
+      BoundStatement statement = mock(BoundStatement.class);
+      when(statement.getRoutingKey()).thenReturn(routingKey);
+      when(statement.getPreparedStatement()).thenReturn(preparedStatement);
+      statements.add(statement);
+      recordAndStatements.add(
+          recordAndStatement(record, table("mytopic", "ks", "tb"), statement, 0));
+    }
+    BoundStatement poison = statements.get(2);
+    when(session.executeAsync(any(Statement.class)))
+        .thenAnswer(
+            invocation -> {
+              Statement<?> statement = invocation.getArgument(0);
+              boolean containsPoison =
+                  statement == poison
+                      || (statement instanceof BatchStatement
+                          && Iterables.contains((BatchStatement) statement, poison));
+              CompletableFuture<AsyncResultSet> future = new CompletableFuture<>();
+              if (containsPoison) {
+                future.completeExceptionally(new InvalidQueryException(null, "poison"));
+              } else {
+                future.complete(mock(AsyncResultSet.class));
+              }
+              return future;
+            });
+
+    // when
+    statementProcessor.stop();
+    statementProcessor.call();
+    inFlightRequests.close();
+    inFlightRequests.whenDone().get();
+
+    // then
+    // the batch of 4 is split in [0, 1] and [2, 3], then [2, 3] is split in [2] and [3]
+    verify(session, times(5)).executeAsync(any(Statement.class));
+    verify(sinkTask)
+        .handleFailure(
+            argThat((RecordAndStatement failed) -> failed.getOffset() == 2),
+            any(InvalidQueryException.class),
+            eq("INSERT INTO ks.tb (a) VALUES (:a)"),
+            any(),
+            any(Runnable.class));
+    verify(sinkTask, times(1))
+        .handleFailure(any(RecordAndStatement.class), any(), any(), any(), any());
+    assertThat(put.getSuccessfulRecordCount()).isEqualTo(3);
+    // [0, 1] succeeds after one split, [2] fails and [3] succeeds after two
+    assertThat(bisectionDepthHistogram.getSnapshot().getValues()).containsExactly(1, 2, 2);
+    // every request is timed, and the batch is timed once end to end for its put
+    assertThat(table("mytopic", "ks", "tb").getExecuteLatencyTimer().getCount()).isEqualTo(5);
+    assertThat(table("mytopic", "ks", "tb").getEndToEndLatencyTimer().getCount()).isEqualTo(1);
+  }
+
+  @ParameterizedTest(name = "[{index}] statements={0}, batch={1}")
+  @MethodSource("idempotenceOfBatches")
+  void should_mark_batch_idempotent_only_if_all_of_its_statements_are(
+      List<Boolean> statementIdempotence, Boolean expectedBatchIdempotence) {
+    // given
+    List<RecordAndStatement> statements = new ArrayList<>();
+    for (Boolean idempotent : statementIdempotence) {
+      SinkRecord record = new SinkRecord("mytopic", 0, null, null, null, "value", 1234L);
+      BoundStatement statement = mock(BoundStatement.class);
+      when(statement.isIdempotent()).thenReturn(idempotent);
+      statements.add(recordAndStatement(record, table("mytopic", "ks", "tb"), statement, 0));
+    }
+
+    // when
+    Statement<?> batch = BoundStatementProcessor.toStatement(statements);
+
+    // then
+    assertThat(batch).isInstanceOf(BatchStatement.class);
+    assertThat(batch.isIdempotent()).isEqualTo(expectedBatchIdempotence);
+  }
+
+  private static Stream<Arguments> idempotenceOfBatches() {
+    return Stream.of(
+        Arguments.of(Arrays.asList(true, true), true),
+        Arguments.of(Arrays.asList(true, null), null),
+        Arguments.of(Arrays.asList(true, false), false),
+        Arguments.of(Arrays.asList(null, false), false));
+  }
+
+  @ParameterizedTest(name = "[{index}] maxNumberOfRecordsInBatch={0} -> {1}")
+  @CsvSource({"1, 0", "2, 1", "3, 2", "4, 2", "32, 5", "33, 6", "1000, 10"})
+  void should_bisect_largest_batch_down_to_single_statements(
+      int maxNumberOfRecordsInBatch, int expectedDepth) {
+    assertThat(BoundStatementProcessor.computeMaxBisectionDepth(maxNumberOfRecordsInBatch))
+        .isEqualTo(expectedDepth);
+  }
+
+  @ParameterizedTest(name = "[{index}] error={0}, expectedRequests={1}")
+  @MethodSource("batchWideErrors")
+  void should_bisect_batch_down_to_single_statements_unless_rejected_as_a_whole(
+      Throwable error, int expectedRequests, int expectedDepth) throws Exception {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    InstanceState instanceState = sinkTask.getInstanceState();
+    CqlSession session = mock(CqlSession.class);
+    Histogram bisectionDepthHistogram = new Histogram(new UniformReservoir());
+    when(instanceState.getSession()).thenReturn(session);
+    when(instanceState.getRequestScheduler())
+        .thenReturn(new FairRequestScheduler(1, 32, System::nanoTime));
+    when(instanceState.isBisectFailedBatches()).thenReturn(true);
+    when(table("mytopic", "ks", "tb").getBisectionDepthHistogram())
+        .thenReturn(bisectionDepthHistogram);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(preparedStatement.getQuery()).thenReturn("INSERT INTO ks.tb (a) VALUES (:a)");
+    when(preparedStatement.getVariableDefinitions()).thenReturn(mock(ColumnDefinitions.class));
+    CompletableFuture<AsyncResultSet> failed = new CompletableFuture<>();
+    failed.completeExceptionally(error);
+    when(session.executeAsync(any(Statement.class))).thenReturn(failed);
+
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    InFlightRequests inFlightRequests = put.getInFlightRequests();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(instanceState, recordAndStatements, 32);
+    ByteBuffer routingKey = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    for (int i = 0; i < 32; i++) {
+      SinkRecord record = new SinkRecord("mytopic", 0, null, null, null, i, i);
+      BoundStatement statement = mock(BoundStatement.class);
+      when(statement.getRoutingKey()).thenReturn(routingKey);
+      when(statement.getPreparedStatement()).thenReturn(preparedStatement);
+      recordAndStatements.add(
+          recordAndStatement(record, table("mytopic", "ks", "tb"), statement, 0));
+    }
+
+    // when
+    statementProcessor.stop();
+    statementProcessor.call();
+    inFlightRequests.close();
+    inFlightRequests.whenDone().get();
+
+    // then
+    verify(session, times(expectedRequests)).executeAsync(any(Statement.class));
+    verify(sinkTask, times(32))
+        .handleFailure(any(RecordAndStatement.class), eq(error), any(), any(), any());
+    assertThat(put.getSuccessfulRecordCount()).isZero();
+    if (expectedDepth == 0) {
+      assertThat(bisectionDepthHistogram.getCount()).isZero();
+    } else {
+      assertThat(bisectionDepthHistogram.getSnapshot().getValues())
+          .containsOnly(expectedDepth)
+          .hasSize(1 << expectedDepth);
+    }
+  }
+
+  @Test
+  void should_reject_statements_of_table_with_open_circuit_breaker() throws Exception {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    InstanceState instanceState = sinkTask.getInstanceState();
+    CqlSession session = mock(CqlSession.class);
+    CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+    when(circuitBreaker.tryAcquire()).thenReturn(false);
+    when(instanceState.getSession()).thenReturn(session);
+    when(table("mytopic", "ks", "tb").getCircuitBreaker()).thenReturn(circuitBreaker);
+
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    InFlightRequests inFlightRequests = put.getInFlightRequests();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(instanceState, recordAndStatements, 4);
+    ByteBuffer routingKey = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    addSinkRecord(recordAndStatements, "mytopic", "ks", "tb", null, 1, routingKey);
+    addSinkRecord(recordAndStatements, "mytopic", "ks", "tb", null, 2, routingKey);
+
+    // when
+    statementProcessor.stop();
+    statementProcessor.call();
+
+    // then
+    verify(session, never()).executeAsync(any(Statement.class));
+    verify(sinkTask, times(2)).retryLater(new TopicPartition("mytopic", 1), 1234);
+    verify(sinkTask, never())
+        .handleFailure(any(RecordAndStatement.class), any(), any(), any(), any());
+    assertThat(inFlightRequests.size()).isZero();
+    verify(instanceState, never()).getRequestScheduler();
+    assertThat(put.getRejectedTopics()).containsExactly("mytopic");
+  }
+
+  @Test
+  void should_execute_statements_reactively_and_bisect_rejected_batch() throws Exception {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    InstanceState instanceState = sinkTask.getInstanceState();
+    CqlSession session = mock(CqlSession.class);
+    when(instanceState.getSession()).thenReturn(session);
+    when(instanceState.getExecutionEngine()).thenReturn(ExecutionEngine.REACTIVE);
+    when(instanceState.getRequestScheduler())
+        .thenReturn(new FairRequestScheduler(1, 4, System::nanoTime));
+    when(instanceState.isBisectFailedBatches()).thenReturn(true);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(preparedStatement.getQuery()).thenReturn("INSERT INTO ks.tb (a) VALUES (:a)");
+    when(preparedStatement.getVariableDefinitions()).thenReturn(mock(ColumnDefinitions.class));
+
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    InFlightRequests inFlightRequests = put.getInFlightRequests();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(instanceState, recordAndStatements, 2);
+    ByteBuffer routingKey = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    List<BoundStatement> statements = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      SinkRecord record = new SinkRecord("mytopic", 0, null, null, null, i, i);
+      BoundStatement statement = mock(BoundStatement.class);
+      when(statement.getRoutingKey()).thenReturn(routingKey);
+      when(statement.getPreparedStatement()).thenReturn(preparedStatement);
+      statements.add(statement);
+      recordAndStatements.add(
+          recordAndStatement(record, table("mytopic", "ks", "tb"), statement, 0));
+    }
+    BoundStatement poison = statements.get(1);
+    when(session.executeReactive(any(Statement.class)))
+        .thenAnswer(
+            invocation -> {
+              Statement<?> statement = invocation.getArgument(0);
+              boolean containsPoison =
+                  statement == poison
+                      || (statement instanceof BatchStatement
+                          && Iterables.contains((BatchStatement) statement, poison));
+              ReactiveResultSet resultSet = mock(ReactiveResultSet.class);
+              doAnswer(
+                      subscribe -> {
+                        Subscriber<ReactiveRow> subscriber = subscribe.getArgument(0);
+                        subscriber.onSubscribe(mock(Subscription.class));
+                        if (containsPoison) {
+                          subscriber.onError(new InvalidQueryException(null, "poison"));
+                        } else {
+                          subscriber.onComplete();
+                        }
+                        return null;
+                      })
+                  .when(resultSet)
+                  .subscribe(any());
+              return resultSet;
+            });
+
+    // when
+    statementProcessor.stop();
+    statementProcessor.call();
+    inFlightRequests.close();
+    inFlightRequests.whenDone().get();
+
+    // then
+    // the batch of 2 is split in [0] and [1]
+    verify(session, times(3)).executeReactive(any(Statement.class));
+    verify(session, never()).executeAsync(any(Statement.class));
+    verify(sinkTask)
+        .handleFailure(
+            argThat((RecordAndStatement failed) -> failed.getOffset() == 1),
+            any(InvalidQueryException.class),
+            eq("INSERT INTO ks.tb (a) VALUES (:a)"),
+            any(),
+            any(Runnable.class));
+    assertThat(put.getSuccessfulRecordCount()).isEqualTo(1);
+  }
+
+  @Test
+  void should_record_freshness_and_acknowledge_records_once_written() throws Exception {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    InstanceState instanceState = sinkTask.getInstanceState();
+    CqlSession session = mock(CqlSession.class);
+    when(instanceState.getSession()).thenReturn(session);
+    when(instanceState.getRequestScheduler())
+        .thenReturn(new FairRequestScheduler(1, 4, System::nanoTime));
+    CompletableFuture<AsyncResultSet> written = new CompletableFuture<>();
+    when(session.executeAsync(any(Statement.class))).thenReturn(written);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(preparedStatement.getVariableDefinitions()).thenReturn(mock(ColumnDefinitions.class));
+
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    InFlightRequests inFlightRequests = put.getInFlightRequests();
+    UnackedRecords unackedRecords = put.getUnackedRecords();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(instanceState, recordAndStatements, 4);
+    ByteBuffer routingKey = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    TopicPartition topicPartition = new TopicPartition("mytopic", 0);
+    long timestamp = System.currentTimeMillis() - 60_000;
+    for (int i = 0; i < 2; i++) {
+      SinkRecord record =
+          new SinkRecord(
+              "mytopic", 0, null, null, null, i, i, timestamp, TimestampType.CREATE_TIME);
+      BoundStatement statement = mock(BoundStatement.class);
+      when(statement.getRoutingKey()).thenReturn(routingKey);
+      when(statement.getPreparedStatement()).thenReturn(preparedStatement);
+      unackedRecords.add(topicPartition, i, timestamp);
+      recordAndStatements.add(
+          recordAndStatement(record, table("mytopic", "ks", "tb"), statement, 0));
+    }
+
+    // when
+    statementProcessor.stop();
+    statementProcessor.call();
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(topicPartition)).isGreaterThanOrEqualTo(60_000);
+
+    // when
+    written.complete(mock(AsyncResultSet.class));
+    inFlightRequests.close();
+    inFlightRequests.whenDone().get();
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(topicPartition)).isZero();
+    Histogram freshnessHistogram = table("mytopic", "ks", "tb").getFreshnessHistogram();
+    assertThat(freshnessHistogram.getCount()).isEqualTo(2);
+    assertThat(freshnessHistogram.getSnapshot().getMin()).isGreaterThanOrEqualTo(60_000);
+  }
+
+  @Test
+  void should_send_one_request_at_a_time_per_partition_when_preserving_order() throws Exception {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    InstanceState instanceState = sinkTask.getInstanceState();
+    CqlSession session = mock(CqlSession.class);
+    when(instanceState.getSession()).thenReturn(session);
+    when(instanceState.getRequestScheduler())
+        .thenReturn(new FairRequestScheduler(4, 4, System::nanoTime));
+    when(table("mytopic", "ks", "tb").getLanes()).thenReturn(new KeyLanes());
+    List<Statement<?>> sent = new ArrayList<>();
+    List<CompletableFuture<AsyncResultSet>> pending = new ArrayList<>();
+    when(session.executeAsync(any(Statement.class)))
+        .thenAnswer(
+            invocation -> {
+              CompletableFuture<AsyncResultSet> future = new CompletableFuture<>();
+              sent.add(invocation.getArgument(0));
+              pending.add(future);
+              return future;
+            });
+
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    InFlightRequests inFlightRequests = put.getInFlightRequests();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(instanceState, recordAndStatements, 1);
+    ByteBuffer routingKey1 = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    ByteBuffer routingKey2 = ByteBuffer.wrap(new byte[] {1, 2, 3, 5});
+    List<BoundStatement> statements = new ArrayList<>();
+    for (ByteBuffer routingKey : Arrays.asList(routingKey1, routingKey1, routingKey2)) {
+      SinkRecord record =
+          new SinkRecord("mytopic", 0, null, null, null, statements.size(), statements.size());
+      BoundStatement statement = mock(BoundStatement.class);
+      when(statement.getRoutingKey()).thenReturn(routingKey);
+      statements.add(statement);
+      recordAndStatements.add(
+          recordAndStatement(record, table("mytopic", "ks", "tb"), statement, 0));
+    }
+
+    // when
+    statementProcessor.stop();
+    statementProcessor.call();
+
+    // then
+    // the second write to the first partition waits for the first one
+    assertThat(sent).containsExactly(statements.get(0), statements.get(2));
+
+    // when
+    pending.get(0).complete(mock(AsyncResultSet.class));
+
+    // then
+    assertThat(sent).containsExactly(statements.get(0), statements.get(2), statements.get(1));
+
+    // when
+    pending.get(1).complete(mock(AsyncResultSet.class));
+    pending.get(2).complete(mock(AsyncResultSet.class));
+    inFlightRequests.close();
+    inFlightRequests.whenDone().get();
+
+    // then
+    assertThat(put.getSuccessfulRecordCount()).isEqualTo(3);
+  }
+
+  @Test
+  void should_send_incomplete_batches_when_producer_is_short_of_memory() throws Exception {
+    // given
+    CassandraSinkTask sinkTask = mockCassandraSinkTask();
+    MemoryBudget memoryBudget = new MemoryBudget(10, null);
+    when(sinkTask.getMemoryBudget()).thenReturn(memoryBudget);
+    put = new PutTracker(sinkTask);
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(sinkTask.getInstanceState(), recordAndStatements, 32);
+    List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
+    // emulate the release of the statements' memory once written
+    Consumer<List<RecordAndStatement>> mockConsumer =
+        batch -> {
+          actualBatches.add(new ArrayList<>(batch));
+          batch.forEach(recordAndStatement -> memoryBudget.release(6));
+        };
+    ByteBuffer routingKey = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+
+    // when
+    // emulate CassandraSinkTask.put() behavior: the second statement doesn't fit in the budget
+    // until the first one is written
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                for (int i = 0; i < 2; i++) {
+                  memoryBudget.acquire(6);
+                  SinkRecord record = new SinkRecord("mytopic", 0, null, null, null, i, i);
+                  BoundStatement statement = mock(BoundStatement.class);
+                  when(statement.getRoutingKey()).thenReturn(routingKey);
+                  recordAndStatements.add(
+                      recordAndStatement(record, table("mytopic", "ks", "tb"), statement, 6));
+                }
+              } catch (InterruptedException ignored) {
+              }
+              statementProcessor.stop();
+            });
+    producer.start();
+    statementProcessor.runLoop(mockConsumer);
+    producer.join();
+
+    // then
+    assertThat(actualBatches).hasSize(2);
+    assertThat(actualBatches.get(0)).hasSize(1);
+    assertThat(actualBatches.get(1)).hasSize(1);
+    assertThat(memoryBudget.getUsedBytes()).isZero();
+  }
+
+  @Test
+  void should_batch_statements_of_different_puts_and_flush_the_groups_of_each_ended_put()
+      throws InterruptedException {
+    // given
+    CassandraSinkTask sinkTask1 = mockCassandraSinkTask();
+    PutTracker put1 = put;
+    mockCassandraSinkTask();
+    PutTracker put2 = put;
+    BlockingQueue<RecordAndStatement> recordAndStatements = new LinkedBlockingQueue<>();
+    BoundStatementProcessor statementProcessor =
+        new BoundStatementProcessor(sinkTask1.getInstanceState(), recordAndStatements, 32);
+    List<List<RecordAndStatement>> actualBatches = new ArrayList<>();
+    Consumer<List<RecordAndStatement>> mockConsumer = e -> actualBatches.add(new ArrayList<>(e));
+    ByteBuffer routingKey1 = ByteBuffer.wrap(new byte[] {1, 2, 3, 4});
+    ByteBuffer routingKey2 = ByteBuffer.wrap(new byte[] {1, 2, 3, 5});
+    TableHandle table = table("mytopic", "ks", "tb");
+    recordAndStatements.add(recordAndStatement(table, routingKey2, 0, put2));
+    recordAndStatements.add(recordAndStatement(table, routingKey1, 1, put1));
+    recordAndStatements.add(recordAndStatement(table, routingKey1, 2, put2));
+    statementProcessor.endPut(put1);
+    recordAndStatements.add(recordAndStatement(table, routingKey1, 3, put2));
+    statementProcessor.stop();
+
+    // when
+    statementProcessor.runLoop(mockConsumer);
+
+    // then
+    // the end of the first put sends the batch it shares with the second put, but not the
+    // statements of the second put only
+    assertThat(actualBatches).hasSize(3);
+    assertThat(actualBatches.get(0))
+        .extracting(RecordAndStatement::getOffset)
+        .containsExactly(1L, 2L);
+    assertThat(actualBatches.subList(1, 3))
+        .extracting(batch -> batch.get(0).getOffset())
+        .containsExactlyInAnyOrder(0L, 3L);
+    put1.awaitFlushed();
+    put2.awaitFlushed();
+  }
+
   private void addSinkRecord(
       BlockingQueue<RecordAndStatement> recordAndStatements,
       String topic,
@@ -342,7 +1037,36 @@ class BoundStatementProcessorTest {
     SinkRecord record = new SinkRecord(topic, 1, null, kafkaKey, null, kafkaValue, 1234);
     BoundStatement statement = mock(BoundStatement.class);
     when(statement.getRoutingKey()).thenReturn(dseRoutingKey);
-    recordAndStatements.add(new RecordAndStatement(record, keyspace + "." + table, statement));
+    recordAndStatements.add(
+        recordAndStatement(record, table(topic, keyspace, table), statement, 0));
+  }
+
+  private RecordAndStatement recordAndStatement(
+      SinkRecord record, TableHandle table, BoundStatement statement, long dataSize) {
+    return new RecordAndStatement(
+        new TopicPartition(record.topic(), record.kafkaPartition()),
+        record.kafkaOffset(),
+        record.timestamp() == null ? RecordBatch.NO_TIMESTAMP : record.timestamp(),
+        record,
+        table,
+        statement,
+        dataSize,
+        put);
+  }
+
+  private static RecordAndStatement recordAndStatement(
+      TableHandle table, ByteBuffer routingKey, long offset, PutTracker put) {
+    BoundStatement statement = mock(BoundStatement.class);
+    when(statement.getRoutingKey()).thenReturn(routingKey);
+    return new RecordAndStatement(
+        new TopicPartition(table.getTopicName(), 0),
+        offset,
+        RecordBatch.NO_TIMESTAMP,
+        null,
+        table,
+        statement,
+        0,
+        put);
   }
 
   private static Stream<? extends Arguments> batchSizes() {
@@ -355,12 +1079,52 @@ class BoundStatementProcessorTest {
         Arguments.of(0, 1, new int[] {}));
   }
 
+  private static Stream<? extends Arguments> batchWideErrors() {
+    return Stream.of(
+        // the data of every statement is invalid: the batch is split down to single statements
+        Arguments.of(new InvalidQueryException(null, "Key may not be empty"), 63, 5),
+        // the batch would fail whatever its statements: it isn't split
+        Arguments.of(new InvalidQueryException(null, "unconfigured table tb"), 1, 0),
+        Arguments.of(new UnauthorizedException(null, "no MODIFY permission"), 1, 0));
+  }
+
+  /** @return the handle of the given topic-table, the same instance on each call. */
+  private TableHandle table(String topic, String keyspace, String table) {
+    return tables.computeIfAbsent(
+        String.format("%s.%s.%s", topic, keyspace, table),
+        key -> {
+          TableConfig tableConfig = mock(TableConfig.class);
+          when(tableConfig.getTopicName()).thenReturn(topic);
+          when(tableConfig.getKeyspace()).thenReturn(CqlIdentifier.fromInternal(keyspace));
+          when(tableConfig.getKeyspaceAndTable()).thenReturn(keyspace + "." + table);
+          TableHandle handle = mock(TableHandle.class);
+          when(handle.getTableConfig()).thenReturn(tableConfig);
+          when(handle.getTopicName()).thenReturn(topic);
+          when(handle.getKeyspaceAndTable()).thenReturn(keyspace + "." + table);
+          when(handle.getBatchSizeHistogram()).thenReturn(new Histogram(new UniformReservoir()));
+          when(handle.getBatchSizeInBytesHistogram())
+              .thenReturn(new Histogram(new UniformReservoir()));
+          when(handle.getBisectionDepthHistogram())
+              .thenReturn(new Histogram(new UniformReservoir()));
+          when(handle.getFreshnessHistogram()).thenReturn(new Histogram(new UniformReservoir()));
+          when(handle.getRecordCounter()).thenReturn(new Meter());
+          when(handle.getFailedRecordCounter()).thenReturn(new Meter());
+          when(handle.getRequestQueue()).thenReturn(new RequestQueue(1, new Timer()));
+          when(handle.getMapLatencyTimer()).thenReturn(new Timer());
+          when(handle.getEnqueueDelayTimer()).thenReturn(new Timer());
+          when(handle.getExecuteLatencyTimer()).thenReturn(new Timer());
+          when(handle.getEndToEndLatencyTimer()).thenReturn(new Timer());
+          return handle;
+        });
+  }
+
   private CassandraSinkTask mockCassandraSinkTask() {
     InstanceState instanceState = mock(InstanceState.class);
-    when(instanceState.getCodecRegistry()).thenReturn(mock(CodecRegistry.class));
-    when(instanceState.getProtocolVersion()).thenReturn(ProtocolVersion.DEFAULT);
     CassandraSinkTask sinkTask = mock(CassandraSinkTask.class);
     when(sinkTask.getInstanceState()).thenReturn(instanceState);
+    when(sinkTask.getMemoryBudget()).thenReturn(new MemoryBudget(0, null));
+    when(sinkTask.getUnackedRecords()).thenReturn(new UnackedRecords(System::currentTimeMillis));
+    put = new PutTracker(sinkTask);
     return sinkTask;
   }
 }
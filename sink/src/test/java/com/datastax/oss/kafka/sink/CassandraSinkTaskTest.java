@@ -16,25 +16,49 @@
 package com.datastax.oss.kafka.sink;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
 import com.datastax.oss.driver.api.core.DefaultConsistencyLevel;
+import com.datastax.oss.driver.api.core.ProtocolVersion;
 import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.ColumnDefinitions;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.type.codec.registry.CodecRegistry;
 import com.datastax.oss.dsbulk.tests.utils.ReflectionUtils;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig.IgnoreErrorsPolicy;
 import com.datastax.oss.kafka.sink.config.TableConfig;
 import com.datastax.oss.kafka.sink.config.TopicConfig;
+import com.datastax.oss.kafka.sink.deadletter.DeadLetterQueue;
+import com.datastax.oss.kafka.sink.flow.MemoryBudget;
+import com.datastax.oss.kafka.sink.flow.RateLimiter;
+import com.datastax.oss.kafka.sink.metrics.FailureReporter;
 import com.datastax.oss.kafka.sink.record.RecordAndStatement;
 import com.datastax.oss.kafka.sink.state.InstanceState;
+import com.datastax.oss.kafka.sink.state.TableHandle;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -42,13 +66,21 @@ import org.junit.jupiter.api.Test;
 class CassandraSinkTaskTest {
   private CassandraSinkTask sinkTask;
   private InstanceState instanceState;
+  private FailureOffsets failureOffsets;
   private SinkRecord record;
 
   @BeforeEach
   void setUp() {
     sinkTask = new CassandraSinkTask();
     instanceState = mock(InstanceState.class);
+    when(instanceState.getProtocolVersion()).thenReturn(ProtocolVersion.DEFAULT);
+    when(instanceState.getCodecRegistry()).thenReturn(mock(CodecRegistry.class));
     ReflectionUtils.setInternalState(sinkTask, "instanceState", instanceState);
+    ReflectionUtils.setInternalState(sinkTask, "memoryBudget", new MemoryBudget(0, null));
+    failureOffsets = new FailureOffsets();
+    ReflectionUtils.setInternalState(sinkTask, "failureOffsets", failureOffsets);
+    ReflectionUtils.setInternalState(
+        sinkTask, "unackedRecords", new UnackedRecords(System::currentTimeMillis));
     record = new SinkRecord("mytopic", 0, null, null, null, "value", 1234L);
   }
 
@@ -67,26 +99,192 @@ class CassandraSinkTaskTest {
     settings.put("topic.mytopic.ks.mytable2.consistencyLevel", "QUORUM");
 
     TopicConfig topicConfig = new TopicConfig("mytopic", settings, false);
-    when(instanceState.getTopicConfig("mytopic")).thenReturn(topicConfig);
     List<TableConfig> tableConfigs = new ArrayList<>(topicConfig.getTableConfigs());
     assertThat(tableConfigs.size()).isEqualTo(2);
 
     RecordMapper recordMapper1 = mock(RecordMapper.class);
     RecordMapper recordMapper2 = mock(RecordMapper.class);
-    when(instanceState.getRecordMapper(tableConfigs.get(0))).thenReturn(recordMapper1);
-    when(instanceState.getRecordMapper(tableConfigs.get(1))).thenReturn(recordMapper2);
+    TableHandle table1 = mock(TableHandle.class);
+    TableHandle table2 = mock(TableHandle.class);
+    when(table1.getTableConfig()).thenReturn(tableConfigs.get(0));
+    when(table2.getTableConfig()).thenReturn(tableConfigs.get(1));
+    when(table1.getRecordMapper()).thenReturn(recordMapper1);
+    when(table2.getRecordMapper()).thenReturn(recordMapper2);
+    Timer mapLatencyTimer = new Timer();
+    Timer enqueueDelayTimer = new Timer();
+    when(table1.getMapLatencyTimer()).thenReturn(mapLatencyTimer);
+    when(table2.getMapLatencyTimer()).thenReturn(mapLatencyTimer);
+    when(table1.getEnqueueDelayTimer()).thenReturn(enqueueDelayTimer);
+    when(table2.getEnqueueDelayTimer()).thenReturn(enqueueDelayTimer);
+    when(instanceState.getTableHandles("mytopic")).thenReturn(Arrays.asList(table1, table2));
     BoundStatement bs1 = mock(BoundStatement.class);
     BoundStatement bs2 = mock(BoundStatement.class);
     when(recordMapper1.map(any(), any())).thenReturn(bs1);
     when(recordMapper2.map(any(), any())).thenReturn(bs2);
     when(bs1.setConsistencyLevel(any())).thenReturn(bs1);
     when(bs2.setConsistencyLevel(any())).thenReturn(bs2);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(preparedStatement.getVariableDefinitions()).thenReturn(mock(ColumnDefinitions.class));
+    when(bs1.getPreparedStatement()).thenReturn(preparedStatement);
+    when(bs2.getPreparedStatement()).thenReturn(preparedStatement);
 
-    sinkTask.mapAndQueueRecord(queue, record);
+    PutTracker put = new PutTracker(sinkTask);
+    sinkTask.mapAndQueueRecord(queue, record, put);
     assertThat(queue.size()).isEqualTo(2);
-    assertThat(Objects.requireNonNull(queue.poll()).getStatement()).isSameAs(bs1);
-    assertThat(Objects.requireNonNull(queue.poll()).getStatement()).isSameAs(bs2);
+    RecordAndStatement recordAndStatement1 = Objects.requireNonNull(queue.poll());
+    RecordAndStatement recordAndStatement2 = Objects.requireNonNull(queue.poll());
+    assertThat(recordAndStatement1.getStatement()).isSameAs(bs1);
+    assertThat(recordAndStatement1.getTable()).isSameAs(table1);
+    assertThat(recordAndStatement2.getStatement()).isSameAs(bs2);
+    assertThat(recordAndStatement2.getTable()).isSameAs(table2);
+    // both statements share the same topic-partition instance, and don't retain the record
+    assertThat(recordAndStatement1.getTopicPartition())
+        .isEqualTo(new TopicPartition("mytopic", 0))
+        .isSameAs(recordAndStatement2.getTopicPartition());
+    assertThat(recordAndStatement1.getOffset()).isEqualTo(1234L);
+    assertThat(recordAndStatement1.getTimestamp()).isEqualTo(RecordBatch.NO_TIMESTAMP);
+    assertThat(recordAndStatement1.getRecord()).isNull();
+    assertThat(recordAndStatement1.getPutTracker()).isSameAs(put);
     verify(bs1).setConsistencyLevel(DefaultConsistencyLevel.ONE);
     verify(bs2).setConsistencyLevel(DefaultConsistencyLevel.QUORUM);
+    assertThat(mapLatencyTimer.getCount()).isEqualTo(2);
+    assertThat(enqueueDelayTimer.getCount()).isEqualTo(2);
+  }
+
+  @Test
+  void should_retain_record_when_dead_letter_sink_is_enabled() {
+    // given
+    BlockingQueue<RecordAndStatement> queue = new LinkedBlockingQueue<>();
+    mockTable();
+    when(instanceState.getDeadLetterQueue()).thenReturn(mock(DeadLetterQueue.class));
+
+    // when
+    sinkTask.mapAndQueueRecord(queue, record, new PutTracker(sinkTask));
+
+    // then
+    assertThat(queue).extracting(RecordAndStatement::getRecord).containsExactly(record);
+  }
+
+  @Test
+  void should_redeliver_records_of_table_over_rate_limit_without_queueing_them() {
+    // given
+    BlockingQueue<RecordAndStatement> queue = new LinkedBlockingQueue<>();
+    TableHandle table = mockTable();
+    // 1 row per second: the first record empties the bucket, the second one puts it in debt
+    when(table.getRateLimiter()).thenReturn(new RateLimiter(1, 0, () -> 0L));
+    PutTracker put = new PutTracker(sinkTask);
+
+    // when
+    for (long offset = 1234; offset < 1237; offset++) {
+      sinkTask.mapAndQueueRecord(
+          queue, new SinkRecord("mytopic", 0, null, null, null, "value", offset), put);
+    }
+
+    // then
+    assertThat(queue).extracting(RecordAndStatement::getOffset).containsExactly(1234L, 1235L);
+    assertThat(put.getThrottledTopics()).containsExactly("mytopic");
+    Map<TopicPartition, Long> offsets = new HashMap<>();
+    failureOffsets.forEach(offsets::put);
+    assertThat(offsets).containsOnly(entry(new TopicPartition("mytopic", 0), 1236L));
+  }
+
+  @Test
+  void should_redeliver_record_and_throw_retriable_exception_when_interrupted_waiting_for_memory()
+      throws Exception {
+    // given
+    BlockingQueue<RecordAndStatement> queue = new LinkedBlockingQueue<>();
+    TableHandle table = mockTable();
+    Meter failedRecordCounter = new Meter();
+    when(table.getFailedRecordCounter()).thenReturn(failedRecordCounter);
+    MemoryBudget memoryBudget = mock(MemoryBudget.class);
+    doThrow(new InterruptedException()).when(memoryBudget).acquire(anyLong());
+    ReflectionUtils.setInternalState(sinkTask, "memoryBudget", memoryBudget);
+    PutTracker put = new PutTracker(sinkTask);
+
+    // when
+    Throwable error = catchThrowable(() -> sinkTask.mapAndQueueRecord(queue, record, put));
+
+    // then
+    // the interrupt is not mistaken for a mapping failure
+    assertThat(error).isInstanceOf(RetriableException.class);
+    assertThat(Thread.interrupted()).isTrue();
+    assertThat(queue).isEmpty();
+    assertThat(failedRecordCounter.getCount()).isZero();
+    Map<TopicPartition, Long> offsets = new HashMap<>();
+    failureOffsets.forEach(offsets::put);
+    assertThat(offsets).containsOnly(entry(new TopicPartition("mytopic", 0), 1234L));
+  }
+
+  @Test
+  void should_redeliver_failed_record_when_dead_letter_sink_is_full() {
+    // given
+    mockFailureHandling(IgnoreErrorsPolicy.ALL);
+    DeadLetterQueue deadLetterQueue = mock(DeadLetterQueue.class);
+    when(deadLetterQueue.offer(any())).thenReturn(false);
+    when(instanceState.getDeadLetterQueue()).thenReturn(deadLetterQueue);
+
+    // when
+    sinkTask.handleFailure(record, new RuntimeException("boom"), null, null, () -> {});
+
+    // then
+    // the error is ignored, but the record must not be committed without being dead-lettered
+    Map<TopicPartition, Long> offsets = new HashMap<>();
+    failureOffsets.forEach(offsets::put);
+    assertThat(offsets).containsOnly(entry(new TopicPartition("mytopic", 0), 1234L));
+  }
+
+  @Test
+  void should_skip_commit_when_failed_record_was_dropped_by_dead_letter_sink() {
+    // given
+    mockFailureHandling(IgnoreErrorsPolicy.ALL);
+    // no directory and no errant record reporter: every failed record is dropped
+    DeadLetterQueue deadLetterQueue =
+        new DeadLetterQueue("sink", null, 10, 1024, new Meter(), new Meter());
+    when(instanceState.getDeadLetterQueue()).thenReturn(deadLetterQueue);
+    sinkTask.handleFailure(record, new RuntimeException("boom"), null, null, () -> {});
+    Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+    currentOffsets.put(new TopicPartition("mytopic", 0), new OffsetAndMetadata(1235L));
+
+    try {
+      // when
+      Throwable error = catchThrowable(() -> sinkTask.preCommit(currentOffsets));
+
+      // then
+      assertThat(error)
+          .isInstanceOf(RetriableException.class)
+          .hasMessageContaining("mytopic-0 at offset 1234");
+      // the record is redelivered once the worker rewinds, it is not awaited again
+      assertThat(sinkTask.preCommit(currentOffsets)).isSameAs(currentOffsets);
+    } finally {
+      deadLetterQueue.close();
+    }
+  }
+
+  private void mockFailureHandling(IgnoreErrorsPolicy ignoreErrors) {
+    CassandraSinkConfig config = mock(CassandraSinkConfig.class);
+    when(config.getIgnoreErrors()).thenReturn(ignoreErrors);
+    when(instanceState.getConfig()).thenReturn(config);
+    when(instanceState.getFailureReporter()).thenReturn(mock(FailureReporter.class));
+  }
+
+  private TableHandle mockTable() {
+    Map<String, String> settings = new LinkedHashMap<>();
+    settings.put("topic.mytopic.ks.mytable.mapping", "c1=value");
+    TopicConfig topicConfig = new TopicConfig("mytopic", settings, false);
+    TableConfig tableConfig = topicConfig.getTableConfigs().iterator().next();
+    RecordMapper recordMapper = mock(RecordMapper.class);
+    TableHandle table = mock(TableHandle.class);
+    when(table.getTableConfig()).thenReturn(tableConfig);
+    when(table.getRecordMapper()).thenReturn(recordMapper);
+    when(table.getMapLatencyTimer()).thenReturn(new Timer());
+    when(table.getEnqueueDelayTimer()).thenReturn(new Timer());
+    when(instanceState.getTableHandles("mytopic")).thenReturn(Collections.singletonList(table));
+    BoundStatement bs = mock(BoundStatement.class);
+    when(recordMapper.map(any(), any())).thenReturn(bs);
+    when(bs.setConsistencyLevel(any())).thenReturn(bs);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(preparedStatement.getVariableDefinitions()).thenReturn(mock(ColumnDefinitions.class));
+    when(bs.getPreparedStatement()).thenReturn(preparedStatement);
+    return table;
   }
 }
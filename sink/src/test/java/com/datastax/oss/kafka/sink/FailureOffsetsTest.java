@@ -0,0 +1,134 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+class FailureOffsetsTest {
+
+  @Test
+  void should_share_topic_partition_instances() {
+    // given
+    FailureOffsets failureOffsets = new FailureOffsets();
+    TopicPartition topicPartition = failureOffsets.topicPartition("mytopic", 0);
+
+    // when
+    failureOffsets.record(topicPartition, 10);
+    failureOffsets.clear();
+
+    // then
+    assertThat(failureOffsets.topicPartition("mytopic", 0)).isSameAs(topicPartition);
+    assertThat(failureOffsets.topicPartition("mytopic", 1)).isNotSameAs(topicPartition);
+  }
+
+  @Test
+  void should_keep_lowest_offset_per_partition() {
+    // given
+    FailureOffsets failureOffsets = new FailureOffsets();
+
+    // when
+    assertThat(failureOffsets.record("mytopic", 0, 10)).isTrue();
+    assertThat(failureOffsets.record("mytopic", 0, 12)).isFalse();
+    assertThat(failureOffsets.record("mytopic", 0, 5)).isTrue();
+    assertThat(failureOffsets.record("mytopic", 1, 20)).isTrue();
+
+    // then
+    Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+    offsets.put(new TopicPartition("mytopic", 2), new OffsetAndMetadata(100));
+    failureOffsets.copyTo(offsets);
+    assertThat(offsets)
+        .containsOnly(
+            entry(new TopicPartition("mytopic", 0), new OffsetAndMetadata(5)),
+            entry(new TopicPartition("mytopic", 1), new OffsetAndMetadata(20)),
+            entry(new TopicPartition("mytopic", 2), new OffsetAndMetadata(100)));
+
+    // when
+    failureOffsets.clear();
+
+    // then
+    assertThat(failureOffsets.isEmpty()).isTrue();
+  }
+
+  @Test
+  void should_reuse_topic_partitions() {
+    // given
+    FailureOffsets failureOffsets = new FailureOffsets();
+    Map<TopicPartition, Long> seen = new IdentityHashMap<>();
+
+    // when
+    failureOffsets.record("mytopic", 0, 10);
+    failureOffsets.forEach(seen::put);
+    failureOffsets.clear();
+    failureOffsets.record("mytopic", 0, 10);
+    failureOffsets.forEach(seen::put);
+
+    // then
+    assertThat(seen).hasSize(1);
+  }
+
+  @Test
+  void should_keep_lowest_offset_under_contention() throws InterruptedException {
+    // given
+    FailureOffsets failureOffsets = new FailureOffsets();
+    int threads = 8;
+    int failuresPerThread = 10_000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+
+    // when
+    for (int t = 0; t < threads; t++) {
+      int thread = t;
+      executor.execute(
+          () -> {
+            try {
+              start.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              return;
+            }
+            // Each thread reports decreasing offsets interleaved with the other threads.
+            for (int i = failuresPerThread - 1; i >= 0; i--) {
+              failureOffsets.record("mytopic", i % 4, (long) i * threads + thread);
+            }
+          });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+    // then
+    Map<TopicPartition, Long> offsets = new HashMap<>();
+    failureOffsets.forEach(offsets::put);
+    assertThat(offsets)
+        .containsOnly(
+            entry(new TopicPartition("mytopic", 0), 0L),
+            entry(new TopicPartition("mytopic", 1), (long) threads),
+            entry(new TopicPartition("mytopic", 2), 2L * threads),
+            entry(new TopicPartition("mytopic", 3), 3L * threads));
+  }
+}
@@ -264,6 +264,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -285,6 +286,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             deleteStatement,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -307,6 +309,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -320,6 +323,62 @@ class RecordMapperTest {
     assertParameter(1, C3, TypeCodecs.TEXT.encode("foo", V4));
   }
 
+  @Test
+  void should_mark_insert_idempotent_when_bound_with_timestamp() {
+    when(record.fields()).thenReturn(set(F1, F2, F3));
+    when(insertUpdateBoundStatementBuilder.isSet(SinkUtil.TIMESTAMP_VARNAME_CQL_IDENTIFIER))
+        .thenReturn(true);
+    RecordMapper mapper =
+        new RecordMapper(
+            insertUpdateStatement,
+            null,
+            true,
+            primaryKeys,
+            mapping,
+            true,
+            false,
+            tableConfigNullToUnsetTrue);
+    mapper.map(recordMetadata, record);
+    verify(insertUpdateBoundStatementBuilder).setIdempotence(true);
+  }
+
+  @Test
+  void should_mark_insert_not_idempotent_without_timestamp() {
+    when(record.fields()).thenReturn(set(F1, F2, F3));
+    RecordMapper mapper =
+        new RecordMapper(
+            insertUpdateStatement,
+            null,
+            true,
+            primaryKeys,
+            mapping,
+            true,
+            false,
+            tableConfigNullToUnsetTrue);
+    mapper.map(recordMetadata, record);
+    verify(insertUpdateBoundStatementBuilder).setIdempotence(false);
+  }
+
+  @Test
+  void should_mark_insert_not_idempotent_when_not_idempotent_even_with_timestamp() {
+    // e.g. a counter update, or an append to a list
+    when(record.fields()).thenReturn(set(F1, F2, F3));
+    when(insertUpdateBoundStatementBuilder.isSet(SinkUtil.TIMESTAMP_VARNAME_CQL_IDENTIFIER))
+        .thenReturn(true);
+    RecordMapper mapper =
+        new RecordMapper(
+            insertUpdateStatement,
+            null,
+            false,
+            primaryKeys,
+            mapping,
+            true,
+            false,
+            tableConfigNullToUnsetTrue);
+    mapper.map(recordMetadata, record);
+    verify(insertUpdateBoundStatementBuilder).setIdempotence(false);
+  }
+
   @Test
   void should_delete_when_non_null_fields_map_to_pk() {
     when(record.fields()).thenReturn(set(F1, F2, F3));
@@ -328,6 +387,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             deleteStatement,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -340,6 +400,7 @@ class RecordMapperTest {
         .setBytesUnsafe(variableCaptor.capture(), valueCaptor.capture());
     assertParameter(0, C1, TypeCodecs.INT.encode(42, V4));
     assertParameter(1, C3, TypeCodecs.TEXT.encode("foo", V4));
+    verify(deleteBoundStatementBuilder).setIdempotence(true);
   }
 
   @Test
@@ -367,6 +428,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -404,6 +466,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -438,6 +501,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -476,6 +540,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -497,6 +562,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -519,6 +585,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -540,6 +607,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -561,6 +629,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -579,6 +648,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -597,7 +667,14 @@ class RecordMapperTest {
     when(insertUpdateBoundStatement.isSet(C3)).thenReturn(false);
     RecordMapper mapper =
         new RecordMapper(
-            insertUpdateStatement, null, primaryKeys, mapping, true, false, tableConfigCustomQuery);
+            insertUpdateStatement,
+            null,
+            false,
+            primaryKeys,
+            mapping,
+            true,
+            false,
+            tableConfigCustomQuery);
 
     assertThatCode(() -> mapper.map(recordMetadata, record)).doesNotThrowAnyException();
   }
@@ -610,6 +687,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             false,
@@ -629,6 +707,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             false,
@@ -648,6 +727,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             false,
@@ -667,6 +747,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -688,6 +769,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -709,6 +791,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -730,6 +813,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             true,
@@ -749,6 +833,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             false,
@@ -771,6 +856,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             false,
@@ -793,6 +879,7 @@ class RecordMapperTest {
         new RecordMapper(
             insertUpdateStatement,
             null,
+            false,
             primaryKeys,
             mapping,
             false,
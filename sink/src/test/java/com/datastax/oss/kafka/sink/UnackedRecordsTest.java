@@ -0,0 +1,126 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.RecordBatch;
+import org.junit.jupiter.api.Test;
+
+class UnackedRecordsTest {
+  private final AtomicLong clock = new AtomicLong(10_000);
+  private final UnackedRecords unackedRecords = new UnackedRecords(clock::get);
+  private final TopicPartition partition = new TopicPartition("mytopic", 0);
+
+  @Test
+  void should_report_age_of_record_with_lowest_offset() {
+    // given
+    unackedRecords.add(partition, 5, 7_000);
+    unackedRecords.add(partition, 3, 8_000);
+    unackedRecords.add(new TopicPartition("mytopic", 1), 1, 1_000);
+
+    // when-then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isEqualTo(2_000);
+
+    // when
+    unackedRecords.remove(partition, 3);
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isEqualTo(3_000);
+
+    // when
+    unackedRecords.remove(partition, 5);
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isZero();
+  }
+
+  @Test
+  void should_acknowledge_record_once_all_of_its_statements_are_resolved() {
+    // given
+    unackedRecords.add(partition, 3, 8_000);
+    unackedRecords.add(partition, 3, 8_000);
+
+    // when
+    unackedRecords.remove(partition, 3);
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isEqualTo(2_000);
+
+    // when
+    unackedRecords.remove(partition, 3);
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isZero();
+  }
+
+  @Test
+  void should_age_record_without_timestamp_from_when_it_was_queued() {
+    // given
+    unackedRecords.add(partition, 3, RecordBatch.NO_TIMESTAMP);
+
+    // when
+    clock.addAndGet(500);
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isEqualTo(500);
+  }
+
+  @Test
+  void should_track_records_added_out_of_order_beyond_initial_capacity() {
+    // given
+    // records are added in blocks of 10 in reverse order, as parallel mapping threads may do
+    for (int block = 0; block < 100; block++) {
+      for (int i = 9; i >= 0; i--) {
+        long offset = block * 10 + i;
+        unackedRecords.add(partition, offset, offset);
+      }
+    }
+
+    // when
+    for (long offset = 999; offset > 500; offset--) {
+      unackedRecords.remove(partition, offset);
+    }
+    for (long offset = 0; offset < 500; offset++) {
+      unackedRecords.remove(partition, offset);
+    }
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isEqualTo(10_000 - 500);
+
+    // when
+    unackedRecords.remove(partition, 500);
+    unackedRecords.add(partition, 2_000, 9_000);
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isEqualTo(1_000);
+  }
+
+  @Test
+  void should_forget_all_records() {
+    // given
+    unackedRecords.add(partition, 3, 8_000);
+
+    // when
+    unackedRecords.clear();
+
+    // then
+    assertThat(unackedRecords.getOldestAgeMillis(partition)).isZero();
+    assertThat(unackedRecords.getOldestAgeMillis(new TopicPartition("unknown", 0))).isZero();
+  }
+}
@@ -16,8 +16,14 @@
 package com.datastax.oss.kafka.sink.config;
 
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.CONTACT_POINTS;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METADATA_SCHEMA_MAX_EVENTS;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METADATA_SCHEMA_REFRESHED_KEYSPACES;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METRICS_NODE_ENABLED;
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METRICS_SESSION_CQL_REQUESTS_INTERVAL;
 import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.METRICS_SESSION_ENABLED;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.SPECULATIVE_EXECUTION_DELAY;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.SPECULATIVE_EXECUTION_MAX;
+import static com.datastax.oss.driver.api.core.config.DefaultDriverOption.SPECULATIVE_EXECUTION_POLICY_CLASS;
 import static com.datastax.oss.dsbulk.tests.assertions.TestAssertions.assertThat;
 import static com.datastax.oss.kafka.sink.config.CassandraSinkConfig.COMPRESSION_DEFAULT;
 import static com.datastax.oss.kafka.sink.config.CassandraSinkConfig.COMPRESSION_DRIVER_SETTING;
@@ -61,6 +67,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.kafka.common.config.ConfigException;
 import org.junit.jupiter.api.Test;
@@ -68,6 +75,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 @ExtendWith(LogInterceptingExtension.class)
 class CassandraSinkConfigTest {
@@ -392,6 +400,30 @@ class CassandraSinkConfigTest {
         topicConfigs.get(topicName));
   }
 
+  @ParameterizedTest(name = "[{index}] topics={0}")
+  @ValueSource(ints = {100, 1_000, 5_000})
+  void should_parse_config_of_many_topics(int topics) {
+    // given
+    Map<String, String> props = new HashMap<>();
+    for (int i = 0; i < topics; i++) {
+      props.put(String.format("topic.topic%d.ks.table%d.mapping", i, i), "c1=value.f1");
+      props.put(String.format("topic.topic%d.codec.locale", i), i % 2 == 0 ? "en_US" : "fr_FR");
+    }
+
+    // when
+    CassandraSinkConfig d = new CassandraSinkConfig(props);
+
+    // then
+    assertThat(d.getTopicConfigs()).hasSize(topics);
+    assertThat(
+            d.getTopicConfigs()
+                .values()
+                .stream()
+                .map(TopicConfig::getCodecSettings)
+                .collect(Collectors.toSet()))
+        .hasSize(2);
+  }
+
   @ParameterizedTest(name = "[{index}] topicName={0}")
   @MethodSource("incorrectTopicNames")
   void should_not_parse_incorrect_kafka_topic_names(String topicName) {
@@ -635,6 +667,147 @@ class CassandraSinkConfigTest {
         .isEqualTo("5 seconds");
   }
 
+  @Test
+  void should_restrict_refreshed_keyspaces_to_mapped_keyspaces() {
+    // given
+    Map<String, String> props =
+        ImmutableMap.<String, String>builder()
+            .put("topic.mytopic.ks2.tb1.mapping", "c1=value.f1")
+            .put("topic.mytopic.ks1.tb2.mapping", "c1=value.f1")
+            .put("topic.yourtopic.ks2.tb3.mapping", "c1=value.f1")
+            .build();
+
+    // when
+    CassandraSinkConfig cassandraSinkConfig = new CassandraSinkConfig(props);
+
+    // then
+    assertThat(cassandraSinkConfig.getJavaDriverSettings())
+        .containsEntry(withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES) + ".0", "ks1")
+        .containsEntry(withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES) + ".1", "ks2")
+        .doesNotContainKey(withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES) + ".2")
+        .containsEntry(withDriverPrefix(METADATA_SCHEMA_MAX_EVENTS), "100");
+  }
+
+  @Test
+  void should_keep_refreshed_keyspaces_provided_by_user() {
+    // given
+    Map<String, String> props =
+        ImmutableMap.<String, String>builder()
+            .put("topic.mytopic.ks1.tb1.mapping", "c1=value.f1")
+            .put(withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES), "ks1, ks3")
+            .put(withDriverPrefix(METADATA_SCHEMA_MAX_EVENTS), "20")
+            .build();
+
+    // when
+    CassandraSinkConfig cassandraSinkConfig = new CassandraSinkConfig(props);
+
+    // then
+    assertThat(cassandraSinkConfig.getJavaDriverSettings())
+        .containsEntry(withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES) + ".0", "ks1")
+        .containsEntry(withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES) + ".1", "ks3")
+        .containsEntry(withDriverPrefix(METADATA_SCHEMA_MAX_EVENTS), "20");
+  }
+
+  @Test
+  void should_refresh_all_keyspaces_if_user_provides_empty_refreshed_keyspaces() {
+    // given
+    Map<String, String> props =
+        ImmutableMap.<String, String>builder()
+            .put("topic.mytopic.ks1.tb1.mapping", "c1=value.f1")
+            .put(withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES), "")
+            .build();
+
+    // when
+    CassandraSinkConfig cassandraSinkConfig = new CassandraSinkConfig(props);
+
+    // then
+    assertThat(cassandraSinkConfig.getJavaDriverSettings())
+        .doesNotContainKey(withDriverPrefix(METADATA_SCHEMA_REFRESHED_KEYSPACES) + ".0");
+  }
+
+  @Test
+  void should_enable_in_flight_node_metric_when_sizing_connection_pools() {
+    // given
+    Map<String, String> props =
+        ImmutableMap.<String, String>builder()
+            .put("connectionPoolMaxLocalSize", "8")
+            .put(withDriverPrefix(METRICS_NODE_ENABLED), "pool.open-connections")
+            .build();
+
+    // when
+    CassandraSinkConfig cassandraSinkConfig = new CassandraSinkConfig(props);
+
+    // then
+    assertThat(cassandraSinkConfig.getConnectionPoolMaxLocalSize()).isEqualTo(8);
+    assertThat(cassandraSinkConfig.getJavaDriverSettings())
+        .containsEntry(withDriverPrefix(METRICS_NODE_ENABLED) + ".0", "pool.open-connections")
+        .containsEntry(withDriverPrefix(METRICS_NODE_ENABLED) + ".1", "pool.in-flight");
+  }
+
+  @Test
+  void should_error_when_max_connection_pool_size_is_below_pool_size() {
+    // given
+    Map<String, String> props =
+        ImmutableMap.<String, String>builder()
+            .put("connectionPoolLocalSize", "4")
+            .put("connectionPoolMaxLocalSize", "2")
+            .build();
+
+    // when-then
+    assertThatThrownBy(() -> new CassandraSinkConfig(props))
+        .isInstanceOf(ConfigException.class)
+        .hasMessageContaining("Must be at least connectionPoolLocalSize");
+  }
+
+  @Test
+  void should_not_configure_speculative_executions_by_default() {
+    // when
+    CassandraSinkConfig cassandraSinkConfig = new CassandraSinkConfig(Collections.emptyMap());
+
+    // then
+    assertThat(cassandraSinkConfig.getJavaDriverSettings())
+        .doesNotContainKey(withDriverPrefix(SPECULATIVE_EXECUTION_POLICY_CLASS));
+  }
+
+  @Test
+  void should_configure_constant_speculative_execution_policy() {
+    // given
+    Map<String, String> props =
+        ImmutableMap.<String, String>builder()
+            .put("speculativeExecution.maxExecutions", "3")
+            .put("speculativeExecution.delay", "50")
+            .build();
+
+    // when
+    CassandraSinkConfig cassandraSinkConfig = new CassandraSinkConfig(props);
+
+    // then
+    assertThat(cassandraSinkConfig.getJavaDriverSettings())
+        .containsEntry(
+            withDriverPrefix(SPECULATIVE_EXECUTION_POLICY_CLASS),
+            "ConstantSpeculativeExecutionPolicy")
+        .containsEntry(withDriverPrefix(SPECULATIVE_EXECUTION_MAX), "3")
+        .containsEntry(withDriverPrefix(SPECULATIVE_EXECUTION_DELAY), "50 milliseconds");
+  }
+
+  @Test
+  void should_not_override_speculative_execution_policy_provided_with_driver_prefix() {
+    // given
+    Map<String, String> props =
+        ImmutableMap.<String, String>builder()
+            .put("speculativeExecution.maxExecutions", "3")
+            .put(withDriverPrefix(SPECULATIVE_EXECUTION_POLICY_CLASS), "com.acme.MyPolicy")
+            .build();
+
+    // when
+    CassandraSinkConfig cassandraSinkConfig = new CassandraSinkConfig(props);
+
+    // then
+    assertThat(cassandraSinkConfig.getJavaDriverSettings())
+        .containsEntry(withDriverPrefix(SPECULATIVE_EXECUTION_POLICY_CLASS), "com.acme.MyPolicy")
+        .doesNotContainKey(withDriverPrefix(SPECULATIVE_EXECUTION_MAX));
+  }
+
   @ParameterizedTest
   @MethodSource("deprecatedSettingsProvider")
   void should_handle_deprecated_settings(
@@ -78,6 +78,19 @@ class TopicConfigTest {
     assertThat(tableConfigs[1].getMappingString()).isEqualTo("c2=value.f2");
   }
 
+  @Test
+  void should_separate_codec_settings_from_table_settings() {
+    Map<String, String> props = new LinkedHashMap<>();
+    props.put(TopicConfig.getTopicSettingPath("mytopic", LOCALE_OPT), "fr_FR");
+    props.put(
+        TableConfig.getTableSettingPath("mytopic", "ks", "table1", TableConfig.MAPPING_OPT),
+        "c1=value.f1");
+    TopicConfig config = new TopicConfig("mytopic", props, false);
+    assertThat(config.getTableConfigs()).hasSize(1);
+    assertThat(config.getCodecSettings().get(LOCALE_OPT)).isEqualTo("fr_FR");
+    assertThat(config.getCodecSettings().get(TIMEZONE_OPT)).isEqualTo("UTC");
+  }
+
   @ParameterizedTest
   @CsvSource({"ANY", "LOCAL_ONE", "ONE"})
   void should_log_info_when_cloud_and_cl_is_not_proper_and_set_LOCAL_QUORUM(
@@ -0,0 +1,169 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.deadletter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+import com.codahale.metrics.Meter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DeadLetterQueueTest {
+  private Path directory;
+
+  @BeforeEach
+  void createDirectory() throws IOException {
+    directory = Files.createTempDirectory("dead-letter");
+  }
+
+  @AfterEach
+  void deleteDirectory() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path path : files.sorted((a, b) -> b.compareTo(a)).collect(Collectors.toList())) {
+        Files.delete(path);
+      }
+    }
+  }
+
+  @Test
+  void should_write_failed_records_to_segment_files() throws IOException {
+    // given
+    Meter written = new Meter();
+    Meter dropped = new Meter();
+    DeadLetterQueue queue = new DeadLetterQueue("sink", directory, 10, 1024, written, dropped);
+    SinkRecord record = new SinkRecord("mytopic", 2, null, "key", null, "value", 42L);
+
+    // when
+    boolean offered =
+        queue.offer(
+            new FailedRecord(record, new IllegalStateException("boom"), "INSERT INTO t", null));
+    queue.close();
+
+    // then
+    assertThat(offered).isTrue();
+    assertThat(written.getCount()).isEqualTo(1);
+    assertThat(dropped.getCount()).isZero();
+    List<Path> segments = listSegments();
+    assertThat(segments).hasSize(1);
+    assertThat(segments.get(0).getFileName().toString()).startsWith("sink-").endsWith(".jsonl");
+    List<String> lines = Files.readAllLines(segments.get(0));
+    assertThat(lines).hasSize(1);
+    JsonNode document = new ObjectMapper().readTree(lines.get(0));
+    assertThat(document.get("topic").asText()).isEqualTo("mytopic");
+    assertThat(document.get("partition").asInt()).isEqualTo(2);
+    assertThat(document.get("offset").asLong()).isEqualTo(42L);
+    assertThat(document.get("key").asText()).isEqualTo("key");
+    assertThat(document.get("value").asText()).isEqualTo("value");
+    assertThat(document.get("error").asText()).isEqualTo(IllegalStateException.class.getName());
+    assertThat(document.get("errorMessage").asText()).isEqualTo("boom");
+    assertThat(document.get("cql").asText()).isEqualTo("INSERT INTO t");
+  }
+
+  @Test
+  void should_signal_once_failed_record_is_written_or_dropped() throws Exception {
+    // given
+    DeadLetterQueue queue =
+        new DeadLetterQueue("sink", directory, 1, 1024, new Meter(), new Meter());
+    SinkRecord record = new SinkRecord("mytopic", 0, null, null, null, "v", 0);
+    FailedRecord written = new FailedRecord(record, new RuntimeException(), null, null);
+
+    // when
+    queue.offer(written);
+    written.awaitWritten(10, TimeUnit.SECONDS);
+
+    // then
+    // the record was flushed before being signaled as written
+    assertThat(Files.readAllLines(listSegments().get(0))).hasSize(1);
+
+    // when
+    queue.close();
+    FailedRecord dropped = new FailedRecord(record, new RuntimeException(), null, null);
+    boolean offered = queue.offer(dropped);
+
+    // then
+    assertThat(offered).isFalse();
+    assertThatThrownBy(() -> dropped.awaitWritten(0, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class);
+  }
+
+  @Test
+  void should_roll_segment_when_max_size_is_reached() throws IOException {
+    // given
+    Meter written = new Meter();
+    DeadLetterQueue queue = new DeadLetterQueue("sink", directory, 10, 1, written, new Meter());
+
+    // when
+    for (int i = 0; i < 3; i++) {
+      SinkRecord record = new SinkRecord("mytopic", 0, null, null, null, "v" + i, i);
+      queue.offer(new FailedRecord(record, new RuntimeException(), null, null));
+    }
+    queue.close();
+
+    // then
+    assertThat(written.getCount()).isEqualTo(3);
+    assertThat(listSegments()).hasSize(3);
+  }
+
+  @Test
+  void should_drop_records_when_no_directory_and_no_reporter() throws IOException {
+    // given
+    Meter written = new Meter();
+    Meter dropped = new Meter();
+    DeadLetterQueue queue = new DeadLetterQueue("sink", null, 10, 1024, written, dropped);
+    SinkRecord record = new SinkRecord("mytopic", 0, null, null, null, "v", 0);
+
+    FailedRecord failedRecord = new FailedRecord(record, new RuntimeException(), null, null);
+
+    // when
+    queue.offer(failedRecord);
+    queue.close();
+
+    // then
+    assertThat(written.getCount()).isZero();
+    assertThat(dropped.getCount()).isEqualTo(1);
+    assertThat(listSegments()).isEmpty();
+    assertThatThrownBy(() -> failedRecord.awaitWritten(0, TimeUnit.SECONDS))
+        .isInstanceOf(ExecutionException.class)
+        .hasRootCauseInstanceOf(IOException.class);
+  }
+
+  @Test
+  void should_not_find_errant_record_reporter_on_old_workers() {
+    assertThat(ErrantRecordReporterAdapter.fromContext(mock(SinkTaskContext.class))).isNull();
+    assertThat(ErrantRecordReporterAdapter.fromContext(null)).isNull();
+  }
+
+  private List<Path> listSegments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.datastax.oss.driver.api.core.servererrors.InvalidQueryException;
+import com.datastax.oss.driver.api.core.servererrors.WriteTimeoutException;
+import com.datastax.oss.kafka.sink.flow.CircuitBreaker.State;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class CircuitBreakerTest {
+  private final AtomicLong clock = new AtomicLong();
+  private final CircuitBreaker circuitBreaker =
+      new CircuitBreaker("ks.tb", 10, 4, 50, 100, 1000, clock::get);
+
+  @Test
+  void should_open_when_failure_rate_reaches_threshold() {
+    // when
+    succeed();
+    fail();
+    succeed();
+
+    // then
+    // not enough requests yet
+    assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+
+    // when
+    fail();
+
+    // then
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    assertThat(circuitBreaker.isOpen()).isTrue();
+    assertThat(circuitBreaker.tryAcquire()).isFalse();
+  }
+
+  @Test
+  void should_count_slow_requests_as_failures() {
+    // when
+    for (int i = 0; i < 4; i++) {
+      circuitBreaker.onComplete(TimeUnit.MILLISECONDS.toNanos(150), null);
+    }
+
+    // then
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+  }
+
+  @Test
+  void should_not_count_validation_errors() {
+    // when
+    for (int i = 0; i < 10; i++) {
+      circuitBreaker.onComplete(0, new InvalidQueryException(null, "bad value"));
+    }
+
+    // then
+    assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  void should_only_consider_most_recent_requests() {
+    // given
+    for (int i = 0; i < 10; i++) {
+      succeed();
+    }
+    for (int i = 0; i < 4; i++) {
+      fail();
+    }
+    assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+
+    // when
+    fail();
+
+    // then
+    // 5 failures out of the last 10 requests, even though only a third of all requests failed
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+  }
+
+  @Test
+  void should_let_one_probe_through_after_open_duration_and_close_on_success() {
+    // given
+    openBreaker();
+
+    // when
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+
+    // then
+    assertThat(circuitBreaker.isOpen()).isFalse();
+    assertThat(circuitBreaker.tryAcquire()).isTrue();
+    assertThat(circuitBreaker.getState()).isEqualTo(State.HALF_OPEN);
+    assertThat(circuitBreaker.tryAcquire()).isFalse();
+
+    // when
+    succeed();
+
+    // then
+    assertThat(circuitBreaker.getState()).isEqualTo(State.CLOSED);
+    assertThat(circuitBreaker.tryAcquire()).isTrue();
+  }
+
+  @Test
+  void should_report_remaining_open_time() {
+    // given
+    assertThat(circuitBreaker.getRemainingOpenMillis()).isZero();
+    openBreaker();
+
+    // when
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(400) + 1);
+
+    // then
+    assertThat(circuitBreaker.getRemainingOpenMillis()).isEqualTo(600);
+
+    // when
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(600));
+
+    // then
+    assertThat(circuitBreaker.getRemainingOpenMillis()).isZero();
+  }
+
+  @Test
+  void should_open_again_when_probe_fails() {
+    // given
+    openBreaker();
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+    assertThat(circuitBreaker.tryAcquire()).isTrue();
+
+    // when
+    fail();
+
+    // then
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+    assertThat(circuitBreaker.tryAcquire()).isFalse();
+  }
+
+  private void openBreaker() {
+    for (int i = 0; i < 4; i++) {
+      fail();
+    }
+    assertThat(circuitBreaker.getState()).isEqualTo(State.OPEN);
+  }
+
+  private void succeed() {
+    circuitBreaker.onComplete(0, null);
+  }
+
+  private void fail() {
+    circuitBreaker.onComplete(0, Mockito.mock(WriteTimeoutException.class));
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.Timer;
+import com.datastax.oss.kafka.sink.flow.FairRequestScheduler.RequestQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class FairRequestSchedulerTest {
+  private final AtomicLong clock = new AtomicLong();
+  private final List<String> started = new ArrayList<>();
+  private final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+
+  @Test
+  void should_limit_concurrent_requests() {
+    // given
+    FairRequestScheduler scheduler = new FairRequestScheduler(2, 1, clock::get);
+    RequestQueue queue = new RequestQueue(1, new Timer());
+
+    // when
+    CompletionStage<Void> first = submit(scheduler, queue, "a1");
+    submit(scheduler, queue, "a2");
+    submit(scheduler, queue, "a3");
+
+    // then
+    assertThat(started).containsExactly("a1", "a2");
+    assertThat(scheduler.getInFlight()).isEqualTo(2);
+
+    // when
+    completeNext();
+
+    // then
+    assertThat(first.toCompletableFuture()).isCompleted();
+    assertThat(started).containsExactly("a1", "a2", "a3");
+    assertThat(scheduler.getInFlight()).isEqualTo(2);
+  }
+
+  @Test
+  void should_serve_low_volume_table_before_backlog_of_busy_table() {
+    // given
+    FairRequestScheduler scheduler = new FairRequestScheduler(1, 1, clock::get);
+    RequestQueue busy = new RequestQueue(1, new Timer());
+    RequestQueue quiet = new RequestQueue(1, new Timer());
+    for (int i = 1; i <= 4; i++) {
+      submit(scheduler, busy, "busy" + i);
+    }
+
+    // when
+    submit(scheduler, quiet, "quiet1");
+    completeAll();
+
+    // then
+    assertThat(started).containsExactly("busy1", "busy2", "quiet1", "busy3", "busy4");
+  }
+
+  @Test
+  void should_share_requests_according_to_weights() {
+    // given
+    FairRequestScheduler scheduler = new FairRequestScheduler(1, 1, clock::get);
+    RequestQueue heavy = new RequestQueue(3, new Timer());
+    RequestQueue light = new RequestQueue(1, new Timer());
+    // occupy the only slot so that both queues fill up
+    submit(scheduler, new RequestQueue(1, new Timer()), "blocker");
+    for (int i = 1; i <= 6; i++) {
+      submit(scheduler, heavy, "heavy" + i);
+      submit(scheduler, light, "light" + i);
+    }
+
+    // when
+    completeAll();
+
+    // then
+    assertThat(started.subList(1, 9))
+        .containsExactly(
+            "heavy1", "heavy2", "heavy3", "light1", "heavy4", "heavy5", "heavy6", "light2");
+  }
+
+  @Test
+  void should_account_for_request_sizes() {
+    // given
+    FairRequestScheduler scheduler = new FairRequestScheduler(1, 4, clock::get);
+    RequestQueue batches = new RequestQueue(1, new Timer());
+    RequestQueue singles = new RequestQueue(1, new Timer());
+    submit(scheduler, new RequestQueue(1, new Timer()), "blocker");
+    submit(scheduler, batches, 4, "batch1");
+    submit(scheduler, batches, 4, "batch2");
+    for (int i = 1; i <= 4; i++) {
+      submit(scheduler, singles, 1, "single" + i);
+    }
+
+    // when
+    completeAll();
+
+    // then
+    assertThat(started)
+        .containsExactly("blocker", "batch1", "single1", "single2", "single3", "single4", "batch2");
+  }
+
+  @Test
+  void should_record_queueing_delay() {
+    // given
+    FairRequestScheduler scheduler = new FairRequestScheduler(1, 1, clock::get);
+    Timer queueingDelay = new Timer();
+    RequestQueue queue = new RequestQueue(1, queueingDelay);
+    submit(scheduler, queue, "a1");
+    submit(scheduler, queue, "a2");
+
+    // when
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+    completeNext();
+
+    // then
+    assertThat(queueingDelay.getCount()).isEqualTo(2);
+    assertThat(queueingDelay.getSnapshot().getMax()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(10));
+  }
+
+  @Test
+  void should_release_slot_when_request_fails_to_start() {
+    // given
+    FairRequestScheduler scheduler = new FairRequestScheduler(1, 1, clock::get);
+    RequestQueue queue = new RequestQueue(1, new Timer());
+
+    // when
+    CompletionStage<Void> failed =
+        scheduler.submit(
+            queue,
+            1,
+            () -> {
+              throw new IllegalStateException("boom");
+            });
+    submit(scheduler, queue, "a1");
+
+    // then
+    assertThat(failed.toCompletableFuture()).isCompletedExceptionally();
+    assertThat(started).containsExactly("a1");
+  }
+
+  @Test
+  void should_block_producer_once_in_flight_and_queued_requests_are_at_capacity()
+      throws Exception {
+    // given
+    FairRequestScheduler scheduler = new FairRequestScheduler(1, 1, clock::get);
+    RequestQueue queue = new RequestQueue(1, new Timer());
+    scheduler.acquireCapacity();
+    submit(scheduler, queue, "a1");
+    scheduler.acquireCapacity();
+    submit(scheduler, queue, "a2");
+
+    // when
+    CompletableFuture<Void> producer = CompletableFuture.runAsync(scheduler::acquireCapacity);
+
+    // then
+    // one request in flight and one queued
+    assertThat(started).containsExactly("a1");
+    Thread.sleep(100);
+    assertThat(producer).isNotDone();
+
+    // when
+    completeNext();
+    scheduler.releaseCapacity();
+
+    // then
+    producer.get(10, TimeUnit.SECONDS);
+    assertThat(started).containsExactly("a1", "a2");
+  }
+
+  private CompletionStage<Void> submit(
+      FairRequestScheduler scheduler, RequestQueue queue, String name) {
+    return submit(scheduler, queue, 1, name);
+  }
+
+  private CompletionStage<Void> submit(
+      FairRequestScheduler scheduler, RequestQueue queue, int size, String name) {
+    return scheduler.submit(
+        queue,
+        size,
+        () -> {
+          started.add(name);
+          CompletableFuture<Void> future = new CompletableFuture<>();
+          inFlight.add(future);
+          return future;
+        });
+  }
+
+  private void completeNext() {
+    inFlight.remove(0).complete(null);
+  }
+
+  private void completeAll() {
+    while (!inFlight.isEmpty()) {
+      completeNext();
+    }
+  }
+}
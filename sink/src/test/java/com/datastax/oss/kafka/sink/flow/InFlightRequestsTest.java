@@ -0,0 +1,92 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+class InFlightRequestsTest {
+
+  @Test
+  void should_be_done_once_closed_and_all_requests_complete() {
+    // given
+    InFlightRequests inFlightRequests = new InFlightRequests();
+    CompletableFuture<Void> request1 = new CompletableFuture<>();
+    CompletableFuture<Void> request2 = new CompletableFuture<>();
+    inFlightRequests.add(request1);
+    inFlightRequests.add(request2);
+
+    // when
+    request1.complete(null);
+    inFlightRequests.close();
+
+    // then
+    assertThat(inFlightRequests.size()).isEqualTo(1);
+    assertThat(inFlightRequests.whenDone()).isNotDone();
+
+    // when
+    request2.completeExceptionally(new IllegalStateException("boom"));
+
+    // then
+    assertThat(inFlightRequests.size()).isZero();
+    assertThat(inFlightRequests.whenDone()).isCompleted();
+  }
+
+  @Test
+  void should_not_be_done_until_closed() {
+    // given
+    InFlightRequests inFlightRequests = new InFlightRequests();
+    CompletableFuture<Void> request = new CompletableFuture<>();
+    inFlightRequests.add(request);
+
+    // when
+    request.complete(null);
+
+    // then
+    assertThat(inFlightRequests.size()).isZero();
+    assertThat(inFlightRequests.whenDone()).isNotDone();
+
+    // when
+    inFlightRequests.close();
+
+    // then
+    assertThat(inFlightRequests.whenDone()).isCompleted();
+  }
+
+  @Test
+  void should_ignore_being_closed_again() {
+    // given
+    InFlightRequests inFlightRequests = new InFlightRequests();
+    CompletableFuture<Void> request = new CompletableFuture<>();
+    inFlightRequests.add(request);
+    inFlightRequests.close();
+
+    // when
+    inFlightRequests.close();
+
+    // then
+    assertThat(inFlightRequests.size()).isEqualTo(1);
+    assertThat(inFlightRequests.whenDone()).isNotDone();
+
+    // when
+    request.complete(null);
+
+    // then
+    assertThat(inFlightRequests.whenDone()).isCompleted();
+  }
+}
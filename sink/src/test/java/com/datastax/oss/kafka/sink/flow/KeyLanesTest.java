@@ -0,0 +1,111 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class KeyLanesTest {
+
+  private final List<String> started = new ArrayList<>();
+
+  @Test
+  void should_start_request_once_previous_request_of_same_key_completes() {
+    // given
+    KeyLanes lanes = new KeyLanes();
+    CompletableFuture<Void> first = new CompletableFuture<>();
+
+    // when
+    lanes.submit("k", request("first", first));
+    CompletionStage<Void> second = lanes.submit("k", request("second", new CompletableFuture<>()));
+
+    // then
+    assertThat(started).containsExactly("first");
+    assertThat(second.toCompletableFuture()).isNotDone();
+
+    // when
+    first.complete(null);
+
+    // then
+    assertThat(started).containsExactly("first", "second");
+  }
+
+  @Test
+  void should_start_requests_of_different_keys_right_away() {
+    // given
+    KeyLanes lanes = new KeyLanes();
+
+    // when
+    lanes.submit("k1", request("first", new CompletableFuture<>()));
+    lanes.submit("k2", request("second", new CompletableFuture<>()));
+    lanes.submit(null, request("third", new CompletableFuture<>()));
+
+    // then
+    assertThat(started).containsExactly("first", "second", "third");
+    assertThat(lanes.size()).isEqualTo(3);
+  }
+
+  @Test
+  void should_start_next_request_when_previous_request_fails() {
+    // given
+    KeyLanes lanes = new KeyLanes();
+    CompletableFuture<Void> first = new CompletableFuture<>();
+    CompletionStage<Void> firstResult = lanes.submit("k", request("first", first));
+    lanes.submit("k", request("second", new CompletableFuture<>()));
+
+    // when
+    first.completeExceptionally(new IllegalStateException("boom"));
+
+    // then
+    assertThat(firstResult.toCompletableFuture()).isCompletedExceptionally();
+    assertThat(started).containsExactly("first", "second");
+  }
+
+  @Test
+  void should_forget_key_once_its_requests_complete() {
+    // given
+    KeyLanes lanes = new KeyLanes();
+    CompletableFuture<Void> first = new CompletableFuture<>();
+    CompletableFuture<Void> second = new CompletableFuture<>();
+    lanes.submit("k", request("first", first));
+    lanes.submit("k", request("second", second));
+
+    // when
+    first.complete(null);
+
+    // then
+    assertThat(lanes.size()).isEqualTo(1);
+
+    // when
+    second.complete(null);
+
+    // then
+    assertThat(lanes.size()).isZero();
+  }
+
+  private Supplier<CompletionStage<Void>> request(String name, CompletableFuture<Void> completion) {
+    return () -> {
+      started.add(name);
+      return completion;
+    };
+  }
+}
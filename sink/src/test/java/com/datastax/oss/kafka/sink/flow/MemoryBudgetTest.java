@@ -0,0 +1,133 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class MemoryBudgetTest {
+
+  @Test
+  void should_wait_until_enough_bytes_are_released() throws Exception {
+    // given
+    MemoryBudget budget = new MemoryBudget(100, null);
+    budget.acquire(60);
+
+    // when
+    CompletableFuture<Void> acquired = acquireAsync(budget, 60);
+
+    // then
+    waitUntilExhausted(budget);
+    assertThat(acquired).isNotDone();
+
+    // when
+    budget.release(60);
+
+    // then
+    acquired.get(10, TimeUnit.SECONDS);
+    assertThat(budget.getUsedBytes()).isEqualTo(60);
+    assertThat(budget.isExhausted()).isFalse();
+  }
+
+  @Test
+  void should_grant_oversized_reservation_when_budget_is_empty() throws Exception {
+    // given
+    MemoryBudget budget = new MemoryBudget(100, null);
+
+    // when
+    budget.acquire(150);
+
+    // then
+    assertThat(budget.getUsedBytes()).isEqualTo(150);
+  }
+
+  @Test
+  void should_never_wait_without_limit() throws Exception {
+    // given
+    MemoryBudget budget = new MemoryBudget(0, null);
+
+    // when
+    budget.acquire(Long.MAX_VALUE / 2);
+    budget.acquire(Long.MAX_VALUE / 2);
+
+    // then
+    assertThat(budget.isExhausted()).isFalse();
+  }
+
+  @Test
+  void should_reserve_bytes_in_parent() throws Exception {
+    // given
+    MemoryBudget connector = new MemoryBudget(100, null);
+    MemoryBudget task1 = new MemoryBudget(0, connector);
+    MemoryBudget task2 = new MemoryBudget(0, connector);
+    task1.acquire(80);
+
+    // when
+    CompletableFuture<Void> acquired = acquireAsync(task2, 40);
+
+    // then
+    waitUntilExhausted(task2);
+    assertThat(connector.getUsedBytes()).isEqualTo(80);
+    assertThat(task1.isExhausted()).isTrue();
+
+    // when
+    task1.release(80);
+
+    // then
+    acquired.get(10, TimeUnit.SECONDS);
+    assertThat(connector.getUsedBytes()).isEqualTo(40);
+    assertThat(task1.getUsedBytes()).isZero();
+    assertThat(task2.getUsedBytes()).isEqualTo(40);
+  }
+
+  @Test
+  void should_release_all_bytes_in_parent() throws Exception {
+    // given
+    MemoryBudget connector = new MemoryBudget(100, null);
+    MemoryBudget task = new MemoryBudget(0, connector);
+    task.acquire(30);
+    task.acquire(20);
+
+    // when
+    task.releaseAll();
+
+    // then
+    assertThat(task.getUsedBytes()).isZero();
+    assertThat(connector.getUsedBytes()).isZero();
+  }
+
+  private static CompletableFuture<Void> acquireAsync(MemoryBudget budget, long bytes) {
+    return CompletableFuture.runAsync(
+        () -> {
+          try {
+            budget.acquire(bytes);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        });
+  }
+
+  private static void waitUntilExhausted(MemoryBudget budget) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!budget.isExhausted() && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertThat(budget.isExhausted()).isTrue();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class RateLimiterTest {
+  private final AtomicLong clock = new AtomicLong();
+
+  @Test
+  void should_allow_one_second_worth_of_rows() {
+    // given
+    RateLimiter rateLimiter = new RateLimiter(100, 0, clock::get);
+
+    // when
+    boolean allowed = rateLimiter.tryAcquire(100, Long.MAX_VALUE);
+
+    // then
+    assertThat(allowed).isTrue();
+    assertThat(rateLimiter.getDelayMillis()).isZero();
+  }
+
+  @Test
+  void should_throttle_until_debt_is_paid_back() {
+    // given
+    RateLimiter rateLimiter = new RateLimiter(100, 0, clock::get);
+
+    // when
+    boolean allowed = rateLimiter.tryAcquire(150, 0);
+
+    // then
+    // the write is admitted since the bucket was not in debt yet, but 50 rows over the limit take
+    // half a second to be paid back, and writes are rejected in the meantime without taking tokens
+    assertThat(allowed).isTrue();
+    assertThat(rateLimiter.getDelayMillis()).isEqualTo(500);
+    assertThat(rateLimiter.tryAcquire(1, 0)).isFalse();
+    assertThat(rateLimiter.getDelayMillis()).isEqualTo(500);
+
+    // when
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(300));
+
+    // then
+    assertThat(rateLimiter.getDelayMillis()).isEqualTo(200);
+    assertThat(rateLimiter.tryAcquire(1, 0)).isFalse();
+
+    // when
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+
+    // then
+    assertThat(rateLimiter.getDelayMillis()).isZero();
+    assertThat(rateLimiter.tryAcquire(1, 0)).isTrue();
+  }
+
+  @Test
+  void should_throttle_on_bytes() {
+    // given
+    RateLimiter rateLimiter = new RateLimiter(0, 1000, clock::get);
+
+    // when
+    boolean allowed = rateLimiter.tryAcquire(1, 1500);
+
+    // then
+    assertThat(allowed).isTrue();
+    assertThat(rateLimiter.getDelayMillis()).isEqualTo(500);
+    assertThat(rateLimiter.tryAcquire(1, 0)).isFalse();
+  }
+
+  @Test
+  void should_cap_debt_at_one_second_worth_of_tokens() {
+    // given
+    RateLimiter rateLimiter = new RateLimiter(100, 1000, clock::get);
+
+    // when
+    boolean allowed = rateLimiter.tryAcquire(1000, 100_000);
+
+    // then
+    assertThat(allowed).isTrue();
+    assertThat(rateLimiter.getDelayMillis()).isEqualTo(1000);
+
+    // when
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+
+    // then
+    assertThat(rateLimiter.getDelayMillis()).isZero();
+    assertThat(rateLimiter.tryAcquire(1, 0)).isTrue();
+  }
+
+  @Test
+  void should_use_longest_delay_of_both_limits() {
+    // given
+    RateLimiter rateLimiter = new RateLimiter(10, 1000, clock::get);
+
+    // when
+    rateLimiter.tryAcquire(20, 1500);
+
+    // then
+    // 10 rows over the limit take 1s, 500 bytes take 500ms
+    assertThat(rateLimiter.getDelayMillis()).isEqualTo(1000);
+  }
+
+  @Test
+  void should_not_accumulate_more_than_one_second_of_tokens() {
+    // given
+    RateLimiter rateLimiter = new RateLimiter(100, 0, clock::get);
+
+    // when
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+    // then
+    assertThat(rateLimiter.tryAcquire(101, 0)).isTrue();
+    assertThat(rateLimiter.tryAcquire(1, 0)).isFalse();
+  }
+}
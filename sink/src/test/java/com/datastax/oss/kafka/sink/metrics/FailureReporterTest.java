@@ -0,0 +1,107 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.slf4j.event.Level.WARN;
+
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.oss.dsbulk.tests.logging.LogCapture;
+import com.datastax.oss.dsbulk.tests.logging.LogInterceptingExtension;
+import com.datastax.oss.dsbulk.tests.logging.LogInterceptor;
+import com.datastax.oss.kafka.sink.config.TableConfig;
+import com.datastax.oss.kafka.sink.config.TableConfigBuilder;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(LogInterceptingExtension.class)
+class FailureReporterTest {
+  private final TableConfig tableConfig =
+      new TableConfigBuilder("mytopic", "ks", "mytable", false)
+          .addSimpleSetting("mapping", "c1=value")
+          .build();
+
+  @Test
+  void should_aggregate_failures_by_topic_table_and_error(
+      @LogCapture(level = WARN, value = FailureReporter.class) LogInterceptor logs) {
+    // given
+    MetricRegistry metricRegistry = new MetricRegistry();
+    FailureReporter reporter = new FailureReporter(metricRegistry, 3600, 2);
+
+    // when
+    for (int i = 0; i < 5; i++) {
+      reporter.report(
+          tableConfig, record(i), new IllegalStateException("read-only"), "INSERT INTO ks.mytable");
+    }
+    reporter.report(tableConfig, record(5), new IllegalArgumentException("bad value"), null);
+
+    // then
+    assertThat(logs.getLoggedMessages()).isEmpty();
+    assertThat(reporter.getPendingFailureCount()).isEqualTo(6);
+    assertThat(
+            metricRegistry
+                .meter("mytopic/ks/mytable/failuresByError/java.lang.IllegalStateException")
+                .getCount())
+        .isEqualTo(5);
+    assertThat(
+            metricRegistry
+                .meter("mytopic/ks/mytable/failuresByError/java.lang.IllegalArgumentException")
+                .getCount())
+        .isEqualTo(1);
+
+    // when
+    reporter.flush();
+
+    // then
+    assertThat(reporter.getPendingFailureCount()).isZero();
+    assertThat(logs.getLoggedMessages()).hasSize(2);
+    assertThat(logs.getAllMessagesAsString())
+        .contains(
+            "5 records from topic mytopic failed to be written to ks.mytable in the last 3600 "
+                + "seconds with java.lang.IllegalStateException: read-only")
+        .contains("SinkRecord{kafkaOffset=0")
+        .contains("SinkRecord{kafkaOffset=1")
+        .doesNotContain("SinkRecord{kafkaOffset=2")
+        .contains("statement: INSERT INTO ks.mytable")
+        .contains(
+            "1 record from topic mytopic failed to be written to ks.mytable in the last 3600 "
+                + "seconds with java.lang.IllegalArgumentException: bad value");
+    reporter.close();
+  }
+
+  @Test
+  void should_log_every_failure_when_interval_is_zero(
+      @LogCapture(level = WARN, value = FailureReporter.class) LogInterceptor logs) {
+    // given
+    FailureReporter reporter = new FailureReporter(new MetricRegistry(), 0, 2);
+
+    // when
+    reporter.report(tableConfig, record(0), new IllegalStateException("read-only"), "INSERT");
+    reporter.report(null, record(1), new IllegalArgumentException("unknown topic"), null);
+
+    // then
+    assertThat(reporter.getPendingFailureCount()).isZero();
+    assertThat(logs.getAllMessagesAsString())
+        .contains("Error inserting/updating row for Kafka record SinkRecord{kafkaOffset=0")
+        .contains("Error decoding/mapping Kafka record SinkRecord{kafkaOffset=1");
+    reporter.close();
+  }
+
+  private static SinkRecord record(long offset) {
+    return new SinkRecord("mytopic", 0, null, null, null, "value", offset);
+  }
+}
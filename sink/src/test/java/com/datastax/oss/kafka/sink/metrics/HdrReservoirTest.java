@@ -0,0 +1,128 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.codahale.metrics.Snapshot;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class HdrReservoirTest {
+  private final AtomicLong clock = new AtomicLong();
+  private final HdrReservoir reservoir = new HdrReservoir(clock::get);
+
+  @Test
+  void should_compute_percentiles_of_recorded_values() {
+    // given
+    for (int i = 1; i <= 1000; i++) {
+      reservoir.update(i);
+    }
+
+    // when
+    Snapshot snapshot = reservoir.getSnapshot();
+
+    // then
+    assertThat(snapshot.size()).isEqualTo(1000);
+    assertThat(snapshot.getMin()).isEqualTo(1);
+    assertThat((double) snapshot.getMax()).isCloseTo(1000, within(10d));
+    assertThat(snapshot.getMedian()).isCloseTo(500, within(5d));
+    assertThat(snapshot.get99thPercentile()).isCloseTo(990, within(10d));
+    assertThat(snapshot.getMean()).isCloseTo(500.5, within(5d));
+  }
+
+  @Test
+  void should_keep_values_of_previous_interval() {
+    // given
+    reservoir.update(10);
+    reservoir.getSnapshot();
+
+    // when
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+    reservoir.getSnapshot();
+    reservoir.update(20);
+
+    // then
+    assertThat(reservoir.getSnapshot().getValues()).containsExactly(10, 20);
+
+    // when
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+    // then
+    assertThat(reservoir.getSnapshot().getValues()).containsExactly(20);
+
+    // when
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+
+    // then
+    assertThat(reservoir.getSnapshot().size()).isZero();
+    assertThat(reservoir.getSnapshot().getMax()).isZero();
+  }
+
+  @Test
+  void should_drop_values_of_all_intervals_skipped_since_last_snapshot() {
+    // given
+    reservoir.update(10);
+    reservoir.getSnapshot();
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+    reservoir.update(20);
+    assertThat(reservoir.getSnapshot().getValues()).containsExactly(10, 20);
+
+    // when
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(150));
+
+    // then
+    assertThat(reservoir.getSnapshot().size()).isZero();
+
+    // when
+    reservoir.update(30);
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(90));
+
+    // then
+    assertThat(reservoir.getSnapshot().getValues()).containsExactly(30);
+  }
+
+  @Test
+  void should_not_change_snapshot_once_taken() {
+    // given
+    reservoir.update(10);
+    Snapshot snapshot = reservoir.getSnapshot();
+
+    // when
+    reservoir.update(20);
+
+    // then
+    assertThat(snapshot.getValues()).containsExactly(10);
+    assertThat(reservoir.getSnapshot().getValues()).containsExactly(10, 20);
+  }
+
+  @Test
+  void should_record_large_and_negative_values() {
+    // given
+    reservoir.update(-5);
+    reservoir.update(TimeUnit.HOURS.toNanos(1));
+
+    // when
+    Snapshot snapshot = reservoir.getSnapshot();
+
+    // then
+    assertThat(snapshot.getMin()).isZero();
+    assertThat((double) snapshot.getMax())
+        .isCloseTo(TimeUnit.HOURS.toNanos(1), within(TimeUnit.HOURS.toNanos(1) / 100d));
+  }
+}
@@ -22,6 +22,7 @@ import com.datastax.oss.kafka.sink.config.TableConfigBuilder;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import javax.management.ObjectName;
+import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
@@ -54,6 +55,42 @@ class MetricsJmxReporterTest {
                 + ",table=table_1,topic=task_1");
   }
 
+  @Test
+  void should_create_failures_by_error_metric_name() {
+    // given
+    TableConfig tableConfig =
+        new TableConfigBuilder("task_1", "ks_1", "table_1", false)
+            .addSimpleSetting("mapping", "key=key")
+            .build();
+    String metricName =
+        MetricNamesCreator.createFailuresByErrorMetricName(
+            tableConfig, IllegalArgumentException.class);
+
+    // when
+    ObjectName name = MetricsJmxReporter.getObjectName("instance-one", "domain", metricName);
+
+    // then
+    assertThat(name.getCanonicalName())
+        .isEqualTo(
+            "domain:connector=instance-one,error=\"java.lang.IllegalArgumentException\","
+                + "keyspace=ks_1,name=failuresByError,table=table_1,topic=task_1");
+  }
+
+  @Test
+  void should_create_oldest_unacked_record_age_metric_name() {
+    // given
+    String metricName =
+        MetricNamesCreator.createOldestUnackedRecordAgeMetricName(new TopicPartition("task_1", 3));
+
+    // when
+    ObjectName name = MetricsJmxReporter.getObjectName("instance-one", "domain", metricName);
+
+    // then
+    assertThat(name.getCanonicalName())
+        .isEqualTo(
+            "domain:connector=instance-one,name=oldestUnackedRecordAge,partition=3,topic=task_1");
+  }
+
   @Test
   void should_create_driver_metrics() {
     // given
@@ -120,6 +157,21 @@ class MetricsJmxReporterTest {
         Arguments.of(
             (Function<TableConfig, String>) MetricNamesCreator::createFailedRecordCountMetricName,
             "failedRecordCount"),
+        Arguments.of(
+            (Function<TableConfig, String>) MetricNamesCreator::createFreshnessMetricName,
+            "freshness"),
+        Arguments.of(
+            (Function<TableConfig, String>) MetricNamesCreator::createMapLatencyMetricName,
+            "mapLatency"),
+        Arguments.of(
+            (Function<TableConfig, String>) MetricNamesCreator::createEnqueueDelayMetricName,
+            "enqueueDelay"),
+        Arguments.of(
+            (Function<TableConfig, String>) MetricNamesCreator::createExecuteLatencyMetricName,
+            "executeLatency"),
+        Arguments.of(
+            (Function<TableConfig, String>) MetricNamesCreator::createEndToEndLatencyMetricName,
+            "endToEndLatency"),
         Arguments.of(
             (Function<TableConfig, String>) MetricNamesCreator::createRecordCountMetricName,
             "recordCount"));
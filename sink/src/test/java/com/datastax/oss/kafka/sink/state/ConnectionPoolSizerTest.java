@@ -0,0 +1,52 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.state;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class ConnectionPoolSizerTest {
+
+  @ParameterizedTest(name = "[{index}] size={0}, maxInFlight={1} -> {2}")
+  @CsvSource({
+    // grows when connections are more than half busy
+    "4, 2049, 5",
+    "4, 2048, 4",
+    // but not above the maximum
+    "8, 8000, 8",
+    // shrinks when a connection less would be less than a quarter busy
+    "4, 767, 3",
+    "4, 768, 4",
+    // but not below the configured size
+    "2, 0, 2",
+  })
+  void should_compute_size_from_requests_in_flight(int size, int maxInFlight, int expected) {
+    assertThat(ConnectionPoolSizer.computeSize(size, 2, 8, maxInFlight, 1024)).isEqualTo(expected);
+  }
+
+  @Test
+  void should_set_pool_size_in_config() {
+    // given
+    ConnectionPoolSizer sizer = new ConnectionPoolSizer(4, 8);
+
+    // when-then
+    assertThat(sizer.getConfig().getInt("datastax-java-driver.advanced.connection.pool.local.size"))
+        .isEqualTo(4);
+  }
+}
@@ -21,15 +21,20 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.datastax.oss.driver.api.core.CqlSession;
 import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableList;
 import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableMap;
+import com.datastax.oss.kafka.sink.RecordMapper;
 import com.datastax.oss.kafka.sink.config.CassandraSinkConfig;
 import com.datastax.oss.kafka.sink.config.TableConfig;
 import com.datastax.oss.kafka.sink.config.TableConfigBuilder;
+import com.datastax.oss.kafka.sink.metrics.MetricNamesCreator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.kafka.common.TopicPartition;
 import org.assertj.core.api.ThrowableAssert;
 import org.junit.jupiter.api.Test;
 
@@ -58,6 +63,176 @@ class InstanceStateTest {
     assertTopicNotFound(() -> instanceState.getRecordMapper(config));
   }
 
+  @Test
+  void should_throw_prepare_failure_when_getting_record_mapper() {
+    // given
+    TopicState topicState = new TopicState(null);
+    TableConfig tableConfig =
+        new TableConfigBuilder("t1", "ks", "tb", false)
+            .addSimpleSetting(MAPPING_OPT, "v=key.v")
+            .build();
+    topicState.failRecordMapper(tableConfig, new RuntimeException("Prepare failed"));
+    InstanceState instanceState =
+        new InstanceState(
+            new CassandraSinkConfig(ImmutableMap.of("name", "instance-a")),
+            mock(CqlSession.class),
+            ImmutableMap.of("t1", topicState),
+            new MetricRegistry());
+
+    // when-then
+    assertThatThrownBy(() -> instanceState.getRecordMapper(tableConfig))
+        .isInstanceOf(RuntimeException.class)
+        .hasMessage("Prepare failed");
+    assertThatThrownBy(() -> instanceState.getTableHandles("t1").get(0).getRecordMapper())
+        .isInstanceOf(RuntimeException.class)
+        .hasMessage("Prepare failed");
+  }
+
+  @Test
+  void should_replace_record_mapper_of_table_handles() {
+    // given
+    TopicState topicState = new TopicState(null);
+    TableConfig tableConfig =
+        new TableConfigBuilder("t1", "ks", "tb", false)
+            .addSimpleSetting(MAPPING_OPT, "v=key.v")
+            .build();
+    topicState.failRecordMapper(tableConfig, new RuntimeException("Prepare failed"));
+    InstanceState instanceState =
+        new InstanceState(
+            new CassandraSinkConfig(ImmutableMap.of("name", "instance-a")),
+            mock(CqlSession.class),
+            ImmutableMap.of("t1", topicState),
+            new MetricRegistry());
+    TableHandle tableHandle = instanceState.getTableHandles("t1").get(0);
+    RecordMapper recordMapper = mock(RecordMapper.class);
+
+    // when
+    topicState.setRecordMapper(tableConfig, recordMapper);
+
+    // then
+    assertThat(instanceState.getRecordMapper(tableConfig)).isSameAs(recordMapper);
+    assertThat(tableHandle.getRecordMapper()).isSameAs(recordMapper);
+  }
+
+  @Test
+  void should_fail_record_mapper_of_table_handles_after_it_was_set() {
+    // given
+    TopicState topicState = new TopicState(null);
+    TableConfig tableConfig =
+        new TableConfigBuilder("t1", "ks", "tb", false)
+            .addSimpleSetting(MAPPING_OPT, "v=key.v")
+            .build();
+    topicState.setRecordMapper(tableConfig, mock(RecordMapper.class));
+    InstanceState instanceState =
+        new InstanceState(
+            new CassandraSinkConfig(ImmutableMap.of("name", "instance-a")),
+            mock(CqlSession.class),
+            ImmutableMap.of("t1", topicState),
+            new MetricRegistry());
+    TableHandle tableHandle = instanceState.getTableHandles("t1").get(0);
+
+    // when
+    topicState.failRecordMapper(tableConfig, new RuntimeException("Table ks.tb was dropped"));
+
+    // then
+    assertThatThrownBy(() -> instanceState.getRecordMapper(tableConfig))
+        .isInstanceOf(RuntimeException.class)
+        .hasMessage("Table ks.tb was dropped");
+    assertThatThrownBy(tableHandle::getRecordMapper)
+        .isInstanceOf(RuntimeException.class)
+        .hasMessage("Table ks.tb was dropped");
+  }
+
+  @Test
+  void should_signal_when_record_mappers_are_ready_even_if_prepare_failed() {
+    // given
+    TopicState topicState = new TopicState(null);
+    TableConfig tableConfig1 =
+        new TableConfigBuilder("t1", "ks", "tb1", false)
+            .addSimpleSetting(MAPPING_OPT, "v=key.v")
+            .build();
+    TableConfig tableConfig2 =
+        new TableConfigBuilder("t1", "ks", "tb2", false)
+            .addSimpleSetting(MAPPING_OPT, "v=key.v")
+            .build();
+    topicState.addTable(tableConfig1);
+    topicState.addTable(tableConfig2);
+    InstanceState instanceState =
+        new InstanceState(
+            new CassandraSinkConfig(ImmutableMap.of("name", "instance-a")),
+            mock(CqlSession.class),
+            ImmutableMap.of("t1", topicState),
+            new MetricRegistry());
+
+    // when
+    CompletableFuture<Void> ready = instanceState.whenRecordMappersReady("t1");
+    topicState.setRecordMapper(tableConfig1, mock(RecordMapper.class));
+
+    // then
+    assertThat(ready).isNotDone();
+
+    // when
+    topicState.failRecordMapper(tableConfig2, new RuntimeException("Prepare failed"));
+
+    // then
+    assertThat(ready).isCompleted();
+    assertThat(instanceState.whenRecordMappersReady("unknown")).isCompleted();
+  }
+
+  @Test
+  void should_add_and_initialize_topic_state_once() {
+    // given
+    InstanceState instanceState =
+        new InstanceState(
+            new CassandraSinkConfig(ImmutableMap.of("name", "instance-a")),
+            mock(CqlSession.class),
+            ImmutableMap.of(),
+            new MetricRegistry());
+    TableConfig tableConfig =
+        new TableConfigBuilder("t1", "ks", "tb", false)
+            .addSimpleSetting(MAPPING_OPT, "v=key.v")
+            .build();
+    assertThat(instanceState.findTopicState("t1")).isNull();
+
+    // when
+    TopicState created = new TopicState(null);
+    created.addTable(tableConfig);
+    TopicState topicState = instanceState.addTopicStateIfAbsent("t1", created);
+
+    // then
+    assertThat(instanceState.findTopicState("t1")).isSameAs(topicState);
+    assertThat(instanceState.getTableHandles("t1")).hasSize(1);
+    assertThat(instanceState.getRecordCounter("t1", "ks.tb")).isNotNull();
+    assertThat(instanceState.addTopicStateIfAbsent("t1", new TopicState(null)))
+        .isSameAs(topicState);
+  }
+
+  @Test
+  void should_only_remove_oldest_unacked_record_age_gauge_registered_by_same_task() {
+    // given
+    MetricRegistry metricRegistry = new MetricRegistry();
+    InstanceState instanceState =
+        new InstanceState(config, session, ImmutableMap.of(), metricRegistry);
+    TopicPartition partition = new TopicPartition("t1", 0);
+    String name = MetricNamesCreator.createOldestUnackedRecordAgeMetricName(partition);
+    Gauge<Long> previousOwnerGauge = () -> 1L;
+    Gauge<Long> newOwnerGauge = () -> 2L;
+    instanceState.registerOldestUnackedRecordAgeGauge(partition, previousOwnerGauge);
+    instanceState.registerOldestUnackedRecordAgeGauge(partition, newOwnerGauge);
+
+    // when
+    instanceState.removeOldestUnackedRecordAgeGauge(partition, previousOwnerGauge);
+
+    // then
+    assertThat(metricRegistry.getGauges().get(name)).isSameAs(newOwnerGauge);
+
+    // when
+    instanceState.removeOldestUnackedRecordAgeGauge(partition, newOwnerGauge);
+
+    // then
+    assertThat(metricRegistry.getGauges()).doesNotContainKey(name);
+  }
+
   private void assertTopicNotFound(ThrowableAssert.ThrowingCallable callable) {
     assertThatThrownBy(callable)
         .isInstanceOf(RuntimeException.class)
@@ -78,7 +253,8 @@ class InstanceStateTest {
             .build(),
         ImmutableList.of(),
         null,
-        null);
+        null,
+        false);
 
     Map<String, TopicState> topicStates = ImmutableMap.of("t1", topicState);
     InstanceState instanceState =
@@ -89,7 +265,7 @@ class InstanceStateTest {
             metricRegistry);
 
     // when
-    instanceState.incrementRecordCounter("t1", "ks.tb", 1);
+    instanceState.getRecordCounter("t1", "ks.tb").mark();
 
     // then
     assertThat(instanceState.getRecordCounter("t1", "ks.tb").getCount()).isEqualTo(1);
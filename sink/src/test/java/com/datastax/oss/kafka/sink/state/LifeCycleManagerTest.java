@@ -34,6 +34,7 @@ import com.datastax.oss.driver.api.core.metadata.Metadata;
 import com.datastax.oss.driver.api.core.metadata.schema.ColumnMetadata;
 import com.datastax.oss.driver.api.core.metadata.schema.KeyspaceMetadata;
 import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
+import com.datastax.oss.driver.api.core.type.DataTypes;
 import com.datastax.oss.driver.api.core.type.codec.registry.CodecRegistry;
 import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableMap;
 import com.datastax.oss.kafka.sink.config.CassandraSinkConfig;
@@ -331,6 +332,53 @@ class LifeCycleManagerTest {
                 "DELETE FROM myks.mytable WHERE %s = :%s AND \"%s\" = :\"%s\"", C1, C1, C2, C2));
   }
 
+  @Test
+  void should_classify_insert_as_idempotent() {
+    TableConfig config =
+        makeTableConfig(
+            "myks", "mytable", String.format("%s=key.f1, \"%s\"=key.f2, %s=key.f3", C1, C2, C3));
+
+    assertThat(LifeCycleManager.isIdempotentInsertUpdate(config, table)).isTrue();
+  }
+
+  @Test
+  void should_classify_counter_update_as_not_idempotent() {
+    when(col3.getType()).thenReturn(COUNTER);
+
+    TableConfig config =
+        makeTableConfig("myks", "mytable", String.format("%s=key.f1, %s=key.f3", C1, C3));
+
+    assertThat(LifeCycleManager.isIdempotentInsertUpdate(config, table)).isFalse();
+  }
+
+  @Test
+  void should_classify_insert_into_list_as_not_idempotent() {
+    when(col3.getType()).thenReturn(DataTypes.listOf(TEXT));
+
+    TableConfig config =
+        makeTableConfig("myks", "mytable", String.format("%s=key.f1, %s=key.f3", C1, C3));
+
+    assertThat(LifeCycleManager.isIdempotentInsertUpdate(config, table)).isFalse();
+  }
+
+  @Test
+  void should_classify_insert_into_frozen_list_as_idempotent() {
+    when(col3.getType()).thenReturn(DataTypes.frozenListOf(TEXT));
+
+    TableConfig config =
+        makeTableConfig("myks", "mytable", String.format("%s=key.f1, %s=key.f3", C1, C3));
+
+    assertThat(LifeCycleManager.isIdempotentInsertUpdate(config, table)).isTrue();
+  }
+
+  @Test
+  void should_classify_insert_with_function_as_not_idempotent() {
+    TableConfig config =
+        makeTableConfig("myks", "mytable", String.format("%s=key.f1, %s=now()", C1, C3));
+
+    assertThat(LifeCycleManager.isIdempotentInsertUpdate(config, table)).isFalse();
+  }
+
   @Test
   void should_throw_config_exception_if_contact_points_are_correct_but_localDc_not_supplied() {
     // given
@@ -0,0 +1,213 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.state;
+
+import static com.datastax.oss.driver.api.core.type.DataTypes.TEXT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.datastax.oss.driver.api.core.CqlIdentifier;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.metadata.Metadata;
+import com.datastax.oss.driver.api.core.metadata.schema.ColumnMetadata;
+import com.datastax.oss.driver.api.core.metadata.schema.KeyspaceMetadata;
+import com.datastax.oss.driver.api.core.metadata.schema.TableMetadata;
+import com.datastax.oss.driver.api.core.type.UserDefinedType;
+import com.datastax.oss.driver.shaded.guava.common.collect.ImmutableMap;
+import com.datastax.oss.kafka.sink.RecordMapper;
+import com.datastax.oss.kafka.sink.config.CassandraSinkConfig;
+import com.datastax.oss.kafka.sink.config.TableConfig;
+import com.datastax.oss.kafka.sink.config.TopicConfig;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("unchecked")
+class SchemaChangeHandlerTest {
+  private static final CqlIdentifier KS = CqlIdentifier.fromInternal("ks");
+  private static final CqlIdentifier MYTABLE = CqlIdentifier.fromInternal("mytable");
+  private static final CqlIdentifier C1 = CqlIdentifier.fromInternal("c1");
+  private static final CqlIdentifier C2 = CqlIdentifier.fromInternal("c2");
+
+  private final SchemaChangeHandler handler = new SchemaChangeHandler();
+  private CqlSession session;
+  private Map<CqlIdentifier, ColumnMetadata> columns;
+  private TableMetadata table;
+  private TopicState topicState;
+  private TopicState otherTopicState;
+  private TableConfig tableConfig;
+  private TableConfig otherTableConfig;
+  private RecordMapper initialMapper;
+  private RecordMapper otherInitialMapper;
+
+  @BeforeEach
+  void setUp() {
+    session = mock(CqlSession.class);
+    Metadata metadata = mock(Metadata.class);
+    KeyspaceMetadata keyspace = mock(KeyspaceMetadata.class);
+    columns = ImmutableMap.of(C1, mockColumn(C1), C2, mockColumn(C2));
+    table = mockTable(columns);
+    when(session.getMetadata()).thenReturn(metadata);
+    when(metadata.getKeyspace(KS)).thenReturn(Optional.of(keyspace));
+    when(keyspace.getTable(MYTABLE)).thenReturn(Optional.of(table));
+    when(session.prepareAsync(anyString()))
+        .thenAnswer(invocation -> CompletableFuture.completedFuture(mock(PreparedStatement.class)));
+
+    TopicConfig topicConfig = topicConfig("mytopic", "ks");
+    TopicConfig otherTopicConfig = topicConfig("othertopic", "other_ks");
+    tableConfig = topicConfig.getTableConfigs().iterator().next();
+    otherTableConfig = otherTopicConfig.getTableConfigs().iterator().next();
+    CassandraSinkConfig config = mock(CassandraSinkConfig.class);
+    when(config.getMaxConcurrentRequests()).thenReturn(10);
+    when(config.getTopicConfigs())
+        .thenReturn(ImmutableMap.of("mytopic", topicConfig, "othertopic", otherTopicConfig));
+
+    topicState = new TopicState(null);
+    initialMapper = mock(RecordMapper.class);
+    topicState.setRecordMapper(tableConfig, initialMapper);
+    otherTopicState = new TopicState(null);
+    otherInitialMapper = mock(RecordMapper.class);
+    otherTopicState.setRecordMapper(otherTableConfig, otherInitialMapper);
+
+    InstanceState instanceState = mock(InstanceState.class);
+    when(instanceState.getConfig()).thenReturn(config);
+    when(instanceState.getSession()).thenReturn(session);
+    when(instanceState.findTopicState("mytopic")).thenReturn(topicState);
+    when(instanceState.findTopicState("othertopic")).thenReturn(otherTopicState);
+    handler.setInstanceState(instanceState);
+  }
+
+  @Test
+  void should_refresh_record_mapper_when_table_is_created() {
+    // when
+    handler.onTableCreated(table);
+
+    // then
+    // the statements are prepared again, bypassing those cached by the driver
+    verify(session, atLeastOnce()).prepareAsync(startsWith("/* schema refresh "));
+    assertThat(topicState.getRecordMapper(tableConfig)).isNotSameAs(initialMapper);
+    assertThat(otherTopicState.getRecordMapper(otherTableConfig)).isSameAs(otherInitialMapper);
+  }
+
+  @Test
+  void should_not_refresh_record_mapper_when_only_table_options_change() {
+    // given
+    TableMetadata previous = mockTable(columns);
+
+    // when
+    handler.onTableUpdated(table, previous);
+
+    // then
+    verify(session, never()).prepareAsync(anyString());
+    assertThat(topicState.getRecordMapper(tableConfig)).isSameAs(initialMapper);
+  }
+
+  @Test
+  void should_refresh_record_mapper_when_table_columns_change() {
+    // given
+    TableMetadata previous = mockTable(ImmutableMap.of(C1, columns.get(C1)));
+
+    // when
+    handler.onTableUpdated(table, previous);
+
+    // then
+    assertThat(topicState.getRecordMapper(tableConfig)).isNotSameAs(initialMapper);
+    assertThat(otherTopicState.getRecordMapper(otherTableConfig)).isSameAs(otherInitialMapper);
+  }
+
+  @Test
+  void should_refresh_record_mappers_of_keyspace_when_user_type_changes() {
+    // given
+    UserDefinedType current = mock(UserDefinedType.class);
+    when(current.getKeyspace()).thenReturn(KS);
+
+    // when
+    handler.onUserDefinedTypeUpdated(current, mock(UserDefinedType.class));
+
+    // then
+    assertThat(topicState.getRecordMapper(tableConfig)).isNotSameAs(initialMapper);
+    assertThat(otherTopicState.getRecordMapper(otherTableConfig)).isSameAs(otherInitialMapper);
+  }
+
+  @Test
+  void should_fail_record_mapper_when_table_is_dropped_and_rebuild_it_when_created_again() {
+    // when
+    handler.onTableDropped(table);
+
+    // then
+    assertThatThrownBy(() -> topicState.getRecordMapper(tableConfig))
+        .isInstanceOf(RuntimeException.class)
+        .hasMessageContaining("was dropped");
+    assertThat(otherTopicState.getRecordMapper(otherTableConfig)).isSameAs(otherInitialMapper);
+
+    // when
+    handler.onTableCreated(table);
+
+    // then
+    assertThat(topicState.getRecordMapper(tableConfig)).isNotNull().isNotSameAs(initialMapper);
+  }
+
+  @Test
+  void should_ignore_schema_changes_until_instance_state_is_set() {
+    // given
+    SchemaChangeHandler handler = new SchemaChangeHandler();
+
+    // when
+    handler.onTableCreated(table);
+    handler.onTableDropped(table);
+
+    // then
+    verifyZeroInteractions(session);
+    assertThat(topicState.getRecordMapper(tableConfig)).isSameAs(initialMapper);
+  }
+
+  private static TopicConfig topicConfig(String topic, String keyspace) {
+    Map<String, String> settings = new HashMap<>();
+    settings.put(String.format("topic.%s.%s.mytable.mapping", topic, keyspace), "c1=key, c2=value");
+    return new TopicConfig(topic, settings, false);
+  }
+
+  private static TableMetadata mockTable(Map<CqlIdentifier, ColumnMetadata> columns) {
+    TableMetadata table = mock(TableMetadata.class);
+    when(table.getKeyspace()).thenReturn(KS);
+    when(table.getName()).thenReturn(MYTABLE);
+    when(table.getColumns()).thenReturn(columns);
+    columns.forEach((name, column) -> when(table.getColumn(name)).thenReturn(Optional.of(column)));
+    ColumnMetadata primaryKey = columns.get(C1);
+    when(table.getPrimaryKey()).thenReturn(Collections.singletonList(primaryKey));
+    return table;
+  }
+
+  private static ColumnMetadata mockColumn(CqlIdentifier name) {
+    ColumnMetadata column = mock(ColumnMetadata.class);
+    when(column.getName()).thenReturn(name);
+    when(column.getType()).thenReturn(TEXT);
+    return column;
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.kafka.sink.state;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.junit.jupiter.api.Test;
+
+class StatementPreparerTest {
+
+  @Test
+  void should_prepare_at_most_max_statements_at_a_time() {
+    // given
+    CqlSession session = mock(CqlSession.class);
+    List<CompletableFuture<PreparedStatement>> prepares = new ArrayList<>();
+    when(session.prepareAsync(anyString()))
+        .thenAnswer(
+            invocation -> {
+              CompletableFuture<PreparedStatement> prepare = new CompletableFuture<>();
+              prepares.add(prepare);
+              return prepare;
+            });
+    StatementPreparer preparer = new StatementPreparer(session, 2);
+
+    // when
+    List<CompletionStage<PreparedStatement>> results = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      results.add(preparer.prepareAsync("query" + i));
+    }
+
+    // then
+    verify(session, times(2)).prepareAsync(anyString());
+
+    // when
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    prepares.get(0).complete(preparedStatement);
+    prepares.get(1).completeExceptionally(new RuntimeException("Prepare failed"));
+
+    // then
+    verify(session, times(4)).prepareAsync(anyString());
+    assertThat(results.get(0).toCompletableFuture().join()).isSameAs(preparedStatement);
+    assertThat(results.get(1).toCompletableFuture()).isCompletedExceptionally();
+    assertThat(results.get(2).toCompletableFuture()).isNotDone();
+  }
+
+  @Test
+  void should_prepare_statements_completed_right_away_without_growing_the_stack() {
+    // given
+    CqlSession session = mock(CqlSession.class);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    when(session.prepareAsync(anyString()))
+        .thenReturn(CompletableFuture.completedFuture(preparedStatement));
+    StatementPreparer preparer = new StatementPreparer(session, 1);
+
+    // when
+    List<CompletionStage<PreparedStatement>> results = new ArrayList<>();
+    for (int i = 0; i < 100_000; i++) {
+      results.add(preparer.prepareAsync("query" + i));
+    }
+
+    // then
+    assertThat(results).allMatch(result -> result.toCompletableFuture().isDone());
+  }
+
+  @Test
+  void should_fail_prepare_that_throws_and_keep_preparing_the_others() {
+    // given
+    CqlSession session = mock(CqlSession.class);
+    PreparedStatement preparedStatement = mock(PreparedStatement.class);
+    IllegalStateException error = new IllegalStateException("Session is closed");
+    when(session.prepareAsync(anyString()))
+        .thenThrow(error)
+        .thenReturn(CompletableFuture.completedFuture(preparedStatement));
+    StatementPreparer preparer = new StatementPreparer(session, 1);
+
+    // when
+    CompletionStage<PreparedStatement> result1 = preparer.prepareAsync("query1");
+    CompletionStage<PreparedStatement> result2 = preparer.prepareAsync("query2");
+
+    // then
+    // the slot of the failed prepare was given back
+    assertThat(result1.toCompletableFuture())
+        .hasFailedWithThrowableThat()
+        .isSameAs(error);
+    assertThat(result2.toCompletableFuture().join()).isSameAs(preparedStatement);
+  }
+
+  @Test
+  void should_prepend_comment_to_queries() {
+    // given
+    CqlSession session = mock(CqlSession.class);
+    when(session.prepareAsync(anyString())).thenReturn(new CompletableFuture<>());
+    StatementPreparer preparer = new StatementPreparer(session, 1, "schema refresh 1");
+
+    // when
+    preparer.prepareAsync("INSERT INTO ks.tb (a) VALUES (:a)");
+
+    // then
+    verify(session).prepareAsync("/* schema refresh 1 */ INSERT INTO ks.tb (a) VALUES (:a)");
+  }
+}